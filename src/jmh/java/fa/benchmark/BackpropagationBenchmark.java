@@ -0,0 +1,124 @@
+package fa.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.Workspace;
+import fa.nn.learn.Adam;
+import fa.nn.learn.Backpropagation;
+import fa.nn.learn.SGD;
+import fa.nn.loss.MSE;
+
+/*
+ * Gradient computation and optimizer steps on a 1 → width → width → 1
+ * network. The step benchmarks include accumulating one gradient, since a
+ * step without pending gradients returns immediately; accumulate alone is
+ * measured for reference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class BackpropagationBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({ "16", "64", "256" })
+    int width;
+
+    Backpropagation backprop;
+    Workspace workspace;
+    double[] input;
+    double[] expected;
+    double[][] gradientWeights;
+    double[][] gradientBiases;
+
+    NeuralNetwork sgdNetwork;
+    SGD sgd;
+    NeuralNetwork adamNetwork;
+    Adam adam;
+
+    @Setup
+    public void setup() {
+        NeuralNetwork nn = Networks.xSquared(this.width, 2);
+        this.backprop = new Backpropagation(nn, new MSE());
+        this.input = new double[] { 0.5 };
+        this.expected = new double[] { 0.25 };
+        this.gradientWeights = gradients(nn, true);
+        this.gradientBiases = gradients(nn, false);
+
+        double[][][] data = Networks.xSquaredData(BATCH, 3);
+        this.workspace = nn.createWorkspace(BATCH);
+        this.workspace.stage(data[0], data[1], 0, BATCH);
+
+        // Tiny learning rates keep the parameters stable over millions of steps
+        this.sgdNetwork = Networks.xSquared(this.width, 4);
+        this.sgd = new SGD(this.sgdNetwork, 1e-9);
+        this.sgdNetwork.setup(this.sgd, new MSE());
+
+        this.adamNetwork = Networks.xSquared(this.width, 5);
+        this.adam = new Adam(this.adamNetwork, 1e-9, 0.9, 0.999, 1e-7);
+        this.adamNetwork.setup(this.adam, new MSE());
+
+        Random rand = new Random(6);
+        for (int l = 0; l < this.gradientWeights.length; l++) {
+            this.gradientWeights[l] = Networks.random(this.gradientWeights[l].length, rand);
+            this.gradientBiases[l] = Networks.random(this.gradientBiases[l].length, rand);
+        }
+    }
+
+    @Benchmark
+    public double[][] compute() {
+        this.backprop.compute(this.input, this.expected, this.gradientWeights, this.gradientBiases);
+        return this.gradientWeights;
+    }
+
+    @Benchmark
+    public double[][] computeBatch() {
+        this.backprop.computeBatch(this.workspace, BATCH, this.gradientWeights, this.gradientBiases);
+        return this.gradientWeights;
+    }
+
+    @Benchmark
+    public void sgdAccumulate() {
+        this.sgd.accumulate(this.gradientWeights, this.gradientBiases, 1);
+        this.sgd.reset();
+    }
+
+    @Benchmark
+    public void sgdStep() {
+        this.sgd.accumulate(this.gradientWeights, this.gradientBiases, 1);
+        this.sgd.step();
+    }
+
+    @Benchmark
+    public void adamStep() {
+        this.adam.accumulate(this.gradientWeights, this.gradientBiases, 1);
+        this.adam.step();
+    }
+
+    private static double[][] gradients(NeuralNetwork nn, boolean weights) {
+        Layer[] layers = nn.getLayers();
+        double[][] g = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            int out = layers[l].getOutputSize();
+            g[l] = new double[weights ? out * layers[l].getInputSize() : out];
+        }
+        return g;
+    }
+}
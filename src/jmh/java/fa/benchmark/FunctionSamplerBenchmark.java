@@ -0,0 +1,63 @@
+package fa.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.core.CompiledExpression;
+import fa.core.FunctionSampler;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+/*
+ * Sampling points from expressions of increasing complexity, through the exp4j
+ * interpreter and through CompiledExpression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class FunctionSamplerBenchmark {
+    @Param({ "x", "x^2 + 3*x - 1", "sin(x) * exp(-x^2 / 10) + sqrt(abs(x)) * cos(3 * x) - log(x^2 + 1)" })
+    String expression;
+
+    @Param({ "10000", "1000000" })
+    int points;
+
+    FunctionSampler interpreted;
+    FunctionSampler compiled;
+    Random rand;
+
+    @Setup
+    public void setup() {
+        this.rand = new Random(10);
+        this.interpreted = new FunctionSampler(new ExpressionBuilder(this.expression).variable("x").build(),
+                -10, 10, this.points, this.rand);
+        this.compiled = new FunctionSampler(CompiledExpression.compile(this.expression, "x"),
+                -10, 10, this.points, this.rand);
+    }
+
+    @Benchmark
+    public double[] sample() {
+        this.interpreted.sample(-10, 10, this.points, this.rand);
+        return this.interpreted.y();
+    }
+
+    @Benchmark
+    public double[] sampleCompiled() {
+        this.compiled.sample(-10, 10, this.points, this.rand);
+        return this.compiled.y();
+    }
+}
@@ -0,0 +1,99 @@
+package fa.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fa.nn.Layer;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+
+/*
+ * Single-sample and batched forward/backward through one width x width ReLU
+ * layer feeding another of the same shape.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class LayerBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({ "16", "64", "256" })
+    int width;
+
+    Layer layer;
+    Layer next;
+    double[] input;
+    double[] z;
+    double[] a;
+    double[] dadz;
+    double[] nextDelta;
+
+    double[] batchInput;
+    double[] batchZ;
+    double[] batchA;
+    double[] batchDadz;
+    double[] batchNextDelta;
+    double[] batchDelta;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1);
+        this.layer = new Layer(this.width, this.width, new ReLU(), new XavierInitializer(rand));
+        this.next = new Layer(this.width, this.width, new ReLU(), new XavierInitializer(rand));
+
+        this.input = Networks.random(this.width, rand);
+        this.z = new double[this.width];
+        this.a = new double[this.width];
+        this.dadz = new double[this.width];
+        this.nextDelta = Networks.random(this.width, rand);
+
+        this.batchInput = Networks.random(BATCH * this.width, rand);
+        this.batchZ = new double[BATCH * this.width];
+        this.batchA = new double[BATCH * this.width];
+        this.batchDadz = new double[BATCH * this.width];
+        this.batchNextDelta = Networks.random(BATCH * this.width, rand);
+        this.batchDelta = new double[BATCH * this.width];
+
+        this.layer.forward(this.input, this.z, this.a, this.dadz);
+        this.layer.forwardBatch(this.batchInput, this.batchZ, this.batchA, this.batchDadz, BATCH);
+    }
+
+    @Benchmark
+    public double[] forward() {
+        this.layer.forward(this.input, this.z, this.a);
+        return this.a;
+    }
+
+    @Benchmark
+    public void backward(Blackhole bh) {
+        bh.consume(this.layer.backward(this.nextDelta, this.next, this.dadz));
+    }
+
+    @Benchmark
+    public double[] forwardBatch() {
+        this.layer.forwardBatch(this.batchInput, this.batchZ, this.batchA, this.batchDadz, BATCH);
+        return this.batchA;
+    }
+
+    @Benchmark
+    public double[] backwardBatch() {
+        this.layer.backwardBatch(this.batchNextDelta, this.next, this.batchDadz, this.batchDelta, BATCH);
+        return this.batchDelta;
+    }
+}
@@ -0,0 +1,46 @@
+package fa.benchmark;
+
+import java.util.Random;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+
+/* Fixed-seed networks and data shared by the benchmarks. */
+final class Networks {
+    private Networks() {
+    }
+
+    /* 1 → width → width → 1 ReLU network, as used by the examples. */
+    static NeuralNetwork xSquared(int width, long seed) {
+        Random rand = new Random(seed);
+        return new NeuralNetwork(new Layer[] {
+                new Layer(1, width, new ReLU(), new XavierInitializer(rand)),
+                new Layer(width, width, new ReLU(), new XavierInitializer(rand)),
+                new Layer(width, 1, new Linear(), new XavierInitializer(rand))
+        });
+    }
+
+    /* Gaussian vector of length n. */
+    static double[] random(int n, Random rand) {
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = rand.nextGaussian();
+        }
+        return v;
+    }
+
+    /* n samples of f(x) = x^2 for x in [-1, 1], one row per sample. */
+    static double[][][] xSquaredData(int n, long seed) {
+        Random rand = new Random(seed);
+        double[][] x = new double[n][1];
+        double[][] y = new double[n][1];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+        return new double[][][] { x, y };
+    }
+}
@@ -0,0 +1,63 @@
+package fa.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.nn.NeuralNetwork;
+import fa.nn.learn.Adam;
+import fa.nn.learn.Dataset;
+import fa.nn.loss.MSE;
+
+/* One training epoch and one full loss evaluation on f(x) = x^2. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class NeuralNetworkBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    int samples;
+
+    @Param({ "32" })
+    int batchSize;
+
+    NeuralNetwork nn;
+    Dataset dataset;
+    double[][] x;
+    double[][] y;
+
+    @Setup
+    public void setup() {
+        this.nn = Networks.xSquared(32, 7);
+        this.nn.setup(new Adam(this.nn), new MSE());
+
+        double[][][] data = Networks.xSquaredData(this.samples, 8);
+        this.x = data[0];
+        this.y = data[1];
+        this.dataset = new Dataset(this.x, this.y, 0.2, new Random(9));
+    }
+
+    @Benchmark
+    public NeuralNetwork fitNext() {
+        this.nn.fitNext(this.dataset, this.batchSize);
+        return this.nn;
+    }
+
+    @Benchmark
+    public double calculateLoss() {
+        return this.nn.calculateLoss(this.x, this.y);
+    }
+}
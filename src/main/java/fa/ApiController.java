@@ -1,129 +1,204 @@
 package fa;
 
-import java.io.IOException;
 import java.util.Random;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import net.objecthunter.exp4j.Expression;
-import net.objecthunter.exp4j.ExpressionBuilder;
+import jakarta.servlet.http.HttpSession;
 
+import fa.core.CompiledExpression;
 import fa.core.FunctionSampler;
 import fa.core.Trainer;
 import fa.dto.PredictionResponse;
 import fa.dto.ValidationRequest;
 import fa.dto.ValidationResponse;
-
+import fa.nn.EpochStats;
+import fa.nn.Evaluation;
+import fa.nn.util.Preconditions;
+
+/*
+ * Web API. Every client (HTTP session) has its own validated samples and at
+ * most one training job in TrainingSessions; the stream of a job ends when
+ * the client disconnects, times out or opens a new stream. Snapshots reach
+ * the stream through a SnapshotMailbox, so training never waits for the
+ * client.
+ */
 @RestController
 public class ApiController {
-    private double[] x;
-    private double[] y;
-    private int epochs;
-    private int interval;
+    private final TrainingSessions sessions;
+    private final SampleCache cache;
+    private final ModelCache models;
+    private final long timeout;
+
+    public ApiController(TrainingSessions sessions, SampleCache cache, ModelCache models,
+            @Value("${fa.training.timeout:600000}") long timeout) {
+        this.sessions = sessions;
+        this.cache = cache;
+        this.models = models;
+        this.timeout = timeout;
+    }
 
     /*
      * Validates a math expression and prepares sampling/training parameters.
-     * Returns a ValidationResponse with sampled x,y on success; false if invalid.
+     * Completes with a ValidationResponse with sampled x,y on success; false
+     * if invalid. Samples come from the SampleCache when the same canonical
+     * expression, range, count and seed were sampled before; a newer request
+     * of the same client supersedes this one, which then answers 409.
      */
     @PostMapping("/validate")
-    public ValidationResponse validate(@RequestBody ValidationRequest request) {
-        this.reset();
-
-        Expression expression;
+    public CompletableFuture<ValidationResponse> validate(@RequestBody ValidationRequest request,
+            HttpSession session) {
+        String id = session.getId();
+        CompiledExpression expression;
 
         try {
-            // Parse and vvalidate the expression
-            expression = new ExpressionBuilder(request.getExpression())
-                    .variables("x")
-                    .build();
-
-            expression.setVariable("x", 0);
-            expression.evaluate();
+            // Parse, compile and validate the expression
+            expression = CompiledExpression.compile(request.getExpression(), "x");
+            expression.applyAsDouble(0);
+            Preconditions.requirePositiveOrZero(request.getNpoints(), "npoints");
         } catch (Exception e) {
-            // Return no points if the expression is invalid
+            // Return no points if the expression is invalid; cancel the client's older request so it cannot
+            // store its samples after they are cleared
             System.out.println(e);
-            return new ValidationResponse(false);
+            this.cache.supersede(id);
+            this.sessions.clear(id);
+            return CompletableFuture.completedFuture(new ValidationResponse(false));
         }
 
-        this.epochs = request.getEpochs();
-        this.interval = request.getInterval();
+        SampleCache.Key key = new SampleCache.Key(expression.getCanonicalForm(), request.getXmin(),
+                request.getXmax(), request.getNpoints(), request.getSeed(), request.isGrid());
 
-        // Generate (x, y) samples from the validated expression.
-        FunctionSampler fs = new FunctionSampler(
-                expression,
-                request.getXmin(),
-                request.getXmax(),
-                request.getNpoints(),
-                new Random());
+        return this.cache.request(id, key, () -> {
+            // Generate (x, y) samples from the validated expression, at random or on a grid
+            FunctionSampler fs = new FunctionSampler(expression);
+            if (request.isGrid()) {
+                fs.grid(request.getXmin(), request.getXmax(), request.getNpoints());
+            } else {
+                fs.sample(request.getXmin(), request.getXmax(), request.getNpoints(), new Random(request.getSeed()));
+            }
+            return new SampleCache.Points(fs.x(), fs.y());
+        }, () -> this.sessions.clear(id),
+                p -> this.sessions.put(id, key, p.x, p.y, request.getEpochs(), request.getInterval()))
+                .thenApply(p -> new ValidationResponse(true, p.x, p.y));
+    }
 
-        return new ValidationResponse(true, this.x = fs.x(), this.y = fs.y());
+    /* A /validate request superseded by a newer one of the same client. */
+    @ExceptionHandler(CancellationException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public void superseded() {
     }
 
+    /*
+     * Streams training snapshots; format=f32 selects the compact encoding
+     * (see SnapshotMailbox), json the default.
+     */
     @GetMapping("/stream-sse")
-    public SseEmitter stream() {
-        if (!this.isValid()) {
+    public SseEmitter stream(HttpSession session, @RequestParam(defaultValue = "json") String format) {
+        if (!format.equals("json") && !format.equals("f32")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format: " + format);
+        }
+
+        String id = session.getId();
+        TrainingSessions.Samples s = this.sessions.get(id);
+
+        if (!isValid(s)) {
             throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Data invalid.");
         }
 
-        SseEmitter emitter = new SseEmitter(0L);
-        ExecutorService sseMvcExecutor = Executors.newSingleThreadExecutor();
-
-        Trainer t = new Trainer(this.x, this.y, new Random());
-
-        sseMvcExecutor.execute(() -> {
-            try {
-                for (int epoch = 1; epoch <= epochs; epoch++) {
-                    // Process the data for one epoch
-                    t.next();
-
-                    if (epoch % this.interval == 0) {
-                        // Predict points from (partially) trained model
-                        double[] pred = t.predict(x);
-                        double tl = t.trainLoss();
-                        double vl = t.valLoss();
-
-                        // Return data
-                        PredictionResponse data = new PredictionResponse(x, pred, epoch, tl, vl);
-                        emitter.send(SseEmitter.event()
-                                .name("epoch")
-                                .data(data, MediaType.APPLICATION_JSON));
-                    }
-                }
+        SseEmitter emitter = new SseEmitter(this.timeout);
+        SnapshotMailbox mailbox = new SnapshotMailbox(emitter, format.equals("f32"), s.x);
+        Trainer t = new Trainer(s.x, s.y, new Random());
 
-                // Send a final event so the client knows to close its EventSource
-                emitter.send(SseEmitter.event().name("done").data("ok"));
+        Future<?> job;
+        try {
+            // Replaces (and cancels) this client's previous job
+            job = this.sessions.submit(id, () -> train(t, s, this.models, mailbox, emitter), () -> {
+                mailbox.abort();
                 emitter.complete();
-            } catch (IOException io) {
-                emitter.complete(); // client likely disconnected
-            } catch (Exception e) {
-                emitter.completeWithError(e);
-            } finally {
-                sseMvcExecutor.shutdown();
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many trainings running.");
+        }
+
+        // Deliver snapshots apart from training; a failed send ends the job
+        mailbox.start(() -> this.sessions.cancel(id, job));
 
-        emitter.onTimeout(emitter::complete);
+        // Stop training as soon as the stream ends for any reason
+        emitter.onCompletion(() -> {
+            mailbox.abort();
+            this.sessions.cancel(id, job);
+        });
+        emitter.onError(e -> this.sessions.cancel(id, job));
+        emitter.onTimeout(() -> {
+            this.sessions.cancel(id, job);
+            emitter.complete();
+        });
         return emitter;
     }
 
-    private void reset() {
-        this.x = null;
-        this.y = null;
-        this.epochs = 0;
-        this.interval = 0;
+    /*
+     * Train for the requested epochs, publishing a snapshot every interval
+     * epochs; never waits for the client. Starts from the model cached for
+     * the same task, or warm-starts from the closest one (see ModelCache), and
+     * caches the result.
+     */
+    private static void train(Trainer t, TrainingSessions.Samples s, ModelCache models, SnapshotMailbox mailbox,
+            SseEmitter emitter) {
+        try {
+            ModelCache.Key key = s.source == null ? null
+                    : new ModelCache.Key(s.source.expression(), s.source.xmin(), s.source.xmax(), t.architecture());
+            int done = key == null ? 0 : models.prepare(key, t);
+
+            if (done >= s.epochs) {
+                // Already trained this far: stream the cached result right away, with the epochs it was trained for
+                Evaluation e = t.evaluate();
+                mailbox.publish(new PredictionResponse(s.x, e.getPredictions(), done, e.getTrainLoss(),
+                        e.getValLoss()));
+            }
+
+            for (int epoch = done + 1; epoch <= s.epochs; epoch++) {
+                // Process the data for one epoch; throws once the job is cancelled
+                EpochStats stats = t.next();
+
+                if (epoch % s.interval == 0) {
+                    // Predict points from (partially) trained model; the training loss is the epoch's running loss
+                    Evaluation e = t.evaluate();
+
+                    mailbox.publish(new PredictionResponse(s.x, e.getPredictions(), epoch, stats.getMeanLoss(),
+                            e.getValLoss()));
+                }
+            }
+
+            if (key != null && done < s.epochs) {
+                models.put(key, t, s.epochs);
+            }
+
+            // The sender delivers the last snapshot, then a final event so the client closes its EventSource
+            mailbox.close();
+        } catch (CancellationException c) {
+            // Cancelled by TrainingSessions, which completes the emitter
+        } catch (Exception e) {
+            mailbox.abort();
+            emitter.completeWithError(e);
+        }
     }
 
-    private boolean isValid() {
-        return this.x != null && this.y != null &&
-                this.epochs > 0 && this.interval > 0;
+    private static boolean isValid(TrainingSessions.Samples s) {
+        return s != null && s.x != null && s.y != null &&
+                s.epochs > 0 && s.interval > 0;
     }
 }
@@ -0,0 +1,84 @@
+package fa;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+import fa.nn.util.Preconditions;
+
+/*
+ * Least-recently-used map bounded by the bytes of its values, as estimated
+ * by a weigher: adding a value evicts the least recently used entries until
+ * the total fits the capacity again. A value larger than the whole capacity
+ * is not kept. Thread-safe.
+ */
+final class LruCache<K, V> {
+    private final long capacity;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    LruCache(long capacity, ToLongFunction<V> weigher) {
+        Preconditions.requirePositiveOrZero(capacity, "capacity");
+        this.capacity = capacity;
+        this.weigher = Objects.requireNonNull(weigher, "weigher");
+    }
+
+    /* Return the value of key, or null, and mark it most recently used. */
+    synchronized V get(K key) {
+        return this.entries.get(key);
+    }
+
+    /* Store value under key, evicting least recently used entries beyond the capacity. */
+    synchronized void put(K key, V value) {
+        Objects.requireNonNull(value, "value");
+
+        long size = this.weigher.applyAsLong(value);
+        if (size > this.capacity) {
+            return; // would evict everything and still not fit
+        }
+
+        V old = this.entries.put(key, value);
+        this.bytes += size - (old == null ? 0 : this.weigher.applyAsLong(old));
+
+        Iterator<Map.Entry<K, V>> it = this.entries.entrySet().iterator();
+        while (this.bytes > this.capacity && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            this.bytes -= this.weigher.applyAsLong(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /*
+     * Return up to limit entries accepted by filter, most recently used
+     * first, without changing their order.
+     */
+    synchronized List<Map.Entry<K, V>> recent(int limit, BiPredicate<K, V> filter) {
+        Deque<Map.Entry<K, V>> found = new ArrayDeque<>();
+        for (Map.Entry<K, V> e : this.entries.entrySet()) { // eldest first
+            if (filter.test(e.getKey(), e.getValue())) {
+                found.addFirst(Map.entry(e.getKey(), e.getValue()));
+                if (found.size() > limit) {
+                    found.removeLast();
+                }
+            }
+        }
+        return List.copyOf(found);
+    }
+
+    /* Return the estimated bytes held. */
+    synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /* Return the number of entries. */
+    synchronized int size() {
+        return this.entries.size();
+    }
+}
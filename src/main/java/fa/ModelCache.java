@@ -0,0 +1,104 @@
+package fa;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import fa.core.Trainer;
+
+/*
+ * Trained networks of past /stream-sse jobs, parameters plus optimizer
+ * state, keyed by expression, range and architecture and bounded by memory
+ * like SampleCache. A job for a cached key resumes that model where it
+ * stopped, so a repeat of a finished request streams its result at once.
+ * Any other job warm-starts from the cached model of the same architecture
+ * that fits its samples best, judged by the loss on a small fixed sample of
+ * them (see Trainer#sampleLoss), unless its own random initialization
+ * already does better; users mostly edit the last expression a little, so
+ * that model is usually close. Choosing costs less than one epoch.
+ */
+@Component
+public class ModelCache {
+    private static final long ENTRY_OVERHEAD = 256; // key, architecture string and map node, roughly
+    private static final int CANDIDATES = 8; // most recent models tried as a warm start
+
+    private final LruCache<Key, Model> models;
+
+    /* A training task: the expression in canonical form, its range and Trainer#architecture. */
+    record Key(String expression, double xmin, double xmax, String architecture) {
+    }
+
+    /* A snapshot (see Trainer#snapshot) and the epochs it was trained for; never modified. */
+    static final class Model {
+        final ByteBuffer snapshot;
+        final int epochs;
+
+        Model(ByteBuffer snapshot, int epochs) {
+            this.snapshot = snapshot;
+            this.epochs = epochs;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD + this.snapshot.capacity();
+        }
+    }
+
+    /* Keep up to capacity bytes of snapshots. */
+    public ModelCache(@Value("${fa.models.cache-bytes:67108864}") long capacity) {
+        this.models = new LruCache<>(capacity, Model::bytes);
+    }
+
+    /*
+     * Prepare t, freshly initialized, for the task key. Restores the model
+     * cached for key with its optimizer state and returns the epochs it was
+     * trained for; otherwise loads the parameters of the best warm start, if
+     * any, and returns 0.
+     */
+    int prepare(Key key, Trainer t) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(t, "t");
+
+        Model exact = this.models.get(key);
+        if (exact != null) {
+            t.restore(exact.snapshot, true);
+            return exact.epochs;
+        }
+
+        List<Map.Entry<Key, Model>> candidates = this.models.recent(CANDIDATES,
+                (k, m) -> k.architecture().equals(key.architecture()));
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        ByteBuffer fresh = t.snapshot();
+        double best = t.sampleLoss();
+        Model start = null;
+
+        for (Map.Entry<Key, Model> c : candidates) {
+            t.restore(c.getValue().snapshot, false);
+            double loss = t.sampleLoss();
+            if (loss < best) {
+                best = loss;
+                start = c.getValue();
+            }
+        }
+
+        t.restore(start == null ? fresh : start.snapshot, false);
+        return 0;
+    }
+
+    /* Cache t's current model as trained for epochs on key. */
+    void put(Key key, Trainer t, int epochs) {
+        Objects.requireNonNull(key, "key");
+        this.models.put(key, new Model(t.snapshot(), epochs));
+    }
+
+    /* Return the number of models cached. */
+    int size() {
+        return this.models.size();
+    }
+}
@@ -0,0 +1,170 @@
+package fa;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import fa.nn.util.Preconditions;
+
+/*
+ * Sampled points of /validate, cached by what determines them and bounded
+ * by memory: once the points held exceed the budget the least recently used
+ * entries are evicted. Cached arrays are shared between clients and must not
+ * be modified.
+ *
+ * Requests also coalesce per client. The UI validates on every keystroke, so
+ * a newer request supersedes the client's older one: if that one is still
+ * queued it never runs, and if it is running its result is discarded. Misses
+ * are sampled on a small pool of their own rather than on servlet threads.
+ */
+@Component
+public class SampleCache implements DisposableBean {
+    private static final long ENTRY_OVERHEAD = 128; // key, arrays' headers and map node, roughly
+
+    private final LruCache<Key, Points> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Points>> latest = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor pool;
+
+    /* What determines a set of samples; the expression in canonical form. */
+    record Key(String expression, double xmin, double xmax, int npoints, long seed, boolean grid) {
+    }
+
+    /* Sampled x and y, never modified once cached. */
+    static final class Points {
+        final double[] x;
+        final double[] y;
+
+        Points(double[] x, double[] y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD + 8L * (this.x.length + this.y.length);
+        }
+    }
+
+    /* Keep up to capacity bytes of points and sample on threads threads (0: one per processor). */
+    public SampleCache(@Value("${fa.samples.cache-bytes:67108864}") long capacity,
+            @Value("${fa.samples.threads:0}") int threads) {
+        Preconditions.requirePositiveOrZero(threads, "threads");
+
+        int n = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        AtomicInteger count = new AtomicInteger();
+        this.entries = new LruCache<>(capacity, Points::bytes);
+        this.pool = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "sampling-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* request(client, key, sampler, onStart, onLatest) with nothing to run on start. */
+    CompletableFuture<Points> request(String client, Key key, Supplier<Points> sampler, Consumer<Points> onLatest) {
+        return this.request(client, key, sampler, () -> {
+        }, onLatest);
+    }
+
+    /*
+     * Return the points of key for client, from the cache or computed with
+     * sampler, and supersede the client's previous request, whose future
+     * is cancelled. onStart runs once that request can no longer hand on its
+     * points; onLatest receives the points only while this is still the
+     * client's latest request, so it never sees stale ones.
+     */
+    CompletableFuture<Points> request(String client, Key key, Supplier<Points> sampler, Runnable onStart,
+            Consumer<Points> onLatest) {
+        Objects.requireNonNull(client, "client");
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(sampler, "sampler");
+        Objects.requireNonNull(onStart, "onStart");
+        Objects.requireNonNull(onLatest, "onLatest");
+
+        CompletableFuture<Points> result = new CompletableFuture<>();
+        // Atomic with the previous request's hand-on (see complete), so onStart comes after it or instead of it
+        this.latest.compute(client, (k, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            onStart.run();
+            return result;
+        });
+
+        Points hit = this.get(key);
+        if (hit != null) {
+            this.complete(client, result, hit, onLatest);
+            return result;
+        }
+
+        this.pool.execute(() -> {
+            if (result.isDone()) {
+                return; // superseded while queued
+            }
+
+            try {
+                Points p = sampler.get();
+                this.put(key, p);
+                this.complete(client, result, p, onLatest);
+            } catch (RuntimeException e) {
+                this.latest.remove(client, result);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /* Cancel the client's pending request, if any, without starting another. */
+    void supersede(String client) {
+        CompletableFuture<Points> previous = this.latest.remove(Objects.requireNonNull(client, "client"));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /* Return the cached points of key, or null. */
+    Points get(Key key) {
+        return this.entries.get(key);
+    }
+
+    /* Cache p under key, evicting least recently used entries beyond the budget. */
+    void put(Key key, Points p) {
+        this.entries.put(key, p);
+    }
+
+    /* Return the bytes of points cached. */
+    long getBytes() {
+        return this.entries.getBytes();
+    }
+
+    /* Return the number of entries cached. */
+    int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public void destroy() {
+        this.pool.shutdownNow();
+    }
+
+    private void complete(String client, CompletableFuture<Points> result, Points p, Consumer<Points> onLatest) {
+        // Atomic with a newer request's put, so only the latest result is handed on
+        this.latest.computeIfPresent(client, (k, current) -> {
+            if (current != result) {
+                return current;
+            }
+            onLatest.accept(p);
+            return null;
+        });
+        result.complete(p);
+    }
+}
@@ -0,0 +1,155 @@
+package fa;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import fa.dto.CompactPredictionResponse;
+import fa.dto.CompactStreamStart;
+import fa.dto.PredictionResponse;
+
+/*
+ * Latest-value mailbox between a training job and its SSE stream. The job
+ * publishes snapshots without ever blocking on the network; a virtual sender
+ * thread sends the newest one whenever the client has taken the previous
+ * one, dropping those published in between. Each event reports how many
+ * snapshots were coalesced into it, so training runs at the same speed for
+ * fast and slow clients. After close() the last snapshot is still sent,
+ * followed by the "done" event.
+ *
+ * In the compact format the x values go out once in an "init" event and each
+ * epoch event carries only the predictions as base64 float32 (see
+ * CompactPredictionResponse); encoding happens on the sender thread.
+ */
+final class SnapshotMailbox {
+    private final SseEmitter emitter;
+    private final boolean compact;
+    private final double[] x;
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized, which would pin the virtual thread
+    private final Condition changed = this.lock.newCondition();
+
+    private PredictionResponse latest;
+    private int coalesced;
+    private long dropped;
+    private boolean closed;
+    private boolean aborted;
+
+    /* With compact, x is sent once up front; otherwise it is ignored. */
+    SnapshotMailbox(SseEmitter emitter, boolean compact, double[] x) {
+        this.emitter = Objects.requireNonNull(emitter, "emitter");
+        this.compact = compact;
+        this.x = compact ? Objects.requireNonNull(x, "x") : null;
+    }
+
+    /*
+     * Start the sender; onFailure runs if a send fails, which usually means
+     * the client went away.
+     */
+    void start(Runnable onFailure) {
+        Objects.requireNonNull(onFailure, "onFailure");
+        Thread.ofVirtual().name("sse-sender").start(() -> this.run(onFailure));
+    }
+
+    /* Replace any unsent snapshot with r. */
+    void publish(PredictionResponse r) {
+        this.lock.lock();
+        try {
+            if (this.latest != null) {
+                this.coalesced++;
+                this.dropped++;
+            }
+            this.latest = r;
+            this.changed.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /* Send what is left, then the "done" event, and complete the stream. */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.changed.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /* Stop the sender without sending anything more. */
+    void abort() {
+        this.lock.lock();
+        try {
+            this.aborted = true;
+            this.changed.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /* Return the number of snapshots dropped so far. */
+    long getDropped() {
+        this.lock.lock();
+        try {
+            return this.dropped;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void run(Runnable onFailure) {
+        try {
+            if (this.compact) {
+                this.emitter.send(SseEmitter.event()
+                        .name("init")
+                        .data(new CompactStreamStart(this.x), MediaType.APPLICATION_JSON));
+            }
+
+            while (true) {
+                PredictionResponse next;
+                int skipped;
+
+                this.lock.lock();
+                try {
+                    while (this.latest == null && !this.closed && !this.aborted) {
+                        this.changed.await();
+                    }
+
+                    if (this.aborted) {
+                        return;
+                    }
+
+                    next = this.latest;
+                    skipped = this.coalesced;
+                    this.latest = null;
+                    this.coalesced = 0;
+                } finally {
+                    this.lock.unlock();
+                }
+
+                if (next == null) {
+                    // Closed and drained
+                    this.emitter.send(SseEmitter.event().name("done").data("ok"));
+                    this.emitter.complete();
+                    return;
+                }
+
+                PredictionResponse r = new PredictionResponse(next.getX(), next.getY(), next.getEpoch(),
+                        next.getLoss(), next.getValLoss(), skipped);
+                Object data = this.compact ? new CompactPredictionResponse(r) : r;
+                this.emitter.send(SseEmitter.event()
+                        .name("epoch")
+                        .data(data, MediaType.APPLICATION_JSON));
+            }
+        } catch (IOException | IllegalStateException e) {
+            onFailure.run(); // client likely disconnected, or the stream already ended
+            this.emitter.complete();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package fa;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+
+import fa.nn.util.Preconditions;
+
+/*
+ * Per-client state of the web API, keyed by HTTP session id: the samples of
+ * the last validated expression and the client's running training job. Jobs
+ * run on one shared pool of a fixed number of threads with a bounded queue,
+ * so open browser tabs cannot start more CPU-bound trainings than the server
+ * has room for; a full pool rejects new jobs. A client has at most one job:
+ * starting another cancels the previous one, as does the end of its session.
+ * Cancelling interrupts the job, which stops at the next batch boundary
+ * (see NeuralNetwork#fitNext), or takes it off the queue if it has not
+ * started.
+ */
+@Component
+public class TrainingSessions implements HttpSessionListener, DisposableBean {
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor pool;
+
+    /*
+     * Validated samples and training settings of one client; source says what
+     * was sampled, or is null if unknown.
+     */
+    static final class Samples {
+        final SampleCache.Key source;
+        final double[] x;
+        final double[] y;
+        final int epochs;
+        final int interval;
+
+        Samples(SampleCache.Key source, double[] x, double[] y, int epochs, int interval) {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.epochs = epochs;
+            this.interval = interval;
+        }
+    }
+
+    private static final class Session {
+        volatile Samples samples;
+        Future<?> job;
+        Runnable onCancel;
+    }
+
+    /*
+     * Run at most threads trainings at once (0: one per available processor)
+     * with up to queue more waiting.
+     */
+    public TrainingSessions(@Value("${fa.training.threads:0}") int threads,
+            @Value("${fa.training.queue:16}") int queue) {
+        Preconditions.requirePositiveOrZero(threads, "threads");
+        Preconditions.requirePositiveOrZero(queue, "queue");
+
+        int n = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                queue == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queue),
+                r -> {
+                    Thread t = new Thread(r, "training-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /* Store the samples a later job of the client trains on. */
+    public void put(String id, double[] x, double[] y, int epochs, int interval) {
+        this.put(id, null, x, y, epochs, interval);
+    }
+
+    /* Like put(String, double[], double[], int, int), remembering what was sampled. */
+    void put(String id, SampleCache.Key source, double[] x, double[] y, int epochs, int interval) {
+        this.session(id).samples = new Samples(source, x, y, epochs, interval);
+    }
+
+    /* Return the client's samples, or null if it has none. */
+    Samples get(String id) {
+        Session s = this.sessions.get(id);
+        return s == null ? null : s.samples;
+    }
+
+    /* Forget the client's samples; a running job is left alone. */
+    public void clear(String id) {
+        Session s = this.sessions.get(id);
+        if (s != null) {
+            s.samples = null;
+        }
+    }
+
+    /*
+     * Cancel the client's previous job and queue task as its new one;
+     * onCancel runs if the new job is cancelled in turn. Throws
+     * RejectedExecutionException when the pool and its queue are full.
+     */
+    public Future<?> submit(String id, Runnable task, Runnable onCancel) {
+        Objects.requireNonNull(task, "task");
+        Objects.requireNonNull(onCancel, "onCancel");
+
+        Session s = this.session(id);
+        synchronized (s) {
+            cancel(s);
+            s.job = this.pool.submit(task);
+            s.onCancel = onCancel;
+            return s.job;
+        }
+    }
+
+    /* Cancel job if it is still the client's current job. */
+    public void cancel(String id, Future<?> job) {
+        Session s = this.sessions.get(id);
+        if (s == null) {
+            return;
+        }
+
+        synchronized (s) {
+            if (s.job == job) {
+                cancel(s);
+            }
+        }
+    }
+
+    /* Return the number of jobs running or queued. */
+    public int getActive() {
+        return this.pool.getActiveCount() + this.pool.getQueue().size();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        Session s = this.sessions.remove(event.getSession().getId());
+        if (s != null) {
+            synchronized (s) {
+                cancel(s);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.pool.shutdownNow();
+    }
+
+    private Session session(String id) {
+        Objects.requireNonNull(id, "id");
+        return this.sessions.computeIfAbsent(id, k -> new Session());
+    }
+
+    private void cancel(Session s) {
+        if (s.job != null && s.job.cancel(true)) {
+            // A queued job would hold its queue slot until a thread dequeues it
+            this.pool.remove((Runnable) s.job);
+            s.onCancel.run();
+        }
+        s.job = null;
+        s.onCancel = null;
+    }
+}
@@ -0,0 +1,414 @@
+package fa.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.function.Functions;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/*
+ * A one-variable exp4j expression compiled once into a tree of small
+ * evaluator nodes, so each point costs a few direct calls instead of a pass
+ * of the stack interpreter with a map lookup per variable. The expression is
+ * parsed exactly like ExpressionBuilder does (built-in functions, operators
+ * and constants, implicit multiplication) and gives the same results: the
+ * built-ins that are plain Math calls are bound directly, any other function
+ * or operator goes through its exp4j implementation, and subtrees without the
+ * variable are folded. Nodes hold no state, so one instance may be shared by
+ * any number of threads.
+ */
+public final class CompiledExpression implements DoubleUnaryOperator {
+    private static final Map<String, Double> CONSTANTS = Map.of(
+            "pi", Math.PI, "π", Math.PI, "e", Math.E, "φ", 1.61803398874d);
+
+    // Built-in functions that are exactly one Math call; the index is Unary's opcode
+    private static final List<String> INTRINSICS = List.of("sin", "cos", "tan", "asin", "acos", "atan", "sinh",
+            "cosh", "tanh", "abs", "log", "log10", "log1p", "ceil", "floor", "sqrt", "cbrt", "exp", "expm1");
+
+    private final String expression;
+    private final String canonical;
+    private final Node root;
+
+    private CompiledExpression(String expression, String canonical, Node root) {
+        this.expression = expression;
+        this.canonical = canonical;
+        this.root = root;
+    }
+
+    /*
+     * Parse and compile expression in the given variable. Throws
+     * IllegalArgumentException, like ExpressionBuilder#build, if it is
+     * malformed or uses unknown names.
+     */
+    public static CompiledExpression compile(String expression, String variable) {
+        Objects.requireNonNull(expression, "expression");
+        Objects.requireNonNull(variable, "variable");
+
+        if (expression.isEmpty()) {
+            throw new IllegalArgumentException("The expression can not be empty");
+        }
+
+        if (CONSTANTS.containsKey(variable) || Functions.getBuiltinFunction(variable) != null) {
+            throw new IllegalArgumentException("Invalid variable name: " + variable);
+        }
+
+        Set<String> names = new HashSet<>(CONSTANTS.keySet());
+        names.add(variable);
+        Token[] tokens = ShuntingYard.convertToRPN(expression, Map.of(), Map.of(), names, true);
+
+        Deque<Node> stack = new ArrayDeque<>();
+        StringBuilder canonical = new StringBuilder();
+        for (Token t : tokens) {
+            if (!canonical.isEmpty()) {
+                canonical.append(' ');
+            }
+
+            switch (t.getType()) {
+                case Token.TOKEN_NUMBER -> {
+                    double value = ((NumberToken) t).getValue();
+                    stack.push(new Constant(value));
+                    canonical.append(value);
+                }
+                case Token.TOKEN_VARIABLE -> {
+                    String name = ((VariableToken) t).getName();
+                    if (name.equals(variable)) {
+                        stack.push(new Variable());
+                        canonical.append('$');
+                    } else {
+                        double value = CONSTANTS.get(name);
+                        stack.push(new Constant(value));
+                        canonical.append(value);
+                    }
+                }
+                case Token.TOKEN_OPERATOR -> {
+                    Operator op = ((OperatorToken) t).getOperator();
+                    stack.push(fold(operator(op, pop(stack, op.getNumOperands()))));
+                    canonical.append(op.getSymbol()).append('/').append(op.getNumOperands());
+                }
+                case Token.TOKEN_FUNCTION -> {
+                    Function f = ((FunctionToken) t).getFunction();
+                    stack.push(fold(function(f, pop(stack, f.getNumArguments()))));
+                    canonical.append(f.getName()).append('/').append(f.getNumArguments());
+                }
+                default -> throw new IllegalArgumentException("Unexpected token in " + expression);
+            }
+        }
+
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("Invalid number of items on the output queue. Might be caused by an "
+                    + "invalid number of arguments for a function.");
+        }
+
+        return new CompiledExpression(expression, canonical.toString(), stack.pop());
+    }
+
+    /* Evaluate the expression at x. */
+    @Override
+    public double applyAsDouble(double x) {
+        return this.root.eval(x);
+    }
+
+    /* Store the values at x[from, to) into y[from, to). */
+    public void evaluate(double[] x, double[] y, int from, int to) {
+        Node root = this.root;
+        for (int i = from; i < to; i++) {
+            y[i] = root.eval(x[i]);
+        }
+    }
+
+    /*
+     * Return the parsed expression in postfix form with the variable as $ and
+     * constants as numbers, so spellings that differ only in whitespace,
+     * redundant parentheses or implicit multiplication compare equal.
+     */
+    public String getCanonicalForm() {
+        return this.canonical;
+    }
+
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    private static Node[] pop(Deque<Node> stack, int count) {
+        if (stack.size() < count) {
+            throw new IllegalArgumentException("Invalid number of operands available");
+        }
+
+        Node[] args = new Node[count];
+        for (int i = count - 1; i >= 0; i--) {
+            args[i] = stack.pop();
+        }
+        return args;
+    }
+
+    private static Node operator(Operator op, Node[] args) {
+        if (args.length == 1) {
+            return switch (op.getSymbol()) {
+                case "-" -> new Negate(args[0]);
+                case "+" -> args[0];
+                default -> new Generic(op::apply, args);
+            };
+        }
+
+        if (args.length == 2) {
+            return switch (op.getSymbol()) {
+                case "+" -> new Add(args[0], args[1]);
+                case "-" -> new Subtract(args[0], args[1]);
+                case "*" -> new Multiply(args[0], args[1]);
+                case "/" -> new Divide(args[0], args[1]);
+                case "^" -> new Power(args[0], args[1]);
+                default -> new Generic(op::apply, args);
+            };
+        }
+
+        return new Generic(op::apply, args);
+    }
+
+    private static Node function(Function f, Node[] args) {
+        // Only bind built-ins directly, so their exp4j semantics are known
+        if (f == Functions.getBuiltinFunction(f.getName())) {
+            int op = INTRINSICS.indexOf(f.getName());
+            if (op >= 0 && args.length == 1) {
+                return new Unary(op, args[0]);
+            }
+
+            if (f.getName().equals("pow") && args.length == 2) {
+                return new Power(args[0], args[1]);
+            }
+        }
+
+        return new Generic(f::apply, args);
+    }
+
+    /* Replace a node whose operands are all constant by its value. */
+    private static Node fold(Node n) {
+        if (!n.isConstant()) {
+            return n;
+        }
+
+        try {
+            return new Constant(n.eval(0.0));
+        } catch (ArithmeticException e) {
+            return n; // e.g. 1/0: keep failing at evaluation time, like exp4j
+        }
+    }
+
+    private interface Kernel {
+        double apply(double... args);
+    }
+
+    private abstract static class Node {
+        abstract double eval(double x);
+
+        abstract boolean isConstant();
+    }
+
+    private static final class Constant extends Node {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(double x) {
+            return this.value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Variable extends Node {
+        @Override
+        double eval(double x) {
+            return x;
+        }
+
+        @Override
+        boolean isConstant() {
+            return false;
+        }
+    }
+
+    private abstract static class BinaryNode extends Node {
+        final Node left;
+        final Node right;
+
+        BinaryNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return this.left.isConstant() && this.right.isConstant();
+        }
+    }
+
+    private static final class Add extends BinaryNode {
+        Add(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double x) {
+            return this.left.eval(x) + this.right.eval(x);
+        }
+    }
+
+    private static final class Subtract extends BinaryNode {
+        Subtract(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double x) {
+            return this.left.eval(x) - this.right.eval(x);
+        }
+    }
+
+    private static final class Multiply extends BinaryNode {
+        Multiply(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double x) {
+            return this.left.eval(x) * this.right.eval(x);
+        }
+    }
+
+    private static final class Divide extends BinaryNode {
+        Divide(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double x) {
+            double a = this.left.eval(x), b = this.right.eval(x);
+            if (b == 0d) {
+                throw new ArithmeticException("Division by zero!");
+            }
+            return a / b;
+        }
+    }
+
+    private static final class Power extends BinaryNode {
+        Power(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double x) {
+            return Math.pow(this.left.eval(x), this.right.eval(x));
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node arg;
+
+        Negate(Node arg) {
+            this.arg = arg;
+        }
+
+        @Override
+        double eval(double x) {
+            return -this.arg.eval(x);
+        }
+
+        @Override
+        boolean isConstant() {
+            return this.arg.isConstant();
+        }
+    }
+
+    /* A Math function, dispatched by a switch rather than one megamorphic lambda call. */
+    private static final class Unary extends Node {
+        private final int op;
+        private final Node arg;
+
+        Unary(int op, Node arg) {
+            this.op = op;
+            this.arg = arg;
+        }
+
+        @Override
+        double eval(double x) {
+            double v = this.arg.eval(x);
+            return switch (this.op) {
+                case 0 -> Math.sin(v);
+                case 1 -> Math.cos(v);
+                case 2 -> Math.tan(v);
+                case 3 -> Math.asin(v);
+                case 4 -> Math.acos(v);
+                case 5 -> Math.atan(v);
+                case 6 -> Math.sinh(v);
+                case 7 -> Math.cosh(v);
+                case 8 -> Math.tanh(v);
+                case 9 -> Math.abs(v);
+                case 10 -> Math.log(v);
+                case 11 -> Math.log10(v);
+                case 12 -> Math.log1p(v);
+                case 13 -> Math.ceil(v);
+                case 14 -> Math.floor(v);
+                case 15 -> Math.sqrt(v);
+                case 16 -> Math.cbrt(v);
+                case 17 -> Math.exp(v);
+                case 18 -> Math.expm1(v);
+                default -> throw new IllegalStateException("Unknown function " + this.op);
+            };
+        }
+
+        @Override
+        boolean isConstant() {
+            return this.arg.isConstant();
+        }
+    }
+
+    /* Any other function or operator, through its exp4j implementation. */
+    private static final class Generic extends Node {
+        private final Kernel f;
+        private final Node[] args;
+
+        Generic(Kernel f, Node[] args) {
+            this.f = f;
+            this.args = args;
+        }
+
+        @Override
+        double eval(double x) {
+            double[] values = new double[this.args.length]; // short-lived; usually scalar-replaced
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.args[i].eval(x);
+            }
+            return this.f.apply(values);
+        }
+
+        @Override
+        boolean isConstant() {
+            for (Node a : this.args) {
+                if (!a.isConstant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,22 +1,55 @@
 package fa.core;
 
+import java.util.Objects;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
 
 import net.objecthunter.exp4j.Expression;
 
+import fa.nn.util.Preconditions;
+
+/*
+ * Samples (x, y) points of a function of x, either at random or on an evenly
+ * spaced grid. Points are produced in fixed chunks that run on the common
+ * ForkJoinPool once there are enough of them; each chunk draws x from its own
+ * SplittableRandom stream, split from the caller's Random in chunk order, and
+ * evaluates through its own function instance. The result depends only on the
+ * seed, not on the number of threads.
+ */
 public class FunctionSampler {
-    private Expression e;
+    private static final int CHUNK = 16384;
+
+    private final Supplier<DoubleUnaryOperator> function;
     private double[] x;
     private double[] y;
 
+    /* Sample e, interpreted by exp4j through one copy of e per chunk. */
     public FunctionSampler(Expression e, double xmin, double xmax, int npoints, Random rand) {
-        this.e = e;
-        this.x = new double[npoints];
-        this.y = new double[npoints];
+        this(copies(e));
+        this.sample(xmin, xmax, npoints, rand);
+    }
 
+    /* Sample the compiled f, which all chunks share. */
+    public FunctionSampler(CompiledExpression f, double xmin, double xmax, int npoints, Random rand) {
+        this(f);
         this.sample(xmin, xmax, npoints, rand);
     }
 
+    /* A sampler of f without points yet; call sample or grid. */
+    public FunctionSampler(CompiledExpression f) {
+        this(shared(f));
+    }
+
+    private FunctionSampler(Supplier<DoubleUnaryOperator> function) {
+        this.function = function;
+        this.x = new double[0];
+        this.y = new double[0];
+    }
+
     public double[] x() {
         return this.x;
     }
@@ -25,13 +58,83 @@ public class FunctionSampler {
         return this.y;
     }
 
+    /* Sample npoints uniformly random points of [xmin, xmax). */
     public void sample(double xmin, double xmax, int npoints, Random rand) {
+        Objects.requireNonNull(rand, "rand");
+        this.run(xmin, xmax, npoints, new SplittableRandom(rand.nextLong()));
+    }
+
+    /* Sample npoints evenly spaced points from xmin to xmax, both included. */
+    public void grid(double xmin, double xmax, int npoints) {
+        this.run(xmin, xmax, npoints, null);
+    }
+
+    private void run(double xmin, double xmax, int npoints, SplittableRandom seed) {
+        Preconditions.requirePositiveOrZero(npoints, "npoints");
+
+        if (this.x.length != npoints) {
+            this.x = new double[npoints];
+            this.y = new double[npoints];
+        }
+
+        int chunks = (npoints + CHUNK - 1) / CHUNK;
+        if (chunks <= 1) {
+            this.chunk(0, npoints, xmin, xmax, seed);
+            return;
+        }
+
+        // Split serially so every chunk gets the same stream however the pool schedules it
+        ForkJoinTask<?>[] running = new ForkJoinTask<?>[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int from = c * CHUNK, to = Math.min(from + CHUNK, npoints);
+            SplittableRandom stream = seed == null ? null : seed.split();
+            running[c] = ForkJoinPool.commonPool().submit(() -> this.chunk(from, to, xmin, xmax, stream));
+        }
+        for (ForkJoinTask<?> task : running) {
+            task.join();
+        }
+    }
+
+    /* Fill points [from, to): random x if rand is set, the grid otherwise. */
+    private void chunk(int from, int to, double xmin, double xmax, SplittableRandom rand) {
+        double[] x = this.x, y = this.y;
         double range = xmax - xmin;
 
-        for (int i = 0; i < npoints; i++) {
-            x[i] = rand.nextDouble() * range + xmin;
-            e.setVariable("x", x[i]);
-            y[i] = e.evaluate();
+        if (rand != null) {
+            for (int i = from; i < to; i++) {
+                x[i] = rand.nextDouble() * range + xmin;
+            }
+        } else {
+            double step = x.length > 1 ? range / (x.length - 1) : 0.0;
+            for (int i = from; i < to; i++) {
+                x[i] = xmin + i * step;
+            }
+            if (to == x.length && x.length > 1) {
+                x[to - 1] = xmax; // exact end point despite rounding
+            }
+        }
+
+        DoubleUnaryOperator f = this.function.get();
+        if (f instanceof CompiledExpression c) {
+            c.evaluate(x, y, from, to);
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            y[i] = f.applyAsDouble(x[i]);
         }
     }
+
+    private static Supplier<DoubleUnaryOperator> copies(Expression e) {
+        Objects.requireNonNull(e, "e");
+        return () -> {
+            Expression copy = new Expression(e); // exp4j expressions hold their variable values
+            return v -> copy.setVariable("x", v).evaluate();
+        };
+    }
+
+    private static Supplier<DoubleUnaryOperator> shared(CompiledExpression f) {
+        Objects.requireNonNull(f, "f");
+        return () -> f;
+    }
 }
@@ -1,10 +1,13 @@
 package fa.core;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
+import fa.nn.EpochStats;
+import fa.nn.Evaluation;
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
 import fa.nn.activation.Linear;
 import fa.nn.activation.ReLU;
 import fa.nn.learn.Adam;
@@ -14,45 +17,88 @@ import fa.nn.loss.MSE;
 public class Trainer {
     private final int BATCH_SIZE = 256;
     private final double SPLIT = 0.2;
+    private final int SAMPLE_SIZE = 256;
 
     private NeuralNetwork nn;
     private Dataset d;
+    private double[][] sampleX; // built by sampleLoss() on first use
+    private double[][] sampleY;
 
     public Trainer(double[] x, double[] y, Random rand) {
         this.nn = this.initialize();
 
-        double[][] mx = Arrays.stream(x)
-                .mapToObj(v -> new double[] { v })
-                .toArray(double[][]::new);
+        // Scalar features: x and y are already the flat (n x 1) sample matrices
+        this.d = new Dataset(x, y, 1, 1, SPLIT, rand, Precision.FP64);
+    }
 
-        double[][] my = Arrays.stream(y)
-                .mapToObj(v -> new double[] { v })
-                .toArray(double[][]::new);
+    /* Train one epoch and return the loss its forward passes saw. */
+    public EpochStats next() {
+        return nn.fitNext(d, BATCH_SIZE);
+    }
 
-        this.d = new Dataset(mx, my, SPLIT, rand);
+    public double[] predict(double[] x) {
+        // Scalar features: x is already the row-major (n x 1) input matrix
+        return nn.predictBatch(x, x.length);
     }
 
-    public void next() {
-        nn.fitNext(d, BATCH_SIZE);
+    /*
+     * Predict every sample and compute both losses in one batched pass; the
+     * predictions follow the order of the x this trainer was built with.
+     */
+    public Evaluation evaluate() {
+        return this.nn.evaluate(this.d);
     }
 
-    public double[] predict(double[] x) {
-        double[] predicted = new double[x.length];
+    /* Encode the network with its optimizer state (see NeuralNetwork#snapshot). */
+    public ByteBuffer snapshot() {
+        return this.nn.snapshot();
+    }
 
-        for (int i = 0; i < x.length; i++) {
-            double y = nn.predict(new double[] { x[i] })[0];
-            predicted[i] = y;
-        }
+    /*
+     * Load a snapshot of a trainer with the same architecture(); without
+     * optimizerState only the parameters are taken, as a warm start.
+     */
+    public void restore(ByteBuffer snapshot, boolean optimizerState) {
+        this.nn.restore(snapshot, optimizerState);
+    }
 
-        return predicted;
+    /* Describe layers, optimizer, loss and precision; snapshots fit trainers with the same description. */
+    public String architecture() {
+        StringBuilder sb = new StringBuilder();
+        for (Layer l : this.nn.getLayers()) {
+            sb.append(l.getInputSize()).append('x').append(l.getOutputSize()).append(' ')
+                    .append(l.getActivationFunction().getClass().getSimpleName()).append(", ");
+        }
+        return sb.append(this.nn.getTrainer().getClass().getSimpleName()).append(", ")
+                .append(this.nn.getLoss().getClass().getSimpleName()).append(", ")
+                .append(this.nn.getPrecision()).toString();
     }
 
     public double trainLoss() {
-        return this.nn.calculateLoss(this.d.trainX(), this.d.trainY());
+        return this.nn.calculateLoss(this.d, 0, this.d.trainSize());
     }
 
     public double valLoss() {
-        return this.nn.calculateLoss(this.d.valX(), this.d.valY());
+        return this.nn.calculateLoss(this.d, this.d.trainSize(), this.d.size());
+    }
+
+    /*
+     * Return the loss on a fixed sample of up to SAMPLE_SIZE training rows,
+     * spread evenly over them; cheap enough to compare several parameter sets
+     * (see ModelCache) where trainLoss() would cost a pass over every row.
+     */
+    public double sampleLoss() {
+        if (this.sampleX == null) {
+            int n = Math.min(SAMPLE_SIZE, this.d.trainSize());
+            this.sampleX = new double[n][1];
+            this.sampleY = new double[n][1];
+            for (int i = 0; i < n; i++) {
+                int row = (int) ((long) i * this.d.trainSize() / n);
+                this.d.copyInputs(row, row + 1, this.sampleX[i], 0);
+                this.d.copyTargets(row, row + 1, this.sampleY[i], 0);
+            }
+        }
+        return this.nn.calculateLoss(this.sampleX, this.sampleY);
     }
 
     private NeuralNetwork initialize() {
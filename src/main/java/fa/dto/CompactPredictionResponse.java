@@ -0,0 +1,55 @@
+package fa.dto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/*
+ * Epoch event of the compact stream format: the predictions as base64
+ * little-endian float32 instead of a JSON array of doubles, and no x values,
+ * which the "init" event (CompactStreamStart) sent them once.
+ */
+public class CompactPredictionResponse {
+    private String y;
+    private int epoch;
+    private double loss;
+    private double valLoss;
+    private int coalesced;
+
+    public CompactPredictionResponse(PredictionResponse r) {
+        this.y = float32(r.getY());
+        this.epoch = r.getEpoch();
+        this.loss = r.getLoss();
+        this.valLoss = r.getValLoss();
+        this.coalesced = r.getCoalesced();
+    }
+
+    /* Encode v as base64 little-endian float32. */
+    public static String float32(double[] v) {
+        ByteBuffer buf = ByteBuffer.allocate(v.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double d : v) {
+            buf.putFloat((float) d);
+        }
+        return Base64.getEncoder().encodeToString(buf.array());
+    }
+
+    public String getY() {
+        return this.y;
+    }
+
+    public int getEpoch() {
+        return this.epoch;
+    }
+
+    public double getLoss() {
+        return this.loss;
+    }
+
+    public double getValLoss() {
+        return this.valLoss;
+    }
+
+    public int getCoalesced() {
+        return this.coalesced;
+    }
+}
@@ -0,0 +1,20 @@
+package fa.dto;
+
+/* First event of the compact stream format: the x values, sent once. */
+public class CompactStreamStart {
+    private String x;
+    private int n;
+
+    public CompactStreamStart(double[] x) {
+        this.x = CompactPredictionResponse.float32(x);
+        this.n = x.length;
+    }
+
+    public String getX() {
+        return this.x;
+    }
+
+    public int getN() {
+        return this.n;
+    }
+}
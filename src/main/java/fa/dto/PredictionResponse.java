@@ -6,13 +6,20 @@ public class PredictionResponse {
     private int epoch;
     private double loss;
     private double valLoss;
+    private int coalesced;
 
     public PredictionResponse(double[] x, double[] y, int epoch, double loss, double valLoss) {
+        this(x, y, epoch, loss, valLoss, 0);
+    }
+
+    /* coalesced: snapshots dropped since the previous event because the client fell behind. */
+    public PredictionResponse(double[] x, double[] y, int epoch, double loss, double valLoss, int coalesced) {
         this.x = x;
         this.y = y;
         this.epoch = epoch;
         this.loss = loss;
         this.valLoss = valLoss;
+        this.coalesced = coalesced;
     }
 
     public double[] getX() {
@@ -34,4 +41,8 @@ public class PredictionResponse {
     public double getValLoss() {
         return this.valLoss;
     }
+
+    public int getCoalesced() {
+        return this.coalesced;
+    }
 }
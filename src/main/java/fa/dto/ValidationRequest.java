@@ -7,6 +7,8 @@ public class ValidationRequest {
     private int npoints;
     private int epochs;
     private int interval;
+    private boolean grid;
+    private long seed;
 
     public void setExpression(String expression) {
         this.expression = expression;
@@ -32,6 +34,14 @@ public class ValidationRequest {
         this.interval = interval;
     }
 
+    public void setGrid(boolean grid) {
+        this.grid = grid;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     public String getExpression() {
         return this.expression;
     }
@@ -55,4 +65,12 @@ public class ValidationRequest {
     public int getInterval() {
         return this.interval;
     }
+
+    public boolean isGrid() {
+        return this.grid;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
 }
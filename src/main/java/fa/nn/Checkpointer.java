@@ -0,0 +1,193 @@
+package fa.nn;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fa.nn.learn.Dataset;
+import fa.nn.util.Preconditions;
+
+/*
+ * Periodic training checkpoints written in the background. When a checkpoint
+ * is due after an epoch, the parameters, the trainer's optimizer state and the
+ * dataset's shuffle state are encoded into one of two reused in-memory
+ * buffers; that copy is all the training thread waits for. A single daemon
+ * thread then writes the buffer to a temporary file and renames it over the
+ * checkpoint file, so the file on disk is always complete. When both buffers
+ * are still being written the checkpoint is skipped rather than waited for.
+ *
+ * Attach with NeuralNetwork#setCheckpointer; fitNext then reports every epoch
+ * and fit resumes from an existing checkpoint.
+ */
+public class Checkpointer implements AutoCloseable {
+    private final Path path;
+    private final int everyEpochs;
+    private final long everyNanos;
+    private final ExecutorService writer;
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private final Future<?>[] pending = new Future<?>[2];
+
+    private int next;
+    private long epochs;
+    private long last;
+    private int written;
+    private int skipped;
+
+    /*
+     * Checkpoint to filename every everyEpochs epochs and/or once at least
+     * everyMillis milliseconds have passed since the last checkpoint; 0
+     * disables either criterion, but not both.
+     */
+    public Checkpointer(String filename, int everyEpochs, long everyMillis) {
+        Objects.requireNonNull(filename, "filename");
+        Preconditions.requirePositiveOrZero(everyEpochs, "everyEpochs");
+
+        if (everyMillis < 0) {
+            throw new IllegalArgumentException("everyMillis must be ≥ 0; got " + everyMillis);
+        }
+
+        if (everyEpochs == 0 && everyMillis == 0) {
+            throw new IllegalArgumentException("everyEpochs or everyMillis must be > 0");
+        }
+
+        this.path = Path.of(filename);
+        this.everyEpochs = everyEpochs;
+        this.everyNanos = everyMillis * 1_000_000;
+        this.last = System.nanoTime();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* Called by NeuralNetwork#fitNext after every epoch. */
+    void epochCompleted(NeuralNetwork nn, Dataset d) {
+        this.epochs++;
+
+        boolean due = (this.everyEpochs > 0 && this.epochs % this.everyEpochs == 0)
+                || (this.everyNanos > 0 && System.nanoTime() - this.last >= this.everyNanos);
+        if (due) {
+            this.checkpoint(nn, d);
+        }
+    }
+
+    /*
+     * Snapshot the network, its trainer and the dataset now and queue the
+     * write; return false if the checkpoint was skipped because both buffers
+     * are still being written. Rethrows the failure of an earlier write.
+     */
+    public boolean checkpoint(NeuralNetwork nn, Dataset d) {
+        Objects.requireNonNull(nn, "neuralNetwork");
+        Objects.requireNonNull(d, "dataset");
+
+        if (nn.getTrainer() == null) {
+            throw new IllegalStateException("Trainer must be set up before checkpointing");
+        }
+
+        int slot = this.next;
+        if (this.pending[slot] != null) {
+            if (!this.pending[slot].isDone()) {
+                this.skipped++;
+                return false;
+            }
+            Future<?> done = this.pending[slot];
+            this.pending[slot] = null;
+            await(done);
+        }
+
+        ByteBuffer buf = ModelFile.encode(nn, nn.getTrainer(), this.epochs, d, this.buffers[slot]);
+        this.buffers[slot] = buf;
+        this.pending[slot] = this.writer.submit(() -> ModelFile.write(buf, this.path));
+        this.next = 1 - slot;
+        this.last = System.nanoTime();
+        this.written++;
+        return true;
+    }
+
+    /*
+     * Restore the network's parameters, the trainer's state and the dataset's
+     * shuffle state from the checkpoint file and return the epochs it had
+     * completed; return 0 and change nothing when there is no checkpoint yet.
+     */
+    public long restore(NeuralNetwork nn, Dataset d) {
+        Objects.requireNonNull(nn, "neuralNetwork");
+        Objects.requireNonNull(d, "dataset");
+
+        this.flush();
+        if (!Files.exists(this.path)) {
+            return 0;
+        }
+
+        ModelFile file = ModelFile.read(this.path);
+        if (file.getEpochs() < 0) {
+            throw new IllegalArgumentException("Not a checkpoint: " + this.path);
+        }
+
+        nn.load(file);
+        file.restoreDataset(d);
+        this.epochs = file.getEpochs();
+        this.last = System.nanoTime();
+        return this.epochs;
+    }
+
+    /* Wait until every queued checkpoint is on disk. */
+    public void flush() {
+        for (int slot = 0; slot < this.pending.length; slot++) {
+            Future<?> f = this.pending[slot];
+            if (f != null) {
+                this.pending[slot] = null;
+                await(f);
+            }
+        }
+    }
+
+    /* Flush and stop the writer thread. */
+    @Override
+    public void close() {
+        try {
+            this.flush();
+        } finally {
+            this.writer.shutdown();
+        }
+    }
+
+    /* Return the epochs completed, counting from the restored checkpoint. */
+    public long getEpochs() {
+        return this.epochs;
+    }
+
+    /* Return the number of checkpoints queued for writing. */
+    public int getWritten() {
+        return this.written;
+    }
+
+    /* Return the number of due checkpoints skipped while both buffers were busy. */
+    public int getSkipped() {
+        return this.skipped;
+    }
+
+    /* Return the checkpoint file. */
+    public Path getPath() {
+        return this.path;
+    }
+
+    private static void await(Future<?> f) {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a checkpoint", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Checkpoint failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package fa.nn;
+
+/*
+ * Result of NeuralNetwork#fitNext: the loss of every training sample as seen
+ * by the forward pass that trained on it, so the mean drifts behind the
+ * network's current loss by up to one epoch of updates, plus the number of
+ * samples and the wall time of the epoch.
+ */
+public class EpochStats {
+    private final double meanLoss;
+    private final double maxLoss;
+    private final int samples;
+    private final long nanos;
+
+    EpochStats(double meanLoss, double maxLoss, int samples, long nanos) {
+        this.meanLoss = meanLoss;
+        this.maxLoss = maxLoss;
+        this.samples = samples;
+        this.nanos = nanos;
+    }
+
+    /* Return the loss over all samples of the epoch. */
+    public double getMeanLoss() {
+        return this.meanLoss;
+    }
+
+    /* Return the largest loss of a single sample. */
+    public double getMaxLoss() {
+        return this.maxLoss;
+    }
+
+    /* Return the number of samples trained on. */
+    public int getSamples() {
+        return this.samples;
+    }
+
+    /* Return the wall time of the epoch in nanoseconds. */
+    public long getNanos() {
+        return this.nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "loss: " + this.meanLoss + " - max_loss: " + this.maxLoss + " - samples: " + this.samples
+                + " - " + this.nanos / 1_000_000 + "ms";
+    }
+}
@@ -0,0 +1,33 @@
+package fa.nn;
+
+/*
+ * Result of NeuralNetwork#evaluate: the predictions for every row of a
+ * dataset in its original order (row-major, rows x outputSize) and the loss
+ * over its training and validation rows.
+ */
+public class Evaluation {
+    private final double[] predictions;
+    private final double trainLoss;
+    private final double valLoss;
+
+    Evaluation(double[] predictions, double trainLoss, double valLoss) {
+        this.predictions = predictions;
+        this.trainLoss = trainLoss;
+        this.valLoss = valLoss;
+    }
+
+    /* Return the predictions, row-major in the dataset's original row order. */
+    public double[] getPredictions() {
+        return this.predictions;
+    }
+
+    /* Return the loss over the training rows. */
+    public double getTrainLoss() {
+        return this.trainLoss;
+    }
+
+    /* Return the loss over the validation rows. */
+    public double getValLoss() {
+        return this.valLoss;
+    }
+}
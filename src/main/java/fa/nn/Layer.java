@@ -1,5 +1,9 @@
 package fa.nn;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Random;
@@ -8,16 +12,24 @@ import fa.nn.activation.ActivationFunction;
 import fa.nn.initialize.Initializer;
 import fa.nn.initialize.XavierInitializer;
 import fa.nn.loss.LossFunction;
+import fa.nn.util.BufferOps;
+import fa.nn.util.MatrixOps;
 import fa.nn.util.Preconditions;
 
 public class Layer {
-    private int inputSize;
-    private int outputSize;
-    private double[][] weights;
+    private final int inputSize;
+    private final int outputSize;
+    private final int stride;
+    private double[] weights; // row-major: weights[j * stride + i] connects input i to output j
     private double[] biases;
-    private double[] z;
-    private double[] a;
-    private ActivationFunction activationFunction;
+    private float[] weights32; // same layout; replaces weights and biases in single precision
+    private float[] biases32;
+    private DoubleBuffer weightBuffer; // off-heap storage, same layout; replaces the arrays when set
+    private DoubleBuffer biasBuffer;
+    private FloatBuffer weightBuffer32;
+    private FloatBuffer biasBuffer32;
+    private Precision precision;
+    private final ActivationFunction activationFunction;
 
     /* Construct a layer with explicit initializer and activation */
     public Layer(int inputSize, int outputSize, ActivationFunction activationFunction, Initializer initializer) {
@@ -32,11 +44,10 @@ public class Layer {
         this.inputSize = inputSize;
         this.outputSize = outputSize;
 
-        this.weights = new double[outputSize][inputSize];
+        this.stride = inputSize;
+        this.weights = new double[outputSize * this.stride];
         this.biases = new double[outputSize];
-
-        this.z = new double[outputSize];
-        this.a = new double[outputSize];
+        this.precision = Precision.FP64;
 
         this.activationFunction = activationFunction;
         initializer.initialize(this);
@@ -47,79 +58,289 @@ public class Layer {
         this(inputSize, outputSize, activationFunction, new XavierInitializer(new Random()));
     }
 
-    /* Forward pass */
+    /*
+     * Construct a read-only layer over off-heap parameters: weights holds
+     * outputSize x inputSize values row-major and biases outputSize values,
+     * as float in single precision and double otherwise, in each buffer's
+     * byte order. Used for memory-mapped model files.
+     */
+    Layer(int inputSize, int outputSize, ActivationFunction activationFunction, Precision precision,
+            ByteBuffer weights, ByteBuffer biases) {
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.stride = inputSize;
+        this.precision = precision;
+        this.activationFunction = activationFunction;
+        this.setBuffers(weights, biases);
+    }
+
+    /* Forward pass; returns a new activation vector. */
     public double[] forward(double[] input) {
+        double[] a = new double[this.outputSize];
+        this.forward(input, a, a);
+        return a;
+    }
+
+    /*
+     * Forward pass writing pre-activations z and activations a into
+     * caller-owned vectors; the layer itself keeps no per-call state. z and a
+     * may be the same array when only the activations are needed.
+     */
+    public void forward(double[] input, double[] z, double[] a) {
+        this.forward(input, z, a, null);
+    }
+
+    /*
+     * Forward pass that also records the activation derivatives da/dz the
+     * single-sample backward consumes; dadz may be null.
+     */
+    public void forward(double[] input, double[] z, double[] a, double[] dadz) {
+        this.requirePrecision(false);
         Objects.requireNonNull(input, "input");
         Preconditions.requireVector(input, this.inputSize, "input");
+        Preconditions.requireVector(z, this.outputSize, "z");
+        Preconditions.requireVector(a, this.outputSize, "a");
+
+        if (this.isOffHeap()) {
+            this.biasBuffer.get(0, z, 0, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weightBuffer, this.stride, z, this.outputSize,
+                    1, this.outputSize, this.inputSize);
+        } else {
+            System.arraycopy(this.biases, 0, z, 0, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weights, this.stride, z, this.outputSize,
+                    1, this.outputSize, this.inputSize);
+        }
 
-        for (int j = 0; j < this.outputSize; j++) {
-            this.z[j] = this.biases[j];
+        if (dadz == null) {
+            this.activationFunction.activate(z, a, this.outputSize);
+        } else {
+            Preconditions.requireVector(dadz, this.outputSize, "dadz");
+            this.activationFunction.activate(z, a, dadz, this.outputSize);
+        }
+    }
 
-            for (int i = 0; i < this.inputSize; i++) {
-                this.z[j] += this.weights[j][i] * input[i];
-            }
+    /*
+     * Batched forward pass: input holds n samples row-major (n x inputSize) and
+     * output receives n x outputSize activations.
+     */
+    public void forwardBatch(double[] input, double[] output, int n) {
+        this.forwardBatch(input, output, output, n);
+    }
+
+    /*
+     * Batched forward pass that also keeps the pre-activations z (n x
+     * outputSize); z and a may be the same array when only the activations
+     * are needed.
+     */
+    public void forwardBatch(double[] input, double[] z, double[] a, int n) {
+        this.forwardBatch(input, z, a, null, n);
+    }
 
-            this.a[j] = this.activationFunction.activate(this.z[j]);
+    /*
+     * Batched forward pass for training: additionally records the activation
+     * derivatives da/dz (n x outputSize) that backwardBatch consumes, so the
+     * backward pass never evaluates the activation again. dadz may be null.
+     */
+    public void forwardBatch(double[] input, double[] z, double[] a, double[] dadz, int n) {
+        this.requirePrecision(false);
+        Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(z, "z");
+        Objects.requireNonNull(a, "a");
+        Preconditions.requirePositive(n, "n");
+        int len = n * this.outputSize;
+        Preconditions.requireCapacity(input, n * this.inputSize, "input");
+        Preconditions.requireCapacity(z, len, "z");
+        Preconditions.requireCapacity(a, len, "a");
+
+        if (this.isOffHeap()) {
+            MatrixOps.broadcastRows(this.biasBuffer, z, this.outputSize, n, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weightBuffer, this.stride, z, this.outputSize,
+                    n, this.outputSize, this.inputSize);
+        } else {
+            MatrixOps.broadcastRows(this.biases, z, this.outputSize, n, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weights, this.stride, z, this.outputSize,
+                    n, this.outputSize, this.inputSize);
         }
 
-        return Arrays.copyOf(this.a, this.outputSize);
+        if (dadz == null) {
+            this.activationFunction.activate(z, a, len);
+        } else {
+            Preconditions.requireCapacity(dadz, len, "dadz");
+            this.activationFunction.activate(z, a, dadz, len);
+        }
     }
 
-    /* Backward (output layer) */
-    public double[] backward(double[] y, LossFunction loss) {
+    /* Backward (output layer), given the a and dadz recorded by forward. */
+    public double[] backward(double[] y, LossFunction loss, double[] a, double[] dadz) {
         Objects.requireNonNull(y, "y");
-        Objects.requireNonNull(loss, "loss");
         Preconditions.requireVector(y, this.outputSize, "y");
+        Preconditions.requireVector(a, this.outputSize, "a");
+        Preconditions.requireVector(dadz, this.outputSize, "dadz");
 
         double[] delta = new double[this.outputSize];
+        this.backwardBatch(y, loss, a, dadz, delta, 1);
+        return delta;
+    }
 
-        for (int j = 0; j < this.outputSize; j++) {
-            double dc_da = loss.derivative(this.a[j], y[j]);
-            double da_dz = this.activationFunction.derivative(this.z[j]);
-            delta[j] = dc_da * da_dz;
-        }
+    /* Backward (hidden layer), given the dadz recorded by forward. */
+    public double[] backward(double[] nextDelta, Layer nextLayer, double[] dadz) {
+        Objects.requireNonNull(nextDelta, "nextDelta");
+        Objects.requireNonNull(nextLayer, "nextLayer");
+        Preconditions.requireVector(nextDelta, nextLayer.getOutputSize(), "nextDelta");
+        Preconditions.requireVector(dadz, this.outputSize, "dadz");
 
+        double[] delta = new double[this.outputSize];
+        this.backwardBatch(nextDelta, nextLayer, dadz, delta, 1);
         return delta;
     }
 
-    /* Backward (hidden layer) */
-    public double[] backward(double[] nextDelta, Layer nextLayer) {
+    /*
+     * Batched backward (output layer): delta[n x outputSize] from the targets y
+     * and the a/dadz matrices recorded by forwardBatch.
+     */
+    public void backwardBatch(double[] y, LossFunction loss, double[] a, double[] dadz, double[] delta, int n) {
+        this.requireDouble();
+        Objects.requireNonNull(y, "y");
+        Objects.requireNonNull(loss, "loss");
+        Preconditions.requirePositive(n, "n");
+        int len = n * this.outputSize;
+        Preconditions.requireCapacity(y, len, "y");
+        Preconditions.requireCapacity(a, len, "a");
+        Preconditions.requireCapacity(dadz, len, "dadz");
+        Preconditions.requireCapacity(delta, len, "delta");
+
+        for (int k = 0; k < len; k++) {
+            double dc_da = loss.derivative(a[k], y[k]);
+            delta[k] = dc_da * dadz[k];
+        }
+    }
+
+    /*
+     * Batched backward (hidden layer): delta = (nextDelta · W_next) ⊙ da/dz,
+     * computed as one matrix-matrix product over the batch.
+     */
+    public void backwardBatch(double[] nextDelta, Layer nextLayer, double[] dadz, double[] delta, int n) {
+        this.requireDouble();
         Objects.requireNonNull(nextDelta, "nextDelta");
         Objects.requireNonNull(nextLayer, "nextLayer");
-        Preconditions.requireVector(nextDelta, nextLayer.getOutputSize(), "nextDelta");
+        Preconditions.requirePositive(n, "n");
 
         if (this.getOutputSize() != nextLayer.getInputSize()) {
             throw new IllegalArgumentException("Layer size mismatch: this.outputSize=" + this.getOutputSize()
-                    + ", next.inputSize=" + nextLayer.getOutputSize());
+                    + ", next.inputSize=" + nextLayer.getInputSize());
         }
 
-        double[][] nextWeights = nextLayer.getWeights();
-        double[] delta = new double[this.outputSize];
+        int len = n * this.outputSize;
+        int nextOut = nextLayer.getOutputSize();
+        Preconditions.requireCapacity(nextDelta, n * nextOut, "nextDelta");
+        Preconditions.requireCapacity(dadz, len, "dadz");
+        Preconditions.requireCapacity(delta, len, "delta");
 
-        for (int j = 0; j < this.outputSize; j++) {
-            double dc_da = 0;
-            for (int k = 0; k < nextDelta.length; k++) {
-                dc_da += nextDelta[k] * nextWeights[k][j];
-            }
-            double da_dz = this.activationFunction.derivative(this.z[j]);
-            delta[j] = dc_da * da_dz;
+        Arrays.fill(delta, 0, len, 0.0);
+        MatrixOps.multiply(nextDelta, nextOut, nextLayer.getWeightData(), nextLayer.getStride(), delta,
+                this.outputSize, n, this.outputSize, nextOut);
+
+        for (int k = 0; k < len; k++) {
+            delta[k] *= dadz[k];
         }
+    }
 
-        return delta;
+    /* float variant of forwardBatch(double[], double[], int). */
+    public void forwardBatch(float[] input, float[] output, int n) {
+        this.forwardBatch(input, output, output, n);
+    }
+
+    /* float variant of forwardBatch(double[], double[], double[], int). */
+    public void forwardBatch(float[] input, float[] z, float[] a, int n) {
+        this.forwardBatch(input, z, a, null, n);
+    }
+
+    /* float variant of forwardBatch(double[], double[], double[], double[], int). */
+    public void forwardBatch(float[] input, float[] z, float[] a, float[] dadz, int n) {
+        Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(z, "z");
+        Objects.requireNonNull(a, "a");
+        Preconditions.requirePositive(n, "n");
+        int len = n * this.outputSize;
+        Preconditions.requireCapacity(input, n * this.inputSize, "input");
+        Preconditions.requireCapacity(z, len, "z");
+        Preconditions.requireCapacity(a, len, "a");
+        this.requirePrecision(true);
+
+        if (this.isOffHeap()) {
+            MatrixOps.broadcastRows(this.biasBuffer32, z, this.outputSize, n, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weightBuffer32, this.stride, z,
+                    this.outputSize, n, this.outputSize, this.inputSize);
+        } else {
+            MatrixOps.broadcastRows(this.biases32, z, this.outputSize, n, this.outputSize);
+            MatrixOps.multiplyTransposed(input, this.inputSize, this.weights32, this.stride, z, this.outputSize,
+                    n, this.outputSize, this.inputSize);
+        }
+
+        if (dadz == null) {
+            this.activationFunction.activate(z, a, len);
+        } else {
+            Preconditions.requireCapacity(dadz, len, "dadz");
+            this.activationFunction.activate(z, a, dadz, len);
+        }
+    }
+
+    /* float variant of the output-layer backwardBatch. */
+    public void backwardBatch(float[] y, LossFunction loss, float[] a, float[] dadz, float[] delta, int n) {
+        Objects.requireNonNull(y, "y");
+        Objects.requireNonNull(loss, "loss");
+        Preconditions.requirePositive(n, "n");
+        int len = n * this.outputSize;
+        Preconditions.requireCapacity(y, len, "y");
+        Preconditions.requireCapacity(a, len, "a");
+        Preconditions.requireCapacity(dadz, len, "dadz");
+        Preconditions.requireCapacity(delta, len, "delta");
+        this.requireSingle();
+
+        for (int k = 0; k < len; k++) {
+            double dc_da = loss.derivative(a[k], y[k]);
+            delta[k] = (float) (dc_da * dadz[k]);
+        }
+    }
+
+    /* float variant of the hidden-layer backwardBatch. */
+    public void backwardBatch(float[] nextDelta, Layer nextLayer, float[] dadz, float[] delta, int n) {
+        Objects.requireNonNull(nextDelta, "nextDelta");
+        Objects.requireNonNull(nextLayer, "nextLayer");
+        Preconditions.requirePositive(n, "n");
+        this.requireSingle();
+
+        if (this.getOutputSize() != nextLayer.getInputSize()) {
+            throw new IllegalArgumentException("Layer size mismatch: this.outputSize=" + this.getOutputSize()
+                    + ", next.inputSize=" + nextLayer.getInputSize());
+        }
+
+        int len = n * this.outputSize;
+        int nextOut = nextLayer.getOutputSize();
+        Preconditions.requireCapacity(nextDelta, n * nextOut, "nextDelta");
+        Preconditions.requireCapacity(dadz, len, "dadz");
+        Preconditions.requireCapacity(delta, len, "delta");
+
+        Arrays.fill(delta, 0, len, 0f);
+        MatrixOps.multiply(nextDelta, nextOut, nextLayer.getWeightData32(), nextLayer.getStride(), delta,
+                this.outputSize, n, this.outputSize, nextOut);
+
+        for (int k = 0; k < len; k++) {
+            delta[k] *= dadz[k];
+        }
     }
 
     /* Update weight and biases using deltas. */
     public void update(double learningRate, double[] delta, double[] aPrevious) {
+        this.requireDouble();
         Objects.requireNonNull(delta, "delta");
         Objects.requireNonNull(aPrevious, "aPrevious");
         Preconditions.requireVector(delta, this.outputSize, "delta");
         Preconditions.requireVector(aPrevious, this.inputSize, "aPrevious");
 
         for (int j = 0; j < this.outputSize; j++) {
-            for (int i = 0; i < this.inputSize; i++) {
-                double dc_dw = delta[j] * aPrevious[i];
-                this.weights[j][i] -= learningRate * dc_dw;
-            }
+            // w[j][i] -= lr * delta[j] * aPrevious[i]
+            MatrixOps.axpy(-learningRate * delta[j], aPrevious, 0, this.weights, j * this.stride, this.inputSize);
 
             double dc_db = delta[j];
             this.biases[j] -= learningRate * dc_db;
@@ -130,28 +351,175 @@ public class Layer {
     public void update(double learningRate, double[][] gradientWeights, double[] gradientBiases) {
         Objects.requireNonNull(gradientWeights, "gradientWeights");
         Objects.requireNonNull(gradientBiases, "gradientBiases");
+        Preconditions.requireMatrix(gradientWeights, this.outputSize, this.inputSize, "gradientWeights");
+
+        this.updateGradients(learningRate, flatten(gradientWeights), gradientBiases);
+    }
+
+    /* Update weight and biases using row-major (outputSize x inputSize) gradients. */
+    public void updateGradients(double learningRate, double[] gradientWeights, double[] gradientBiases) {
+        this.requireHeap();
+        Objects.requireNonNull(gradientWeights, "gradientWeights");
+        Objects.requireNonNull(gradientBiases, "gradientBiases");
+        Preconditions.requireVector(gradientWeights, this.outputSize * this.inputSize, "gradientWeights");
+        Preconditions.requireVector(gradientBiases, this.outputSize, "gradientBiases");
+
+        if (this.precision.isSingle()) {
+            for (int k = 0; k < gradientWeights.length; k++) {
+                int j = k / this.inputSize;
+                this.weights32[j * this.stride + k % this.inputSize] -= (float) (learningRate * gradientWeights[k]);
+            }
+            for (int j = 0; j < this.outputSize; j++) {
+                this.biases32[j] -= (float) (learningRate * gradientBiases[j]);
+            }
+            return;
+        }
+
+        for (int j = 0; j < this.outputSize; j++) {
+            MatrixOps.axpy(-learningRate, gradientWeights, j * this.inputSize, this.weights, j * this.stride,
+                    this.inputSize);
+        }
+        MatrixOps.axpy(-learningRate, gradientBiases, 0, this.biases, 0, this.outputSize);
+    }
+
+    /* Update weight and biases using row-major (outputSize x inputSize) float gradients. */
+    public void updateGradients(double learningRate, float[] gradientWeights, float[] gradientBiases) {
+        Objects.requireNonNull(gradientWeights, "gradientWeights");
+        Objects.requireNonNull(gradientBiases, "gradientBiases");
+        Preconditions.requireVector(gradientWeights, this.outputSize * this.inputSize, "gradientWeights");
         Preconditions.requireVector(gradientBiases, this.outputSize, "gradientBiases");
+        this.requireSingle();
+
+        float rate = (float) -learningRate;
+        for (int j = 0; j < this.outputSize; j++) {
+            MatrixOps.axpy(rate, gradientWeights, j * this.inputSize, this.weights32, j * this.stride,
+                    this.inputSize);
+        }
+        MatrixOps.axpy(rate, gradientBiases, 0, this.biases32, 0, this.outputSize);
+    }
+
+    /*
+     * Let update rewrite the parameters in place: each weight row, then the
+     * biases, in the layer's current precision.
+     */
+    public void updateParameters(ParameterUpdate update) {
+        this.requireHeap();
+        Objects.requireNonNull(update, "update");
 
         for (int j = 0; j < this.outputSize; j++) {
-            for (int i = 0; i < this.inputSize; i++) {
-                double dc_dw = gradientWeights[j][i];
-                this.weights[j][i] -= learningRate * dc_dw;
+            if (this.precision.isSingle()) {
+                update.weights(this.weights32, j * this.stride, j * this.inputSize, this.inputSize);
+            } else {
+                update.weights(this.weights, j * this.stride, j * this.inputSize, this.inputSize);
             }
+        }
 
-            double dc_db = gradientBiases[j];
-            this.biases[j] -= learningRate * dc_db;
+        if (this.precision.isSingle()) {
+            update.biases(this.biases32, this.outputSize);
+        } else {
+            update.biases(this.biases, this.outputSize);
         }
     }
 
-    /* Replace weights and biases. */
+    /* Replace weights and biases; the values are copied into the layer's storage. */
     public void set(double[][] weights, double[] biases) {
         Objects.requireNonNull(weights, "weights");
         Objects.requireNonNull(biases, "biases");
         Preconditions.requireMatrix(weights, this.outputSize, this.inputSize, "weights");
         Preconditions.requireVector(biases, this.outputSize, "biases");
 
-        this.weights = weights;
-        this.biases = biases;
+        this.setRowMajor(flatten(weights), biases);
+    }
+
+    /*
+     * Replace weights (row-major, outputSize x inputSize) and biases; the values
+     * are copied into the layer's storage.
+     */
+    public void setRowMajor(double[] weights, double[] biases) {
+        this.requireHeap();
+        Objects.requireNonNull(weights, "weights");
+        Objects.requireNonNull(biases, "biases");
+        Preconditions.requireVector(weights, this.outputSize * this.inputSize, "weights");
+        Preconditions.requireVector(biases, this.outputSize, "biases");
+
+        if (this.precision.isSingle()) {
+            for (int j = 0; j < this.outputSize; j++) {
+                MatrixOps.narrow(weights, j * this.inputSize, this.weights32, j * this.stride, this.inputSize);
+            }
+            MatrixOps.narrow(biases, 0, this.biases32, 0, this.outputSize);
+            return;
+        }
+
+        for (int j = 0; j < this.outputSize; j++) {
+            System.arraycopy(weights, j * this.inputSize, this.weights, j * this.stride, this.inputSize);
+        }
+        System.arraycopy(biases, 0, this.biases, 0, this.outputSize);
+    }
+
+    /*
+     * Switch the parameter storage to the given precision, rounding or widening
+     * the current values; the old arrays are released. Called by NeuralNetwork
+     * for every layer, so all layers of a network share one precision.
+     */
+    public void setPrecision(Precision precision) {
+        Objects.requireNonNull(precision, "precision");
+
+        if (this.isOffHeap() && precision.isSingle() != this.precision.isSingle()) {
+            throw new IllegalStateException("Off-heap parameters cannot change precision");
+        }
+
+        if (precision.isSingle() && !this.precision.isSingle()) {
+            this.weights32 = new float[this.weights.length];
+            this.biases32 = new float[this.outputSize];
+            MatrixOps.narrow(this.weights, 0, this.weights32, 0, this.weights.length);
+            MatrixOps.narrow(this.biases, 0, this.biases32, 0, this.outputSize);
+            this.weights = null;
+            this.biases = null;
+        } else if (!precision.isSingle() && this.precision.isSingle()) {
+            this.weights = new double[this.weights32.length];
+            this.biases = new double[this.outputSize];
+            MatrixOps.widen(this.weights32, 0, this.weights, 0, this.weights32.length);
+            MatrixOps.widen(this.biases32, 0, this.biases, 0, this.outputSize);
+            this.weights32 = null;
+            this.biases32 = null;
+        }
+
+        this.precision = precision;
+    }
+
+    /*
+     * Move the parameters into direct memory outside the Java heap, where the
+     * garbage collector never scans them. The layer becomes read-only: it can
+     * run forward passes but not be trained or have its parameters replaced.
+     */
+    public void moveOffHeap() {
+        if (this.isOffHeap()) {
+            return;
+        }
+
+        int width = this.precision.isSingle() ? Float.BYTES : Double.BYTES;
+        ByteBuffer w = ByteBuffer.allocateDirect(this.outputSize * this.stride * width).order(ByteOrder.nativeOrder());
+        ByteBuffer b = ByteBuffer.allocateDirect(this.outputSize * width).order(ByteOrder.nativeOrder());
+
+        if (this.precision.isSingle()) {
+            w.asFloatBuffer().put(this.weights32);
+            b.asFloatBuffer().put(this.biases32);
+        } else {
+            w.asDoubleBuffer().put(this.weights);
+            b.asDoubleBuffer().put(this.biases);
+        }
+
+        this.setBuffers(w.asReadOnlyBuffer().order(w.order()), b.asReadOnlyBuffer().order(b.order()));
+    }
+
+    /* Return true if the parameters live off-heap (see moveOffHeap). */
+    public boolean isOffHeap() {
+        return this.weightBuffer != null || this.weightBuffer32 != null;
+    }
+
+    /* Get the precision of the parameter storage. */
+    public Precision getPrecision() {
+        return this.precision;
     }
 
     /* Get input size. */
@@ -164,18 +532,137 @@ public class Layer {
         return this.outputSize;
     }
 
-    /* Get weight matrix. */
+    /* Get the activation function. */
+    public ActivationFunction getActivationFunction() {
+        return this.activationFunction;
+    }
+
+    /* Get the distance between consecutive rows in the flat weight storage. */
+    public int getStride() {
+        return this.stride;
+    }
+
+    /* Get a copy of the weight matrix as outputSize rows of inputSize. */
     public double[][] getWeights() {
+        double[][] rows = new double[this.outputSize][];
+        for (int j = 0; j < this.outputSize; j++) {
+            int row = j * this.stride;
+            if (this.weightBuffer != null) {
+                rows[j] = new double[this.inputSize];
+                this.weightBuffer.get(row, rows[j], 0, this.inputSize);
+            } else if (this.weightBuffer32 != null) {
+                float[] values = new float[this.inputSize];
+                this.weightBuffer32.get(row, values, 0, this.inputSize);
+                rows[j] = new double[this.inputSize];
+                MatrixOps.widen(values, 0, rows[j], 0, this.inputSize);
+            } else if (this.precision.isSingle()) {
+                rows[j] = new double[this.inputSize];
+                MatrixOps.widen(this.weights32, row, rows[j], 0, this.inputSize);
+            } else {
+                rows[j] = Arrays.copyOfRange(this.weights, row, row + this.inputSize);
+            }
+        }
+        return rows;
+    }
+
+    /*
+     * Get the live row-major weight storage; element (j, i) is at
+     * j * getStride() + i.
+     */
+    public double[] getWeightData() {
+        this.requireDouble();
         return this.weights;
     }
 
     /* Get bias vector. */
     public double[] getBiases() {
+        this.requireDouble();
         return this.biases;
     }
 
-    /* Get last activation vector a. */
-    public double[] getState() {
-        return this.a;
+    /* Get the live float weight storage of a single-precision layer. */
+    public float[] getWeightData32() {
+        this.requireSingle();
+        return this.weights32;
+    }
+
+    /* Get the live float bias vector of a single-precision layer. */
+    public float[] getBiases32() {
+        this.requireSingle();
+        return this.biases32;
+    }
+
+    /* Write the weights (row-major, outputSize x inputSize) then the biases at the buffer's position. */
+    void writeParameters(ByteBuffer out) {
+        for (int j = 0; j < this.outputSize; j++) {
+            int row = j * this.stride;
+            if (this.weightBuffer != null) {
+                BufferOps.put(out, this.weightBuffer, row, this.inputSize);
+            } else if (this.weightBuffer32 != null) {
+                BufferOps.put(out, this.weightBuffer32, row, this.inputSize);
+            } else if (this.precision.isSingle()) {
+                BufferOps.put(out, this.weights32, row, this.inputSize);
+            } else {
+                BufferOps.put(out, this.weights, row, this.inputSize);
+            }
+        }
+
+        if (this.biasBuffer != null) {
+            BufferOps.put(out, this.biasBuffer, 0, this.outputSize);
+        } else if (this.biasBuffer32 != null) {
+            BufferOps.put(out, this.biasBuffer32, 0, this.outputSize);
+        } else if (this.precision.isSingle()) {
+            BufferOps.put(out, this.biases32, 0, this.outputSize);
+        } else {
+            BufferOps.put(out, this.biases, 0, this.outputSize);
+        }
+    }
+
+    /* Replace the parameter arrays with typed views of off-heap buffers. */
+    private void setBuffers(ByteBuffer weights, ByteBuffer biases) {
+        if (this.precision.isSingle()) {
+            this.weightBuffer32 = weights.asFloatBuffer();
+            this.biasBuffer32 = biases.asFloatBuffer();
+        } else {
+            this.weightBuffer = weights.asDoubleBuffer();
+            this.biasBuffer = biases.asDoubleBuffer();
+        }
+
+        this.weights = null;
+        this.biases = null;
+        this.weights32 = null;
+        this.biases32 = null;
+    }
+
+    private void requireDouble() {
+        this.requirePrecision(false);
+        this.requireHeap();
+    }
+
+    private void requireSingle() {
+        this.requirePrecision(true);
+        this.requireHeap();
+    }
+
+    private void requirePrecision(boolean single) {
+        if (this.precision.isSingle() != single) {
+            throw new IllegalStateException("Layer stores " + this.precision + " parameters; use the "
+                    + (single ? "double" : "float") + " methods");
+        }
+    }
+
+    private void requireHeap() {
+        if (this.isOffHeap()) {
+            throw new IllegalStateException("Layer parameters are off-heap and read-only");
+        }
+    }
+
+    /* Copy a rows x inputSize matrix into a row-major array. */
+    private double[] flatten(double[][] m) {
+        double[] flat = new double[this.outputSize * this.inputSize];
+        for (int j = 0; j < this.outputSize; j++) {
+            System.arraycopy(m[j], 0, flat, j * this.inputSize, this.inputSize);
+        }
+        return flat;
     }
 }
@@ -0,0 +1,456 @@
+package fa.nn;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import fa.nn.activation.ActivationFunction;
+import fa.nn.activation.LeakyReLU;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.activation.Sigmoid;
+import fa.nn.learn.Dataset;
+import fa.nn.learn.Trainable;
+import fa.nn.util.BufferOps;
+import fa.nn.util.MatrixOps;
+
+/*
+ * Binary model format, little-endian throughout:
+ *
+ *   int magic "FANN", int version, int precision (Precision ordinal),
+ *   int layer count, then per layer int inputSize, int outputSize,
+ *   int activation code; zero padding to a multiple of 8 bytes.
+ *
+ *   Per layer its weights (outputSize x inputSize, row-major) followed by its
+ *   biases, as float in single precision and double otherwise; zero padding
+ *   to a multiple of 8 bytes.
+ *
+ *   int trainer name length, int trainer state size, the UTF-8 trainer class
+ *   name, zero padding to a multiple of 8 bytes, then the state written by
+ *   Trainable#saveState. Both lengths are 0 when no state was saved.
+ *
+ *   Since version 2, zero padding to a multiple of 8 bytes, long epochs
+ *   completed (-1 when the file is not a checkpoint), int size of the
+ *   dataset state, int 0, then the state written by Dataset#saveState.
+ *
+ * The whole file is read with one channel read and the parameter blocks are
+ * copied into the layers' storage one array at a time, or the file is mapped
+ * and the layers use the parameter blocks in place.
+ */
+final class ModelFile {
+    static final int MAGIC = 0x4E4E4146; // "FANN"
+    static final int VERSION = 2;
+
+    private static final int LINEAR = 0;
+    private static final int RELU = 1;
+    private static final int LEAKY_RELU = 2;
+    private static final int SIGMOID = 3;
+
+    private final Path path;
+    private final ByteBuffer buf;
+    private final Precision precision;
+    private final int[] inputSizes;
+    private final int[] outputSizes;
+    private final int[] activations;
+    private final int parameters;
+    private final String trainer;
+    private final int state;
+    private final int stateSize;
+    private final long epochs;
+    private final int progress;
+
+    private ModelFile(Path path, ByteBuffer buf) {
+        this.path = path;
+        this.buf = buf;
+
+        if (buf.remaining() < 16 || buf.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a model file: " + path);
+        }
+
+        int version = buf.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported model file version " + version + ": " + path);
+        }
+
+        int precision = buf.getInt();
+        int layers = buf.getInt();
+        if (precision < 0 || precision >= Precision.values().length || layers < 1
+                || buf.remaining() < layers * 12L) {
+            throw corrupt();
+        }
+
+        this.precision = Precision.values()[precision];
+        this.inputSizes = new int[layers];
+        this.outputSizes = new int[layers];
+        this.activations = new int[layers];
+
+        long parameterBytes = 0;
+        int width = this.precision.isSingle() ? Float.BYTES : Double.BYTES;
+        for (int l = 0; l < layers; l++) {
+            this.inputSizes[l] = buf.getInt();
+            this.outputSizes[l] = buf.getInt();
+            this.activations[l] = buf.getInt();
+            if (this.inputSizes[l] < 1 || this.outputSizes[l] < 1) {
+                throw corrupt();
+            }
+            parameterBytes += ((long) this.outputSizes[l] * this.inputSizes[l] + this.outputSizes[l]) * width;
+        }
+
+        this.parameters = BufferOps.align8(buf.position());
+        long trailer = this.parameters + ((parameterBytes + 7) & ~7L);
+        if (trailer + 8 > buf.limit()) {
+            throw corrupt();
+        }
+
+        buf.position((int) trailer);
+        int nameLength = buf.getInt();
+        this.stateSize = buf.getInt();
+        if (nameLength < 0 || this.stateSize < 0 || buf.remaining() < nameLength) {
+            throw corrupt();
+        }
+
+        byte[] name = new byte[nameLength];
+        buf.get(name);
+        this.trainer = nameLength == 0 ? null : new String(name, StandardCharsets.UTF_8);
+        this.state = BufferOps.align8(buf.position());
+        long end = (long) this.state + this.stateSize;
+
+        if (version == 1) {
+            if (end != buf.limit()) {
+                throw corrupt();
+            }
+            this.epochs = -1;
+            this.progress = buf.limit();
+            return;
+        }
+
+        end = (end + 7) & ~7L;
+        if (end + 16 > buf.limit()) {
+            throw corrupt();
+        }
+        buf.position((int) end);
+        this.epochs = buf.getLong();
+        int progressSize = buf.getInt();
+        buf.getInt();
+        this.progress = buf.position();
+        if (progressSize < 0 || (long) this.progress + progressSize != buf.limit()) {
+            throw corrupt();
+        }
+    }
+
+    /*
+     * Write the network's topology and parameters to path, followed by the
+     * trainer's optimizer state when trainer is not null.
+     */
+    static void write(NeuralNetwork nn, Trainable trainer, Path path) {
+        write(encode(nn, trainer, -1, null, null), path);
+    }
+
+    /*
+     * Encode a model file: the network, the trainer's state when trainer is
+     * not null and, when epochs is not negative, the training progress (epochs
+     * completed and the dataset's shuffle state). The file is encoded into
+     * reuse when it is large enough, else into a new buffer; the returned
+     * buffer is ready to be written.
+     */
+    static ByteBuffer encode(NeuralNetwork nn, Trainable trainer, long epochs, Dataset d, ByteBuffer reuse) {
+        Layer[] layers = nn.getLayers();
+        Precision precision = nn.getPrecision();
+        int width = precision.isSingle() ? Float.BYTES : Double.BYTES;
+
+        byte[] name = trainer == null ? new byte[0] : trainer.getClass().getName().getBytes(StandardCharsets.UTF_8);
+        int stateSize = trainer == null ? 0 : trainer.stateSize();
+        int progressSize = epochs < 0 ? 0 : d.stateSize();
+
+        long size = BufferOps.align8(16 + 12 * layers.length);
+        for (Layer layer : layers) {
+            size += ((long) layer.getOutputSize() * layer.getInputSize() + layer.getOutputSize()) * width;
+        }
+        size = ((size + 7) & ~7L) + BufferOps.align8(8 + name.length) + ((stateSize + 7) & ~7L) + 16 + progressSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Model too large for the binary format: " + size + " bytes");
+        }
+
+        ByteBuffer buf = reuse != null && reuse.capacity() >= size
+                ? reuse.clear().limit((int) size)
+                : ByteBuffer.allocate((int) size);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        buf.putInt(MAGIC).putInt(VERSION).putInt(precision.ordinal()).putInt(layers.length);
+        for (Layer layer : layers) {
+            buf.putInt(layer.getInputSize()).putInt(layer.getOutputSize()).putInt(code(layer.getActivationFunction()));
+        }
+        pad(buf);
+
+        for (Layer layer : layers) {
+            layer.writeParameters(buf);
+        }
+        pad(buf);
+
+        buf.putInt(name.length).putInt(stateSize).put(name);
+        pad(buf);
+        int state = buf.position();
+        if (trainer != null) {
+            trainer.saveState(buf);
+        }
+        if (buf.position() != state + stateSize) {
+            throw new IllegalStateException(trainer.getClass().getName() + " did not write its state size of "
+                    + stateSize + " bytes");
+        }
+        pad(buf);
+
+        buf.putLong(epochs < 0 ? -1 : epochs).putInt(progressSize).putInt(0);
+        if (epochs >= 0) {
+            d.saveState(buf);
+        }
+
+        if (buf.hasRemaining()) {
+            throw new IllegalStateException("Dataset did not write its state size of " + progressSize + " bytes");
+        }
+        return buf.flip();
+    }
+
+    /*
+     * Write an encoded file next to path, force it to disk and rename it over
+     * path, so readers only ever see a complete file.
+     */
+    static void write(ByteBuffer buf, Path path) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + path, e);
+        }
+    }
+
+    /* Read and validate the header of a model file, keeping its contents in memory. */
+    static ModelFile read(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Model file too large: " + path);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) {
+                    throw new EOFException("Unexpected end of " + path);
+                }
+            }
+            buf.flip();
+
+            return new ModelFile(path, buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    /* Read a file encoded in memory (see NeuralNetwork#snapshot); buf itself is left untouched. */
+    static ModelFile decode(ByteBuffer buf) {
+        return new ModelFile(Path.of("snapshot"), buf.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /*
+     * Map a model file read-only instead of reading it; the mapping stays
+     * valid after the channel is closed and shares the page cache with every
+     * other process mapping the same file.
+     */
+    static ModelFile map(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Model file too large: " + path);
+            }
+
+            return new ModelFile(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + path, e);
+        }
+    }
+
+    /* Return the precision the parameters were saved in. */
+    Precision getPrecision() {
+        return this.precision;
+    }
+
+    /* Create layers with the saved topology and activations and no initialization. */
+    Layer[] createLayers() {
+        Layer[] layers = new Layer[this.inputSizes.length];
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = new Layer(this.inputSizes[l], this.outputSizes[l], activation(this.activations[l]),
+                    layer -> {
+                    });
+        }
+        return layers;
+    }
+
+    /*
+     * Create read-only layers whose parameters are views of the file's
+     * contents rather than heap copies.
+     */
+    Layer[] createOffHeapLayers() {
+        Layer[] layers = new Layer[this.inputSizes.length];
+        int width = this.precision.isSingle() ? Float.BYTES : Double.BYTES;
+        int offset = this.parameters;
+
+        for (int l = 0; l < layers.length; l++) {
+            int weights = this.outputSizes[l] * this.inputSizes[l] * width;
+            int biases = this.outputSizes[l] * width;
+
+            layers[l] = new Layer(this.inputSizes[l], this.outputSizes[l], activation(this.activations[l]),
+                    this.precision, this.buf.slice(offset, weights).order(ByteOrder.LITTLE_ENDIAN),
+                    this.buf.slice(offset + weights, biases).order(ByteOrder.LITTLE_ENDIAN));
+            offset += weights + biases;
+        }
+        return layers;
+    }
+
+    /*
+     * Copy the saved parameters into layers of the same topology and
+     * activations, rounding or widening them when the layers' precision
+     * differs from the file's.
+     */
+    void copyParameters(Layer[] layers) {
+        if (layers.length != this.inputSizes.length) {
+            throw new IllegalArgumentException("Model file has " + this.inputSizes.length + " layers, network has "
+                    + layers.length + ": " + this.path);
+        }
+
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            if (layer.getInputSize() != this.inputSizes[l] || layer.getOutputSize() != this.outputSizes[l]
+                    || code(layer.getActivationFunction()) != this.activations[l]) {
+                throw new IllegalArgumentException("Layer " + l + " does not match the model file: " + this.path);
+            }
+        }
+
+        this.buf.position(this.parameters);
+        for (Layer layer : layers) {
+            int in = layer.getInputSize();
+            int out = layer.getOutputSize();
+
+            if (layer.getPrecision().isSingle() == this.precision.isSingle()) {
+                for (int j = 0; j < out; j++) {
+                    if (this.precision.isSingle()) {
+                        BufferOps.get(this.buf, layer.getWeightData32(), j * layer.getStride(), in);
+                    } else {
+                        BufferOps.get(this.buf, layer.getWeightData(), j * layer.getStride(), in);
+                    }
+                }
+
+                if (this.precision.isSingle()) {
+                    BufferOps.get(this.buf, layer.getBiases32(), 0, out);
+                } else {
+                    BufferOps.get(this.buf, layer.getBiases(), 0, out);
+                }
+                continue;
+            }
+
+            double[] weights = new double[out * in];
+            double[] biases = new double[out];
+            if (this.precision.isSingle()) {
+                float[] w = new float[out * in];
+                float[] b = new float[out];
+                BufferOps.get(this.buf, w, 0, w.length);
+                BufferOps.get(this.buf, b, 0, b.length);
+                MatrixOps.widen(w, 0, weights, 0, w.length);
+                MatrixOps.widen(b, 0, biases, 0, b.length);
+            } else {
+                BufferOps.get(this.buf, weights, 0, weights.length);
+                BufferOps.get(this.buf, biases, 0, biases.length);
+            }
+            layer.setRowMajor(weights, biases);
+        }
+    }
+
+    /*
+     * Return true if the file holds optimizer state of trainer's type; throw
+     * if that state was saved for a network of another precision or size.
+     */
+    boolean hasState(Trainable trainer, NeuralNetwork nn) {
+        if (this.trainer == null || !this.trainer.equals(trainer.getClass().getName())) {
+            return false;
+        }
+
+        if (nn.getPrecision() != this.precision || trainer.stateSize() != this.stateSize) {
+            throw new IllegalArgumentException("Trainer state in " + this.path + " does not match the network");
+        }
+        return true;
+    }
+
+    /* Load the saved optimizer state into a trainer accepted by hasState. */
+    void restoreState(Trainable trainer) {
+        this.buf.position(this.state);
+        trainer.loadState(this.buf.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /* Return the epochs completed when the file was written as a checkpoint, else -1. */
+    long getEpochs() {
+        return this.epochs;
+    }
+
+    /* Restore the shuffle state of a checkpoint into a dataset built from the same rows. */
+    void restoreDataset(Dataset d) {
+        if (this.epochs < 0) {
+            throw new IllegalStateException("Not a checkpoint: " + this.path);
+        }
+
+        this.buf.position(this.progress);
+        d.loadState(this.buf.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0) {
+            buf.put((byte) 0);
+        }
+    }
+
+    private IllegalArgumentException corrupt() {
+        return new IllegalArgumentException("Corrupt model file: " + this.path);
+    }
+
+    private static int code(ActivationFunction f) {
+        Class<?> type = f.getClass();
+        if (type == Linear.class) {
+            return LINEAR;
+        } else if (type == ReLU.class) {
+            return RELU;
+        } else if (type == LeakyReLU.class) {
+            return LEAKY_RELU;
+        } else if (type == Sigmoid.class) {
+            return SIGMOID;
+        }
+        throw new IllegalArgumentException("Activation " + type.getName() + " cannot be saved");
+    }
+
+    private ActivationFunction activation(int code) {
+        switch (code) {
+        case LINEAR:
+            return new Linear();
+        case RELU:
+            return new ReLU();
+        case LEAKY_RELU:
+            return new LeakyReLU();
+        case SIGMOID:
+            return new Sigmoid();
+        default:
+            throw corrupt();
+        }
+    }
+}
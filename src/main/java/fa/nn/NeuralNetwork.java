@@ -1,12 +1,21 @@
 package fa.nn;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import fa.nn.learn.Dataset;
+import fa.nn.learn.MappedDataset;
+import fa.nn.learn.ParallelBackpropagation;
 import fa.nn.learn.Trainable;
 import fa.nn.loss.LossFunction;
+import fa.nn.util.MatrixOps;
 import fa.nn.util.Preconditions;
 
 /**
@@ -17,16 +26,33 @@ import fa.nn.util.Preconditions;
  * @version 1.0
  */
 public class NeuralNetwork {
+    private static final int PREDICT_CHUNK = 256;
+
     private Trainable trainer;
     private LossFunction loss;
     private Layer[] layers;
+    private Precision precision;
+    private Workspace workspace;
+    private int parallelism = 1;
+    private ParallelBackpropagation parallel;
+    private Checkpointer checkpointer;
+    private final AtomicReference<Workspace> inference = new AtomicReference<>(); // idle context of predict
 
     /*
      * Construct a feed-forward network from ordered layers; adjacent layers'
      * input/output sizes must match.
      */
     public NeuralNetwork(Layer[] layers) {
+        this(layers, Precision.FP64);
+    }
+
+    /*
+     * Construct a network whose layers, workspaces and trainers all use the
+     * given precision; the layers' parameters are converted in place.
+     */
+    public NeuralNetwork(Layer[] layers, Precision precision) {
         Objects.requireNonNull(layers, "layers");
+        Objects.requireNonNull(precision, "precision");
 
         if (layers.length == 0) {
             throw new IllegalArgumentException("At least one trainable layer is required.");
@@ -34,7 +60,12 @@ public class NeuralNetwork {
 
         verifyLayers(layers); // Check if all layers are correctly connected
 
+        for (Layer layer : layers) {
+            layer.setPrecision(precision);
+        }
+
         this.layers = layers;
+        this.precision = precision;
     }
 
     /*
@@ -46,124 +77,462 @@ public class NeuralNetwork {
 
         this.trainer = trainer;
         this.loss = loss;
+        this.parallel = null;
         trainer.setLoss(loss);
     }
 
     /*
-     * Run a forward pass through all layers and return the final output.
+     * Shard every mini-batch of fitNext across up to workers threads of the
+     * common ForkJoinPool; 1 (the default) trains serially. Only FP64
+     * networks train in parallel.
+     */
+    public void setParallelism(int workers) {
+        Preconditions.requirePositive(workers, "workers");
+
+        if (workers > 1 && this.precision != Precision.FP64) {
+            throw new IllegalStateException("Parallel training requires FP64 precision");
+        }
+
+        this.parallelism = workers;
+        this.parallel = null;
+    }
+
+    /*
+     * Run a forward pass through all layers and return the final output. Safe
+     * to call from several threads at once: the call borrows the network's
+     * inference context (z and a only) and a thread that finds it taken
+     * allocates one of its own, so only concurrent calls allocate more than
+     * the output. Threads predicting in a loop should hold their own context
+     * and call predict(input, context) instead.
      */
     public double[] predict(double[] input) {
+        Workspace context = this.inference.getAndSet(null);
+        if (context == null) {
+            context = Workspace.forInference(this.layers, 1);
+        }
+
+        try {
+            return this.predict(input, context);
+        } finally {
+            this.inference.set(context);
+        }
+    }
+
+    /*
+     * Run a forward pass using the given context for the activations, leaving
+     * every layer's z and a in it, and return a copy of the final output. A
+     * context, for training or Workspace#forInference, must not be shared
+     * between threads.
+     */
+    public double[] predict(double[] input, Workspace context) {
         Objects.requireNonNull(input, "input");
+        Objects.requireNonNull(context, "context");
         Preconditions.requireVector(input, this.layers[0].getInputSize(), "input");
 
-        double output[] = input;
+        if (this.precision.isSingle()) {
+            float[] output = context.getInput32();
+            MatrixOps.narrow(input, 0, output, 0, input.length);
 
-        for (Layer layer : this.layers) {
-            output = layer.forward(output);
+            for (int l = 0; l < this.layers.length; l++) {
+                this.layers[l].forwardBatch(output, context.getZ32(l), context.getA32(l), 1);
+                output = context.getA32(l);
+            }
+
+            double[] y = new double[this.layers[this.layers.length - 1].getOutputSize()];
+            MatrixOps.widen(output, 0, y, 0, y.length);
+            return y;
         }
 
-        return output;
+        double[] output = input;
+
+        for (int l = 0; l < this.layers.length; l++) {
+            this.layers[l].forwardBatch(output, context.getZ(l), context.getA(l), 1);
+            output = context.getA(l);
+        }
+
+        return Arrays.copyOf(output, this.layers[this.layers.length - 1].getOutputSize());
     }
 
     /*
-     * Convenience fit for scalar features/targets.
+     * Run a batched forward pass over the rows of x (N x inputSize) and return
+     * the N x outputSize predictions.
+     */
+    public double[][] predictBatch(double[][] x) {
+        Objects.requireNonNull(x, "x");
+        int inputSize = this.layers[0].getInputSize();
+        Preconditions.requireMatrix(x, x.length, inputSize, "x");
+
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        double[] flatY = this.predictBatch(flatten(x), x.length);
+
+        double[][] y = new double[x.length][];
+        for (int r = 0; r < x.length; r++) {
+            y[r] = Arrays.copyOfRange(flatY, r * outputSize, (r + 1) * outputSize);
+        }
+
+        return y;
+    }
+
+    /*
+     * Run a batched forward pass over n samples stored row-major in x
+     * (n x inputSize) and return the row-major n x outputSize predictions. Rows
+     * are processed in chunks so the intermediate activations stay in cache.
+     */
+    public double[] predictBatch(double[] x, int n) {
+        Objects.requireNonNull(x, "x");
+        Preconditions.requirePositiveOrZero(n, "n");
+        int inputSize = this.layers[0].getInputSize();
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        Preconditions.requireVector(x, n * inputSize, "x");
+
+        double[] y = new double[n * outputSize];
+        ChunkForward forward = new ChunkForward(Math.min(PREDICT_CHUNK, Math.max(n, 1)));
+
+        for (int start = 0; start < n; start += forward.capacity) {
+            int rows = Math.min(forward.capacity, n - start);
+            System.arraycopy(x, start * inputSize, forward.x, 0, rows * inputSize);
+            forward.run(rows, y, start * outputSize);
+        }
+
+        return y;
+    }
+
+    /*
+     * Checkpoint training in the background as configured by checkpointer
+     * (see Checkpointer); null disables checkpointing.
+     */
+    public void setCheckpointer(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    /* Return the configured checkpointer, or null if unset. */
+    public Checkpointer getCheckpointer() {
+        return this.checkpointer;
+    }
+
+    /*
+     * Convenience fit for scalar features/targets; the values are stored flat
+     * instead of one array per sample.
      */
     public void fit(double[] x, double[] y, double split, int epochs, int batchSize, boolean verbose, Random rand) {
         Objects.requireNonNull(x, "x");
         Objects.requireNonNull(y, "y");
 
-        double[][] mx = Arrays.stream(x)
-                .mapToObj(v -> new double[] { v })
-                .toArray(double[][]::new);
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x and y must have same length");
+        }
 
-        double[][] my = Arrays.stream(y)
-                .mapToObj(v -> new double[] { v })
-                .toArray(double[][]::new);
+        this.checkFit(x.length, split, epochs, batchSize);
+
+        if (rand == null) {
+            rand = new Random();
+        }
 
-        fit(mx, my, split, epochs, batchSize, verbose, rand);
+        Dataset d = new Dataset(x, y, 1, 1, split, rand, this.precision);
+        this.fit(d, epochs, batchSize, verbose);
     }
 
     /*
      * Train with mini-batch gradient descent: split train/val, shuffle each
-     * epoch, accumulate per-sample grads, step per batch.
+     * epoch, accumulate batch grads, step per batch. With a checkpointer whose
+     * file exists, training resumes after the epochs it had completed.
      */
     public void fit(double[][] x, double[][] y, double split, int epochs, int batchSize, boolean verbose, Random rand) {
         Objects.requireNonNull(x, "x");
         Objects.requireNonNull(y, "y");
+
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x and y must have same length");
+        }
+
+        this.checkFit(x.length, split, epochs, batchSize);
+
+        if (rand == null) {
+            rand = new Random();
+        }
+
+        Dataset d = new Dataset(x, y, split, rand, this.precision); // Split data into train and validation data
+        this.fit(d, epochs, batchSize, verbose);
+    }
+
+    private void checkFit(int rows, double split, int epochs, int batchSize) {
         Preconditions.requireProbability(split, "split");
         Preconditions.requirePositive(epochs, "epochs");
         Preconditions.requirePositive(batchSize, "batchSize");
 
-        if (x.length == 0 || y.length == 0) {
+        if (rows == 0) {
             throw new IllegalArgumentException("x and y must not be empty");
         }
 
-        if (x.length != y.length) {
-            throw new IllegalArgumentException("x and y must have same length");
-        }
-
         if (this.trainer == null || this.loss == null) {
             throw new IllegalStateException("Trainer and LossFunction must be set before calling fit()");
         }
+    }
 
-        if (rand == null) {
-            rand = new Random();
-        }
-
-        Dataset d = new Dataset(x, y, split, rand); // Split data into train and validation data
+    private void fit(Dataset d, int epochs, int batchSize, boolean verbose) {
+        long first = this.checkpointer == null ? 1 : this.checkpointer.restore(this, d) + 1;
 
-        for (int epoch = 1; epoch <= epochs; epoch++) {
-            this.fitNext(d, batchSize);
+        for (long epoch = first; epoch <= epochs; epoch++) {
+            EpochStats stats = this.fitNext(d, batchSize);
 
             if (verbose && (epoch == 1 || epoch % 100 == 0)) {
-                System.out.print("Epoch: " + epoch + "/" + epochs + " ");
-
-                // double[][] yhatTrain = Arrays.stream(d.trainX())
-                // .map(this::predict)
-                // .toArray(double[][]::new);
-                // double trainLoss = this.loss.loss(flatten(yhatTrain), flatten(d.trainY()));
-                double trainLoss = this.calculateLoss(d.trainX(), d.trainY());
-                System.out.print("- loss: " + trainLoss + " ");
-
-                // double[][] yhatVal = Arrays.stream(d.valX())
-                // .map(this::predict)
-                // .toArray(double[][]::new);
-                // double valLoss = this.loss.loss(flatten(yhatVal), flatten(d.valY()));
-                double valLoss = this.calculateLoss(d.trainX(), d.trainY());
-                System.out.println("- val_loss: " + valLoss);
+                // The training loss comes from the epoch's own forward passes; only the validation rows are re-run
+                double valLoss = this.calculateLoss(d, d.trainSize(), d.size());
+                System.out.println("Epoch: " + epoch + "/" + epochs + " - loss: " + stats.getMeanLoss()
+                        + " - val_loss: " + valLoss);
             }
         }
     }
 
     /*
      * Advances training by one epoch on the given dataset using mini-batch SGD with
-     * the specified batch size.
+     * the specified batch size. If the calling thread is interrupted the epoch
+     * stops at the next batch boundary with a CancellationException; the
+     * interrupt status is left set. Returns the loss accumulated over the
+     * epoch's forward passes, without another pass over the data.
      */
-    public void fitNext(Dataset d, int batchSize) {
+    public EpochStats fitNext(Dataset d, int batchSize) {
         Objects.requireNonNull(d, "dataset");
         Preconditions.requirePositive(batchSize, "batchSize");
 
-        d.shuffle();
-        double[][] xTrain = d.trainX(), yTrain = d.trainY();
+        long begin = System.nanoTime();
+        EpochStats stats = this.fitEpoch(d, batchSize, begin);
 
-        for (int start = 0; start < xTrain.length; start += batchSize) { // Iterate over the mini-batches
-            int end = Math.min(start + batchSize, xTrain.length);
-            for (int i = start; i < end; i++) {
+        if (this.checkpointer != null) {
+            this.checkpointer.epochCompleted(this, d);
+        }
+        return stats;
+    }
 
-                this.predict(xTrain[i]); // Forward pass (fills activations needed by learn)
+    /* Shuffle the dataset and run one epoch of mini-batches over it. */
+    private EpochStats fitEpoch(Dataset d, int batchSize, long begin) {
+        d.shuffle();
+
+        if (this.parallelism > 1) {
+            if (d.getPrecision().isSingle()) {
+                throw new IllegalStateException("Parallel training requires a double-precision dataset");
+            }
 
-                this.trainer.learn(xTrain[i], yTrain[i]); // Accumulate gradients for this sample
+            if (d instanceof MappedDataset) {
+                throw new IllegalArgumentException("Parallel training stages rows from several threads; a "
+                        + "MappedDataset can only be trained serially");
             }
 
+            return this.fitNextParallel(d, batchSize, begin);
+        }
+
+        int rows = d.trainSize();
+        Workspace ws = this.workspace(Math.min(batchSize, rows));
+        double sum = 0.0, max = 0.0;
+
+        for (int start = 0; start < rows; start += batchSize) { // Iterate over the mini-batches
+            checkInterrupted();
+            int end = Math.min(start + batchSize, rows);
+
+            // Stage the batch in the reused buffers, then run forward and backward over it at once
+            int n = d.stage(ws, start, end);
+            this.trainer.learnBatch(ws, n);
+
+            // The output activations are still in the workspace: score them before the update
+            sum += ws.scoreLoss(this.loss, n);
+            max = Math.max(max, ws.getMaxLoss());
+
             this.trainer.step(); // Update using averaged gradients
         }
+
+        return this.epochStats(sum, max, rows, begin);
     }
 
+    /*
+     * One epoch where each mini-batch is sharded across worker threads, each
+     * staging its rows from the dataset, and the reduced gradients are
+     * applied with a single step.
+     */
+    private EpochStats fitNextParallel(Dataset d, int batchSize, long begin) {
+        if (this.parallel == null) {
+            this.parallel = new ParallelBackpropagation(this, this.loss, this.parallelism, ForkJoinPool.commonPool());
+        }
+        int rows = d.trainSize();
+        double sum = 0.0, max = 0.0;
+
+        for (int start = 0; start < rows; start += batchSize) {
+            checkInterrupted();
+            int end = Math.min(start + batchSize, rows);
+
+            this.parallel.computeBatch(d, start, end, this.trainer);
+            sum += this.parallel.getLossSum();
+            max = Math.max(max, this.parallel.getMaxLoss());
+
+            this.trainer.step();
+        }
+
+        return this.epochStats(sum, max, rows, begin);
+    }
+
+    private EpochStats epochStats(double sum, double max, int rows, long begin) {
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        double mean = rows == 0 ? 0.0 : this.loss.result(sum, (long) rows * outputSize);
+        return new EpochStats(mean, max, rows, System.nanoTime() - begin);
+    }
+
+    /*
+     * Compute the loss over (x, y) using batched forward passes, accumulating
+     * it chunk by chunk (see LossFunction#accumulate).
+     */
     public double calculateLoss(double[][] x, double[][] y) {
-        double[][] yhat = Arrays.stream(x)
-                .map(this::predict)
-                .toArray(double[][]::new);
-        return this.loss.loss(flatten(yhat), flatten(y));
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(y, "y");
+        int inputSize = this.layers[0].getInputSize();
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        Preconditions.requireMatrix(x, x.length, inputSize, "x");
+        Preconditions.requireMatrix(y, x.length, outputSize, "y");
+
+        ChunkForward forward = new ChunkForward(Math.min(PREDICT_CHUNK, Math.max(x.length, 1)));
+        double[] yhat = new double[forward.capacity * outputSize];
+        double sum = 0.0;
+
+        for (int start = 0; start < x.length; start += forward.capacity) {
+            int rows = Math.min(forward.capacity, x.length - start);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(x[start + r], 0, forward.x, r * inputSize, inputSize);
+            }
+
+            forward.run(rows, yhat, 0);
+            for (int r = 0; r < rows; r++) {
+                sum = this.loss.accumulate(sum, yhat, r * outputSize, y[start + r], 0, outputSize);
+            }
+        }
+
+        return this.loss.result(sum, (long) x.length * outputSize);
+    }
+
+    /*
+     * Compute the loss over rows [from, to) of d in their original order;
+     * rows below trainSize() are the training rows, the rest the validation
+     * rows. Rows are copied from the dataset a chunk at a time, so no copy of
+     * the whole split is built.
+     */
+    public double calculateLoss(Dataset d, int from, int to) {
+        Objects.requireNonNull(d, "dataset");
+        this.checkDataset(d);
+
+        if (from < 0 || from > to || to > d.size()) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        ChunkForward forward = new ChunkForward(Math.min(PREDICT_CHUNK, Math.max(to - from, 1)));
+        double[] yhat = new double[forward.capacity * outputSize];
+        double[] target = new double[forward.capacity * outputSize];
+        double sum = 0.0;
+
+        for (int start = from; start < to; start += forward.capacity) {
+            int rows = Math.min(forward.capacity, to - start);
+            d.copyInputs(start, start + rows, forward.x, 0);
+            d.copyTargets(start, start + rows, target, 0);
+
+            forward.run(rows, yhat, 0);
+            sum = this.loss.accumulate(sum, yhat, 0, target, 0, rows * outputSize);
+        }
+
+        return this.loss.result(sum, (long) (to - from) * outputSize);
+    }
+
+    /* Single-threaded evaluate(Dataset, int). */
+    public Evaluation evaluate(Dataset d) {
+        return this.evaluate(d, 1);
+    }
+
+    /*
+     * Evaluate the network on every row of d in one batched pass: predictions
+     * for all rows in their original order, plus the loss over the training
+     * rows and over the validation rows, accumulated per chunk without
+     * gathering the predictions first. The chunks are split across up to
+     * threads tasks of the common ForkJoinPool; the per-chunk sums are added
+     * in order, so the result does not depend on the number of threads.
+     */
+    public Evaluation evaluate(Dataset d, int threads) {
+        Objects.requireNonNull(d, "dataset");
+        Preconditions.requirePositive(threads, "threads");
+        this.checkDataset(d);
+
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        int n = d.size();
+        int chunks = (n + PREDICT_CHUNK - 1) / PREDICT_CHUNK;
+        double[] predictions = new double[n * outputSize];
+        double[] sums = new double[2 * chunks]; // training and validation sum of every chunk
+
+        int tasks = Math.min(threads, chunks);
+        if (tasks <= 1) {
+            this.evaluateChunks(d, 0, chunks, predictions, sums);
+        } else {
+            ForkJoinTask<?>[] running = new ForkJoinTask<?>[tasks];
+            for (int t = 0; t < tasks; t++) {
+                int from = (int) ((long) chunks * t / tasks), to = (int) ((long) chunks * (t + 1) / tasks);
+                running[t] = ForkJoinPool.commonPool().submit(
+                        () -> this.evaluateChunks(d, from, to, predictions, sums));
+            }
+            for (ForkJoinTask<?> task : running) {
+                task.join();
+            }
+        }
+
+        double trainSum = 0.0, valSum = 0.0;
+        for (int c = 0; c < chunks; c++) {
+            trainSum += sums[2 * c];
+            valSum += sums[2 * c + 1];
+        }
+
+        int train = d.trainSize();
+        return new Evaluation(predictions,
+                this.loss.result(trainSum, (long) train * outputSize),
+                this.loss.result(valSum, (long) (n - train) * outputSize));
+    }
+
+    /* Require a loss function and rows that fit the network's input and output. */
+    private void checkDataset(Dataset d) {
+        if (this.loss == null) {
+            throw new IllegalStateException("LossFunction must be set before computing the loss of a dataset");
+        }
+
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        if (d.getInputSize() != this.layers[0].getInputSize() || d.getOutputSize() != outputSize) {
+            throw new IllegalArgumentException("Dataset rows have " + d.getInputSize() + " inputs and "
+                    + d.getOutputSize() + " outputs; network expects " + this.layers[0].getInputSize() + " and "
+                    + outputSize);
+        }
+    }
+
+    /* Forward chunks [from, to) of d, storing their predictions and loss sums. */
+    private void evaluateChunks(Dataset d, int from, int to, double[] predictions, double[] sums) {
+        int outputSize = this.layers[this.layers.length - 1].getOutputSize();
+        int n = d.size(), train = d.trainSize();
+        ChunkForward forward = new ChunkForward(PREDICT_CHUNK);
+        double[] target = new double[PREDICT_CHUNK * outputSize];
+
+        for (int c = from; c < to; c++) {
+            int start = c * PREDICT_CHUNK;
+            int rows = Math.min(PREDICT_CHUNK, n - start);
+            d.copyInputs(start, start + rows, forward.x, 0);
+            d.copyTargets(start, start + rows, target, 0);
+
+            int off = start * outputSize;
+            forward.run(rows, predictions, off);
+
+            // Rows below train are training rows; a chunk may hold both kinds
+            int split = Math.max(0, Math.min(rows, train - start)) * outputSize;
+            int length = rows * outputSize;
+            sums[2 * c] = this.loss.accumulate(0.0, predictions, off, target, 0, split);
+            sums[2 * c + 1] = this.loss.accumulate(0.0, predictions, off + split, target, split, length - split);
+        }
+    }
+
+    /*
+     * Create an execution context for batches of up to capacity samples; use
+     * one per thread to run this network concurrently.
+     */
+    public Workspace createWorkspace(int capacity) {
+        return new Workspace(this.layers, capacity);
     }
 
     /* Return the layers in forward order. */
@@ -171,6 +540,11 @@ public class NeuralNetwork {
         return this.layers;
     }
 
+    /* Return the precision of parameters, activations and gradients. */
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
     /* Return the number of layers. */
     public int getNumLayers() {
         return this.layers.length;
@@ -186,14 +560,119 @@ public class NeuralNetwork {
         return this.loss;
     }
 
-    /* Save network parameters to a file (not implemented). */
+    /*
+     * Save the topology, activations, precision and parameters to a binary
+     * file (see ModelFile); the trainer's optimizer state is not included.
+     */
     public void save(String filename) {
-        throw new UnsupportedOperationException("Not implemented");
+        this.save(filename, false);
     }
 
-    /* Load network parameters from a file (not implemented). */
+    /*
+     * Save the network, and with trainerState also the configured trainer's
+     * optimizer state (e.g. Adam moments) so that training can later resume
+     * exactly where it stopped.
+     */
+    public void save(String filename, boolean trainerState) {
+        Objects.requireNonNull(filename, "filename");
+
+        if (trainerState && this.trainer == null) {
+            throw new IllegalStateException("Trainer must be set up before saving its state");
+        }
+
+        ModelFile.write(this, trainerState ? this.trainer : null, Path.of(filename));
+    }
+
+    /*
+     * Load parameters saved by save() into this network, whose layers must
+     * have the same sizes and activations; values saved in another precision
+     * are converted. The trainer's optimizer state is restored when the file
+     * holds state of the same trainer type, and discarded otherwise.
+     */
     public void load(String filename) {
-        throw new UnsupportedOperationException("Not implemented");
+        Objects.requireNonNull(filename, "filename");
+
+        this.load(ModelFile.read(Path.of(filename)));
+    }
+
+    /*
+     * Encode the network and, when a trainer is set up, its optimizer state
+     * into memory in the format of save(); the buffer is ready to be read.
+     */
+    public ByteBuffer snapshot() {
+        return ModelFile.encode(this, this.trainer, -1, null, null);
+    }
+
+    /*
+     * Load a snapshot() of a network with the same layer sizes and activations.
+     * With trainerState the optimizer state is restored too, so training
+     * continues exactly; without it the state is reset, as when the
+     * parameters only serve as a starting point for another task.
+     */
+    public void restore(ByteBuffer snapshot, boolean trainerState) {
+        Objects.requireNonNull(snapshot, "snapshot");
+
+        ModelFile file = ModelFile.decode(snapshot);
+        if (trainerState) {
+            this.load(file);
+            return;
+        }
+
+        file.copyParameters(this.layers);
+        if (this.trainer != null) {
+            this.trainer.resetState();
+        }
+    }
+
+    /* Load parameters and, when it matches the trainer, optimizer state from a read file. */
+    void load(ModelFile file) {
+        boolean state = this.trainer != null && file.hasState(this.trainer, this);
+        file.copyParameters(this.layers);
+
+        if (state) {
+            file.restoreState(this.trainer);
+        } else if (this.trainer != null) {
+            this.trainer.resetState();
+        }
+    }
+
+    /*
+     * Create a network from a file written by save(), in the precision it was
+     * saved with; set up a trainer and loss before training or computing the
+     * loss.
+     */
+    public static NeuralNetwork fromFile(String filename) {
+        Objects.requireNonNull(filename, "filename");
+
+        ModelFile file = ModelFile.read(Path.of(filename));
+        NeuralNetwork nn = new NeuralNetwork(file.createLayers(), file.getPrecision());
+        file.copyParameters(nn.layers);
+        return nn;
+    }
+
+    /*
+     * Map a file written by save() read-only and create a network whose
+     * parameters stay in the mapping: the heap holds no copy for the garbage
+     * collector to scan, and every JVM mapping the same file shares one copy
+     * in the page cache. Forward passes still copy the weights through a
+     * per-thread heap tile on every call (see MatrixOps). The network can
+     * predict but not be trained.
+     */
+    public static NeuralNetwork map(String filename) {
+        Objects.requireNonNull(filename, "filename");
+
+        ModelFile file = ModelFile.map(Path.of(filename));
+        return new NeuralNetwork(file.createOffHeapLayers(), file.getPrecision());
+    }
+
+    /*
+     * Move every layer's parameters off the Java heap (see Layer#moveOffHeap);
+     * the network can still predict and be saved but no longer be trained.
+     */
+    public void moveOffHeap() {
+        for (Layer layer : this.layers) {
+            layer.moveOffHeap();
+        }
     }
 
     /*
@@ -208,10 +687,98 @@ public class NeuralNetwork {
         }
     }
 
+    /*
+     * Return the training workspace, allocating it only when none exists yet or
+     * the current one is too small for batches of the given size.
+     */
+    private Workspace workspace(int batchSize) {
+        int capacity = Math.max(batchSize, 1);
+        if (this.workspace == null || this.workspace.getCapacity() < capacity) {
+            this.workspace = new Workspace(this.layers, capacity);
+        }
+        return this.workspace;
+    }
+
+    /* Return the widest layer output (or network input) size. */
+    private int maxWidth() {
+        int width = this.layers[0].getInputSize();
+        for (Layer layer : this.layers) {
+            width = Math.max(width, layer.getOutputSize());
+        }
+        return width;
+    }
+
     /* Flatten a 2D array to 1D. */
     private double[] flatten(double[][] arr) {
         return Arrays.stream(arr)
                 .flatMapToDouble(o -> Arrays.stream(o))
                 .toArray();
     }
+
+    /*
+     * Buffers for batched forward passes over chunks of up to capacity rows:
+     * the caller fills x, run() ping-pongs the activations between two
+     * buffers so they stay in cache. Single-precision networks round each
+     * chunk to float on the way in.
+     */
+    private final class ChunkForward {
+        final int capacity;
+        final double[] x;
+        private final double[] bufA;
+        private final double[] bufB;
+        private final float[] x32;
+        private final float[] bufA32;
+        private final float[] bufB32;
+
+        ChunkForward(int capacity) {
+            int width = NeuralNetwork.this.maxWidth();
+            int inputSize = NeuralNetwork.this.layers[0].getInputSize();
+            boolean single = NeuralNetwork.this.precision.isSingle();
+
+            this.capacity = capacity;
+            this.x = new double[capacity * inputSize];
+            this.bufA = single ? null : new double[capacity * width];
+            this.bufB = single ? null : new double[capacity * width];
+            this.x32 = single ? new float[capacity * inputSize] : null;
+            this.bufA32 = single ? new float[capacity * width] : null;
+            this.bufB32 = single ? new float[capacity * width] : null;
+        }
+
+        /* Forward the first rows of x and write the outputs to y[yOff, ...). */
+        void run(int rows, double[] y, int yOff) {
+            Layer[] layers = NeuralNetwork.this.layers;
+            int inputSize = layers[0].getInputSize();
+            int outputSize = layers[layers.length - 1].getOutputSize();
+
+            if (this.x32 != null) {
+                MatrixOps.narrow(this.x, 0, this.x32, 0, rows * inputSize);
+
+                float[] in = this.x32, out = this.bufA32;
+                for (Layer layer : layers) {
+                    layer.forwardBatch(in, out, rows);
+                    in = out;
+                    out = (out == this.bufA32) ? this.bufB32 : this.bufA32;
+                }
+
+                MatrixOps.widen(in, 0, y, yOff, rows * outputSize);
+                return;
+            }
+
+            double[] in = this.x, out = this.bufA;
+            for (Layer layer : layers) {
+                layer.forwardBatch(in, out, rows);
+                in = out;
+                out = (out == this.bufA) ? this.bufB : this.bufA;
+            }
+
+            System.arraycopy(in, 0, y, yOff, rows * outputSize);
+        }
+    }
+
+    /* Stop training at a batch boundary once the calling thread is interrupted. */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Training interrupted");
+        }
+    }
 }
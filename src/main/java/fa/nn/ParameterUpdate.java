@@ -0,0 +1,33 @@
+package fa.nn;
+
+/*
+ * In-place update of a layer's parameters, driven by Layer#updateParameters.
+ * The layer hands over its live storage one contiguous weight row at a time,
+ * then the bias vector, so an optimizer can read its gradients and state and
+ * write the new values in a single pass without intermediate matrices.
+ *
+ * index is the row-major position (outputSize x inputSize) of the first
+ * element of the run, i.e. where it lives in gradient and optimizer state
+ * buffers. Only the methods matching the layer's precision are called.
+ */
+public interface ParameterUpdate {
+    /* Update weights[offset, offset + n), elements [index, index + n) of the row-major weights. */
+    default void weights(double[] weights, int offset, int index, int n) {
+        throw new UnsupportedOperationException("FP64 parameters are not supported");
+    }
+
+    /* Update biases[0, n). */
+    default void biases(double[] biases, int n) {
+        throw new UnsupportedOperationException("FP64 parameters are not supported");
+    }
+
+    /* float variant of weights(double[], int, int, int). */
+    default void weights(float[] weights, int offset, int index, int n) {
+        throw new UnsupportedOperationException("Single-precision parameters are not supported");
+    }
+
+    /* float variant of biases(double[], int). */
+    default void biases(float[] biases, int n) {
+        throw new UnsupportedOperationException("Single-precision parameters are not supported");
+    }
+}
@@ -0,0 +1,30 @@
+package fa.nn;
+
+/*
+ * Numeric precision of a network's parameters, activations and gradients.
+ */
+public enum Precision {
+    /* Everything in double. */
+    FP64(false),
+
+    /* Parameters, activations, gradients and optimizer state in float. */
+    FP32(true),
+
+    /*
+     * Float parameters, activations and gradients for forward and backward;
+     * the optimizer keeps double master weights and rounds them into the
+     * layers after every step.
+     */
+    MIXED(true);
+
+    private final boolean single;
+
+    Precision(boolean single) {
+        this.single = single;
+    }
+
+    /* Return true if layers and workspaces store float rather than double. */
+    public boolean isSingle() {
+        return this.single;
+    }
+}
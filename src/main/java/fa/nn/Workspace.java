@@ -0,0 +1,359 @@
+package fa.nn;
+
+import java.util.Objects;
+
+import fa.nn.loss.LossFunction;
+import fa.nn.util.MatrixOps;
+import fa.nn.util.Preconditions;
+
+/**
+ * Execution context holding all per-call state of a network: staged inputs
+ * and targets plus every layer's z, a, da/dz and delta. Sized once from the network
+ * topology and a maximum batch size and reused across calls, so layers keep
+ * only their parameters. Not thread-safe; use one context per thread. All
+ * matrices are row-major with one row per sample. Buffers follow the layers'
+ * precision: double for FP64 networks, float (the *32 getters) otherwise.
+ * An inference context (forInference) holds only inputs, z and a; its
+ * target, derivative and delta getters return null.
+ */
+public class Workspace {
+    private final int capacity;
+    private final int inputSize;
+    private final int outputSize;
+    private final Precision precision;
+    private final double[] input;
+    private final double[] target;
+    private final double[][] z;
+    private final double[][] a;
+    private final double[][] dadz;
+    private final double[][] delta;
+    private final float[] input32;
+    private final float[] target32;
+    private final float[][] z32;
+    private final float[][] a32;
+    private final float[][] dadz32;
+    private final float[][] delta32;
+    private final double[] row; // one sample's outputs and targets, widened for loss statistics
+    private double maxLoss; // of the last scoreLoss()
+
+    /* Allocate buffers for batches of up to capacity samples through layers. */
+    public Workspace(Layer[] layers, int capacity) {
+        this(layers, capacity, true);
+    }
+
+    /* Allocate only the buffers a forward pass needs: inputs, z and a. */
+    public static Workspace forInference(Layer[] layers, int capacity) {
+        return new Workspace(layers, capacity, false);
+    }
+
+    private Workspace(Layer[] layers, int capacity, boolean training) {
+        Objects.requireNonNull(layers, "layers");
+        Preconditions.requirePositive(capacity, "capacity");
+
+        if (layers.length == 0) {
+            throw new IllegalArgumentException("At least one layer is required.");
+        }
+
+        this.capacity = capacity;
+        this.inputSize = layers[0].getInputSize();
+        this.outputSize = layers[layers.length - 1].getOutputSize();
+        this.precision = layers[0].getPrecision();
+
+        if (this.precision.isSingle()) {
+            this.input = this.target = null;
+            this.z = this.a = this.dadz = this.delta = null;
+
+            this.input32 = new float[capacity * this.inputSize];
+            this.target32 = training ? new float[capacity * this.outputSize] : null;
+            this.z32 = new float[layers.length][];
+            this.a32 = new float[layers.length][];
+            this.dadz32 = training ? new float[layers.length][] : null;
+            this.delta32 = training ? new float[layers.length][] : null;
+
+            for (int l = 0; l < layers.length; l++) {
+                int out = layers[l].getOutputSize();
+                this.z32[l] = new float[capacity * out];
+                this.a32[l] = new float[capacity * out];
+                if (training) {
+                    this.dadz32[l] = new float[capacity * out];
+                    this.delta32[l] = new float[capacity * out];
+                }
+            }
+            this.row = new double[2 * this.outputSize];
+            return;
+        }
+
+        this.input32 = this.target32 = null;
+        this.z32 = this.a32 = this.dadz32 = this.delta32 = null;
+
+        this.input = new double[capacity * this.inputSize];
+        this.target = training ? new double[capacity * this.outputSize] : null;
+
+        this.z = new double[layers.length][];
+        this.a = new double[layers.length][];
+        this.dadz = training ? new double[layers.length][] : null;
+        this.delta = training ? new double[layers.length][] : null;
+
+        for (int l = 0; l < layers.length; l++) {
+            int out = layers[l].getOutputSize();
+            this.z[l] = new double[capacity * out];
+            this.a[l] = new double[capacity * out];
+            if (training) {
+                this.dadz[l] = new double[capacity * out];
+                this.delta[l] = new double[capacity * out];
+            }
+        }
+        this.row = new double[2 * this.outputSize];
+    }
+
+    /*
+     * Copy rows [from, to) of x and y into the input and target buffers and
+     * return the number of staged samples.
+     */
+    public int stage(double[][] x, double[][] y, int from, int to) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(y, "y");
+
+        int n = to - from;
+        if (from < 0 || n < 0 || to > x.length || to > y.length) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        if (n > this.capacity) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + this.capacity);
+        }
+
+        for (int r = 0; r < n; r++) {
+            Preconditions.requireVector(x[from + r], this.inputSize, "x");
+            Preconditions.requireVector(y[from + r], this.outputSize, "y");
+
+            if (this.precision.isSingle()) {
+                MatrixOps.narrow(x[from + r], 0, this.input32, r * this.inputSize, this.inputSize);
+                MatrixOps.narrow(y[from + r], 0, this.target32, r * this.outputSize, this.outputSize);
+            } else {
+                System.arraycopy(x[from + r], 0, this.input, r * this.inputSize, this.inputSize);
+                System.arraycopy(y[from + r], 0, this.target, r * this.outputSize, this.outputSize);
+            }
+        }
+
+        return n;
+    }
+
+    /* Like stage(double[][], double[][], int, int), for float rows. */
+    public int stage(float[][] x, float[][] y, int from, int to) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(y, "y");
+
+        int n = to - from;
+        if (from < 0 || n < 0 || to > x.length || to > y.length) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        if (n > this.capacity) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + this.capacity);
+        }
+
+        for (int r = 0; r < n; r++) {
+            Preconditions.requireVector(x[from + r], this.inputSize, "x");
+            Preconditions.requireVector(y[from + r], this.outputSize, "y");
+
+            if (this.precision.isSingle()) {
+                System.arraycopy(x[from + r], 0, this.input32, r * this.inputSize, this.inputSize);
+                System.arraycopy(y[from + r], 0, this.target32, r * this.outputSize, this.outputSize);
+            } else {
+                MatrixOps.widen(x[from + r], 0, this.input, r * this.inputSize, this.inputSize);
+                MatrixOps.widen(y[from + r], 0, this.target, r * this.outputSize, this.outputSize);
+            }
+        }
+
+        return n;
+    }
+
+    /*
+     * Gather the flat row-major rows rows[from, to) of x and y into the input
+     * and target buffers and return the number of staged samples.
+     */
+    public int stage(double[] x, double[] y, int[] rows, int from, int to) {
+        int n = this.checkGather(x.length, y.length, rows, from, to);
+
+        for (int r = 0; r < n; r++) {
+            int i = rows[from + r];
+
+            if (this.precision.isSingle()) {
+                MatrixOps.narrow(x, i * this.inputSize, this.input32, r * this.inputSize, this.inputSize);
+                MatrixOps.narrow(y, i * this.outputSize, this.target32, r * this.outputSize, this.outputSize);
+            } else {
+                System.arraycopy(x, i * this.inputSize, this.input, r * this.inputSize, this.inputSize);
+                System.arraycopy(y, i * this.outputSize, this.target, r * this.outputSize, this.outputSize);
+            }
+        }
+
+        return n;
+    }
+
+    /* Like stage(double[], double[], int[], int, int), for float rows. */
+    public int stage(float[] x, float[] y, int[] rows, int from, int to) {
+        int n = this.checkGather(x.length, y.length, rows, from, to);
+
+        for (int r = 0; r < n; r++) {
+            int i = rows[from + r];
+
+            if (this.precision.isSingle()) {
+                System.arraycopy(x, i * this.inputSize, this.input32, r * this.inputSize, this.inputSize);
+                System.arraycopy(y, i * this.outputSize, this.target32, r * this.outputSize, this.outputSize);
+            } else {
+                MatrixOps.widen(x, i * this.inputSize, this.input, r * this.inputSize, this.inputSize);
+                MatrixOps.widen(y, i * this.outputSize, this.target, r * this.outputSize, this.outputSize);
+            }
+        }
+
+        return n;
+    }
+
+    /* Validate a gather of rows[from, to) and return its size. */
+    private int checkGather(int xLength, int yLength, int[] rows, int from, int to) {
+        Objects.requireNonNull(rows, "rows");
+
+        int n = to - from;
+        if (from < 0 || n < 0 || to > rows.length) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        if (n > this.capacity) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + this.capacity);
+        }
+
+        if (xLength % this.inputSize != 0 || yLength % this.outputSize != 0
+                || xLength / this.inputSize != yLength / this.outputSize) {
+            throw new IllegalArgumentException("x and y must hold whole rows of " + this.inputSize + " inputs and "
+                    + this.outputSize + " targets");
+        }
+
+        int count = xLength / this.inputSize;
+        for (int r = from; r < to; r++) {
+            if (rows[r] < 0 || rows[r] >= count) {
+                throw new IndexOutOfBoundsException("row " + rows[r] + " out of range");
+            }
+        }
+
+        return n;
+    }
+
+    /*
+     * Return the loss terms of the first n samples summed (see
+     * LossFunction#accumulate), comparing the last layer's activations left
+     * by the latest forward pass with the staged targets. The same pass
+     * records the largest loss of a single sample, read by getMaxLoss().
+     */
+    public double scoreLoss(LossFunction loss, int n) {
+        double sum = 0.0, max = 0.0;
+        for (int r = 0; r < n; r++) {
+            double row = this.accumulateRow(loss, 0.0, r);
+            sum += row;
+            max = Math.max(max, loss.result(row, this.outputSize));
+        }
+        this.maxLoss = max;
+        return sum;
+    }
+
+    /* Return the largest single-sample loss seen by the last scoreLoss(). */
+    public double getMaxLoss() {
+        return this.maxLoss;
+    }
+
+    private double accumulateRow(LossFunction loss, double sum, int r) {
+        int off = r * this.outputSize;
+
+        if (this.precision.isSingle()) {
+            float[] out = this.a32[this.a32.length - 1];
+            MatrixOps.widen(out, off, this.row, 0, this.outputSize);
+            MatrixOps.widen(this.target32, off, this.row, this.outputSize, this.outputSize);
+            return loss.accumulate(sum, this.row, 0, this.row, this.outputSize, this.outputSize);
+        }
+
+        return loss.accumulate(sum, this.a[this.a.length - 1], off, this.target, off, this.outputSize);
+    }
+
+    /* Return the precision of the buffers. */
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
+    /* Return the number of inputs per sample. */
+    public int getInputSize() {
+        return this.inputSize;
+    }
+
+    /* Return the number of targets per sample. */
+    public int getOutputSize() {
+        return this.outputSize;
+    }
+
+    /* Return the maximum number of samples per batch. */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /* Return the staged inputs (capacity x inputSize). */
+    public double[] getInput() {
+        return this.input;
+    }
+
+    /* Return the staged targets (capacity x outputSize). */
+    public double[] getTarget() {
+        return this.target;
+    }
+
+    /* Return layer l's pre-activations (capacity x outputSize). */
+    public double[] getZ(int l) {
+        return this.z[l];
+    }
+
+    /* Return layer l's activations (capacity x outputSize). */
+    public double[] getA(int l) {
+        return this.a[l];
+    }
+
+    /*
+     * Return layer l's activation derivatives da/dz (capacity x outputSize),
+     * recorded by the training forward pass.
+     */
+    public double[] getDerivative(int l) {
+        return this.dadz == null ? null : this.dadz[l];
+    }
+
+    /* Return layer l's deltas (capacity x outputSize). */
+    public double[] getDelta(int l) {
+        return this.delta == null ? null : this.delta[l];
+    }
+
+    /* Return the staged float inputs of a single-precision workspace. */
+    public float[] getInput32() {
+        return this.input32;
+    }
+
+    /* Return the staged float targets of a single-precision workspace. */
+    public float[] getTarget32() {
+        return this.target32;
+    }
+
+    /* Return layer l's float pre-activations. */
+    public float[] getZ32(int l) {
+        return this.z32[l];
+    }
+
+    /* Return layer l's float activations. */
+    public float[] getA32(int l) {
+        return this.a32[l];
+    }
+
+    /* Return layer l's float activation derivatives. */
+    public float[] getDerivative32(int l) {
+        return this.dadz32 == null ? null : this.dadz32[l];
+    }
+
+    /* Return layer l's float deltas. */
+    public float[] getDelta32(int l) {
+        return this.delta32 == null ? null : this.delta32[l];
+    }
+}
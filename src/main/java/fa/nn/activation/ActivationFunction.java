@@ -1,7 +1,46 @@
 package fa.nn.activation;
 
+/*
+ * Element-wise activation. The bulk methods run over the first n elements of
+ * flat arrays and let implementations avoid a virtual call per neuron; z and a
+ * may be the same array. The variants taking dadz also record f'(z) while the
+ * activation is computed, so backward passes read the cached derivative
+ * instead of evaluating f' again.
+ */
 public interface ActivationFunction {
     double activate(double z);
 
     double derivative(double z);
+
+    /* a[k] = f(z[k]) for k in [0, n). */
+    default void activate(double[] z, double[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = activate(z[k]);
+        }
+    }
+
+    /* a[k] = f(z[k]) and dadz[k] = f'(z[k]) for k in [0, n). */
+    default void activate(double[] z, double[] a, double[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            double zk = z[k];
+            a[k] = activate(zk);
+            dadz[k] = derivative(zk);
+        }
+    }
+
+    /* float variant of activate(double[], double[], int). */
+    default void activate(float[] z, float[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = (float) activate(z[k]);
+        }
+    }
+
+    /* float variant of activate(double[], double[], double[], int). */
+    default void activate(float[] z, float[] a, float[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            float zk = z[k];
+            a[k] = (float) activate(zk);
+            dadz[k] = (float) derivative(zk);
+        }
+    }
 }
@@ -10,4 +10,40 @@ public class LeakyReLU implements ActivationFunction {
     public double derivative(double z) {
         return z > 0 ? 1 : alpha;
     }
+
+    @Override
+    public void activate(double[] z, double[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            double zk = z[k];
+            a[k] = zk > 0 ? zk : alpha * zk;
+        }
+    }
+
+    @Override
+    public void activate(double[] z, double[] a, double[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            double zk = z[k];
+            a[k] = zk > 0 ? zk : alpha * zk;
+            dadz[k] = zk > 0 ? 1 : alpha;
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, int n) {
+        float alpha = (float) this.alpha;
+        for (int k = 0; k < n; k++) {
+            float zk = z[k];
+            a[k] = zk > 0 ? zk : alpha * zk;
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, float[] dadz, int n) {
+        float alpha = (float) this.alpha;
+        for (int k = 0; k < n; k++) {
+            float zk = z[k];
+            a[k] = zk > 0 ? zk : alpha * zk;
+            dadz[k] = zk > 0 ? 1f : alpha;
+        }
+    }
 }
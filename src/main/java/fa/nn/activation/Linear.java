@@ -1,5 +1,7 @@
 package fa.nn.activation;
 
+import java.util.Arrays;
+
 public class Linear implements ActivationFunction {
     @Override
     public double activate(double z) {
@@ -10,4 +12,30 @@ public class Linear implements ActivationFunction {
     public double derivative(double z) {
         return 1;
     }
+
+    @Override
+    public void activate(double[] z, double[] a, int n) {
+        if (z != a) {
+            System.arraycopy(z, 0, a, 0, n);
+        }
+    }
+
+    @Override
+    public void activate(double[] z, double[] a, double[] dadz, int n) {
+        this.activate(z, a, n);
+        Arrays.fill(dadz, 0, n, 1.0);
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, int n) {
+        if (z != a) {
+            System.arraycopy(z, 0, a, 0, n);
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, float[] dadz, int n) {
+        this.activate(z, a, n);
+        Arrays.fill(dadz, 0, n, 1f);
+    }
 }
@@ -10,4 +10,36 @@ public class ReLU implements ActivationFunction {
     public double derivative(double z) {
         return z > 0 ? 1 : 0;
     }
+
+    @Override
+    public void activate(double[] z, double[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = Math.max(0, z[k]);
+        }
+    }
+
+    @Override
+    public void activate(double[] z, double[] a, double[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            double zk = z[k];
+            a[k] = zk > 0 ? zk : 0;
+            dadz[k] = zk > 0 ? 1 : 0;
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = Math.max(0f, z[k]);
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, float[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            float zk = z[k];
+            a[k] = zk > 0 ? zk : 0f;
+            dadz[k] = zk > 0 ? 1f : 0f;
+        }
+    }
 }
@@ -11,4 +11,37 @@ public class Sigmoid implements ActivationFunction {
         double a = activate(z);
         return a * (1.0 - a);
     }
+
+    @Override
+    public void activate(double[] z, double[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = 1.0 / (1.0 + Math.exp(-z[k]));
+        }
+    }
+
+    /* σ'(z) = σ(z)(1 − σ(z)), so the derivative costs no second exp. */
+    @Override
+    public void activate(double[] z, double[] a, double[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            double ak = 1.0 / (1.0 + Math.exp(-z[k]));
+            a[k] = ak;
+            dadz[k] = ak * (1.0 - ak);
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, int n) {
+        for (int k = 0; k < n; k++) {
+            a[k] = (float) (1.0 / (1.0 + Math.exp(-z[k])));
+        }
+    }
+
+    @Override
+    public void activate(float[] z, float[] a, float[] dadz, int n) {
+        for (int k = 0; k < n; k++) {
+            float ak = (float) (1.0 / (1.0 + Math.exp(-z[k])));
+            a[k] = ak;
+            dadz[k] = ak * (1f - ak);
+        }
+    }
 }
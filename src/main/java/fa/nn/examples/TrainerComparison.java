@@ -0,0 +1,76 @@
+package fa.nn.examples;
+
+import java.util.Random;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+import fa.nn.learn.Adam;
+import fa.nn.learn.Dataset;
+import fa.nn.learn.Hogwild;
+import fa.nn.learn.SGD;
+import fa.nn.learn.Trainable;
+import fa.nn.loss.MSE;
+
+/*
+ * Compares throughput and convergence of SGD, Adam and asynchronous Hogwild
+ * SGD on f(x) = x^2 for x in [-1, 1].
+ */
+public class TrainerComparison {
+    private static final int n = 10000;
+    private static final int epochs = 50;
+    private static final int batchSize = 32;
+    private static final double learningRate = 0.05;
+
+    public static void main(String[] args) {
+        Random rand = new Random(42);
+        double[][] x = new double[n][1];
+        double[][] y = new double[n][1];
+
+        for (int i = 0; i < n; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+
+        NeuralNetwork sgd = initialize();
+        sgd.setup(new SGD(sgd, learningRate), new MSE());
+        report("SGD", sgd, new Dataset(x, y, 0.2, new Random(1)));
+
+        NeuralNetwork adam = initialize();
+        adam.setup(new Adam(adam), new MSE());
+        report("Adam", adam, new Dataset(x, y, 0.2, new Random(1)));
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        NeuralNetwork hogwild = initialize();
+        Hogwild trainer = new Hogwild(hogwild, learningRate, threads);
+        hogwild.setup(trainer, new MSE());
+        Hogwild.Report report = trainer.train(new Dataset(x, y, 0.2, new Random(1)), epochs, batchSize);
+        System.out.println("Hogwild - " + report);
+    }
+
+    private static void report(String name, NeuralNetwork nn, Dataset d) {
+        long start = System.nanoTime();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            nn.fitNext(d, batchSize);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Trainable trainer = nn.getTrainer();
+        double loss = nn.calculateLoss(d, 0, d.trainSize());
+        System.out.println(name + " (" + trainer.getClass().getSimpleName() + ") - threads: 1 - samples/s: "
+                + Math.round(epochs * d.trainSize() / seconds) + " - loss: " + loss);
+    }
+
+    private static NeuralNetwork initialize() {
+        Random rand = new Random(7);
+        Layer[] layers = new Layer[] {
+                new Layer(1, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 1, new Linear(), new XavierInitializer(rand))
+        };
+
+        return new NeuralNetwork(layers);
+    }
+}
@@ -43,15 +43,7 @@ public class XSquared {
     }
 
     public static double[] predict(NeuralNetwork nn, double[] values) {
-        double[] predicted = new double[values.length];
-
-        for (int i = 0; i < values.length; i++) {
-            double x = values[i];
-            double y = nn.predict(new double[] { x })[0];
-            predicted[i] = y;
-        }
-
-        return predicted;
+        return nn.predictBatch(values, values.length);
     }
 
     public static NeuralNetwork initialize() {
@@ -63,6 +55,7 @@ public class XSquared {
 
         NeuralNetwork nn = new NeuralNetwork(layers);
         nn.setup(new Adam(nn), new MSE());
+        nn.setParallelism(Runtime.getRuntime().availableProcessors());
 
         return nn;
     }
@@ -16,17 +16,17 @@ public class HeInitializer implements Initializer {
         int outputSize = layer.getOutputSize();
         int inputSize = layer.getInputSize();
 
-        double[][] weights = new double[outputSize][inputSize];
+        double[] weights = new double[outputSize * inputSize]; // row-major
         double[] biases = new double[outputSize];
 
         for (int j = 0; j < outputSize; j++) {
             for (int i = 0; i < inputSize; i++) {
-                weights[j][i] = this.rand.nextGaussian() * Math.sqrt(2.0 / inputSize);
+                weights[j * inputSize + i] = this.rand.nextGaussian() * Math.sqrt(2.0 / inputSize);
             }
 
             biases[j] = 0.0;
         }
 
-        layer.set(weights, biases);
+        layer.setRowMajor(weights, biases);
     }
 }
@@ -16,18 +16,18 @@ public class XavierInitializer implements Initializer {
         int outputSize = layer.getOutputSize();
         int inputSize = layer.getInputSize();
 
-        double[][] weights = new double[outputSize][inputSize];
+        double[] weights = new double[outputSize * inputSize]; // row-major
         double[] biases = new double[outputSize];
 
         double std = Math.sqrt(2.0 / (inputSize + outputSize));
 
         for (int j = 0; j < outputSize; j++) {
             for (int i = 0; i < inputSize; i++) {
-                weights[j][i] = rand.nextGaussian() * std;
+                weights[j * inputSize + i] = rand.nextGaussian() * std;
             }
             biases[j] = 0.0;
         }
 
-        layer.set(weights, biases);
+        layer.setRowMajor(weights, biases);
     }
 }
@@ -1,8 +1,16 @@
 package fa.nn.learn;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.ParameterUpdate;
+import fa.nn.Precision;
+import fa.nn.Workspace;
 import fa.nn.loss.LossFunction;
+import fa.nn.util.BufferOps;
+import fa.nn.util.MatrixOps;
 
 public class Adam implements Trainable {
 
@@ -11,19 +19,41 @@ public class Adam implements Trainable {
     private final double beta1;
     private final double beta2;
     private final double epsilon;
+    private final Precision precision;
 
     private Backpropagation backprop;
 
-    private double[][][] gW;
+    // Weight buffers are per layer, row-major (out x in) like Layer#getWeightData()
+    private double[][] gW;
     private double[][] gB;
     private int count;
 
-    private double[][][] mW;
-    private double[][][] vW;
+    private double[][] mW;
+    private double[][] vW;
     private double[][] mB;
     private double[][] vB;
 
-    private int t;
+    // Single precision: float gradients; FP32 also keeps float moments,
+    // MIXED keeps the double moments above plus double master weights
+    private float[][] gW32;
+    private float[][] gB32;
+    private float[][] mW32;
+    private float[][] vW32;
+    private float[][] mB32;
+    private float[][] vB32;
+    private double[][] masterW;
+    private double[][] masterB;
+    private Workspace single;
+    private LayerUpdate[] updates;
+
+    // Running products beta^t replace Math.pow in the bias corrections
+    private double beta1Power;
+    private double beta2Power;
+
+    // Per-step values read by the layer updates
+    private double scale;
+    private double biasCorr1;
+    private double biasCorr2;
 
     public Adam(NeuralNetwork neuralNetwork) {
         this(neuralNetwork, 1e-3, 0.9, 0.999, 1e-7);
@@ -35,9 +65,11 @@ public class Adam implements Trainable {
         this.beta1 = beta1;
         this.beta2 = beta2;
         this.epsilon = epsilon;
+        this.precision = neuralNetwork.getPrecision();
 
         allocateBuffers();
-        this.t = 0;
+        this.beta1Power = 1.0;
+        this.beta2Power = 1.0;
     }
 
     @Override
@@ -47,98 +79,313 @@ public class Adam implements Trainable {
 
     @Override
     public void learn(double[] input, double[] expectedOutput) {
+        if (precision.isSingle()) {
+            if (single == null) {
+                single = neuralNetwork.createWorkspace(1);
+            }
+
+            MatrixOps.narrow(input, 0, single.getInput32(), 0, input.length);
+            MatrixOps.narrow(expectedOutput, 0, single.getTarget32(), 0, expectedOutput.length);
+            learnBatch(single, 1);
+            return;
+        }
+
         backprop.compute(input, expectedOutput, gW, gB);
         count++;
     }
 
+    @Override
+    public void learnBatch(double[][] x, double[][] y) {
+        if (precision.isSingle()) {
+            if (x.length == 0) {
+                return;
+            }
+
+            Workspace ws = neuralNetwork.createWorkspace(x.length);
+            learnBatch(ws, ws.stage(x, y, 0, x.length));
+            return;
+        }
+
+        backprop.computeBatch(x, y, gW, gB);
+        count += x.length;
+    }
+
+    @Override
+    public void learnBatch(Workspace workspace, int n) {
+        if (precision.isSingle()) {
+            backprop.computeBatch(workspace, n, gW32, gB32);
+        } else {
+            backprop.computeBatch(workspace, n, gW, gB);
+        }
+        count += n;
+    }
+
+    @Override
+    public void accumulate(double[][] gradientWeights, double[][] gradientBiases, int n) {
+        for (int l = 0; l < gradientWeights.length; l++) {
+            if (precision.isSingle()) {
+                add(gW32[l], gradientWeights[l]);
+                add(gB32[l], gradientBiases[l]);
+            } else {
+                add(gW[l], gradientWeights[l]);
+                add(gB[l], gradientBiases[l]);
+            }
+        }
+        count += n;
+    }
+
     @Override
     public void step() {
         if (count == 0) {
             return;
         }
 
-        t++;
+        beta1Power *= beta1;
+        beta2Power *= beta2;
+        biasCorr1 = 1.0 - beta1Power;
+        biasCorr2 = 1.0 - beta2Power;
+        scale = 1.0 / count;
 
         Layer[] layers = neuralNetwork.getLayers();
-        double biasCorr1 = 1.0 - Math.pow(beta1, t);
-        double biasCorr2 = 1.0 - Math.pow(beta2, t);
-
         for (int l = 0; l < layers.length; l++) {
-            int out = layers[l].getOutputSize();
-            int in = layers[l].getInputSize();
+            layers[l].updateParameters(updates[l]);
+        }
 
-            double[][] stepW = new double[out][in];
-            double[] stepB = new double[out];
+        reset();
+    }
 
-            for (int j = 0; j < out; j++) {
-                for (int i = 0; i < in; i++) {
-                    double g = gW[l][j][i] / count;
-                    mW[l][j][i] = beta1 * mW[l][j][i] + (1.0 - beta1) * g;
-                    vW[l][j][i] = beta2 * vW[l][j][i] + (1.0 - beta2) * (g * g);
+    @Override
+    public void reset() {
+        if (precision.isSingle()) {
+            for (int l = 0; l < gW32.length; l++) {
+                Arrays.fill(gW32[l], 0f);
+                Arrays.fill(gB32[l], 0f);
+            }
+        } else {
+            for (int l = 0; l < gW.length; l++) {
+                Arrays.fill(gW[l], 0.0);
+                Arrays.fill(gB[l], 0.0);
+            }
+        }
 
-                    double mHat = mW[l][j][i] / biasCorr1;
-                    double vHat = vW[l][j][i] / biasCorr2;
+        count = 0;
+    }
 
-                    stepW[j][i] = learningRate * mHat / (Math.sqrt(vHat) + epsilon);
-                }
+    /*
+     * State layout: beta1^t and beta2^t, then the moments of every layer
+     * (mW, vW, mB, vB; float in FP32, double otherwise), then in MIXED the
+     * master weights and biases.
+     */
+    @Override
+    public int stateSize() {
+        int moments = precision == Precision.FP32
+                ? (BufferOps.length(mW32) + BufferOps.length(vW32) + BufferOps.length(mB32)
+                        + BufferOps.length(vB32)) * Float.BYTES
+                : (BufferOps.length(mW) + BufferOps.length(vW) + BufferOps.length(mB)
+                        + BufferOps.length(vB)) * Double.BYTES;
+        int masters = precision == Precision.MIXED
+                ? (BufferOps.length(masterW) + BufferOps.length(masterB)) * Double.BYTES
+                : 0;
+        return 2 * Double.BYTES + moments + masters;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        out.putDouble(beta1Power);
+        out.putDouble(beta2Power);
+
+        Layer[] layers = neuralNetwork.getLayers();
+        for (int l = 0; l < layers.length; l++) {
+            if (precision == Precision.FP32) {
+                BufferOps.putAll(out, new float[][] { mW32[l], vW32[l], mB32[l], vB32[l] });
+            } else {
+                BufferOps.putAll(out, new double[][] { mW[l], vW[l], mB[l], vB[l] });
             }
+        }
 
-            for (int j = 0; j < out; j++) {
-                double g = gB[l][j] / count;
-                mB[l][j] = beta1 * mB[l][j] + (1.0 - beta1) * g;
-                vB[l][j] = beta2 * vB[l][j] + (1.0 - beta2) * (g * g);
+        if (precision == Precision.MIXED) {
+            BufferOps.putAll(out, masterW);
+            BufferOps.putAll(out, masterB);
+        }
+    }
 
-                double mHat = mB[l][j] / biasCorr1;
-                double vHat = vB[l][j] / biasCorr2;
+    @Override
+    public void loadState(ByteBuffer in) {
+        beta1Power = in.getDouble();
+        beta2Power = in.getDouble();
 
-                stepB[j] = learningRate * mHat / (Math.sqrt(vHat) + epsilon);
+        Layer[] layers = neuralNetwork.getLayers();
+        for (int l = 0; l < layers.length; l++) {
+            if (precision == Precision.FP32) {
+                BufferOps.getAll(in, new float[][] { mW32[l], vW32[l], mB32[l], vB32[l] });
+            } else {
+                BufferOps.getAll(in, new double[][] { mW[l], vW[l], mB[l], vB[l] });
             }
-
-            layers[l].update(1.0, stepW, stepB);
         }
 
-        reset();
+        if (precision == Precision.MIXED) {
+            BufferOps.getAll(in, masterW);
+            BufferOps.getAll(in, masterB);
+        }
     }
 
+    /* Zero the moments, restart the bias corrections and re-copy the master weights. */
     @Override
-    public void reset() {
-        if (gW == null || gB == null) {
-            return;
-        }
+    public void resetState() {
+        beta1Power = 1.0;
+        beta2Power = 1.0;
 
-        for (int l = 0; l < gW.length; l++) {
-            for (int j = 0; j < gW[l].length; j++) {
-                java.util.Arrays.fill(gW[l][j], 0.0);
+        Layer[] layers = neuralNetwork.getLayers();
+        for (int l = 0; l < layers.length; l++) {
+            if (precision == Precision.FP32) {
+                Arrays.fill(mW32[l], 0f);
+                Arrays.fill(vW32[l], 0f);
+                Arrays.fill(mB32[l], 0f);
+                Arrays.fill(vB32[l], 0f);
+            } else {
+                Arrays.fill(mW[l], 0.0);
+                Arrays.fill(vW[l], 0.0);
+                Arrays.fill(mB[l], 0.0);
+                Arrays.fill(vB[l], 0.0);
             }
 
-            java.util.Arrays.fill(gB[l], 0.0);
+            if (precision == Precision.MIXED) {
+                masterW[l] = SGD.masterWeights(layers[l]);
+                masterB[l] = SGD.masterBiases(layers[l]);
+            }
         }
 
-        count = 0;
+        reset();
     }
 
     private void allocateBuffers() {
         Layer[] layers = neuralNetwork.getLayers();
         int L = layers.length;
 
-        gW = new double[L][][];
-        gB = new double[L][];
-        mW = new double[L][][];
-        vW = new double[L][][];
-        mB = new double[L][];
-        vB = new double[L][];
+        if (precision.isSingle()) {
+            gW32 = new float[L][];
+            gB32 = new float[L][];
+        } else {
+            gW = new double[L][];
+            gB = new double[L][];
+        }
+
+        if (precision == Precision.FP32) {
+            mW32 = new float[L][];
+            vW32 = new float[L][];
+            mB32 = new float[L][];
+            vB32 = new float[L][];
+        } else {
+            mW = new double[L][];
+            vW = new double[L][];
+            mB = new double[L][];
+            vB = new double[L][];
+        }
+
+        if (precision == Precision.MIXED) {
+            masterW = new double[L][];
+            masterB = new double[L][];
+        }
+
+        updates = new LayerUpdate[L];
 
         for (int l = 0; l < L; l++) {
             int out = layers[l].getOutputSize();
             int in = layers[l].getInputSize();
 
-            gW[l] = new double[out][in];
-            gB[l] = new double[out];
+            if (precision.isSingle()) {
+                gW32[l] = new float[out * in];
+                gB32[l] = new float[out];
+            } else {
+                gW[l] = new double[out * in];
+                gB[l] = new double[out];
+            }
+
+            if (precision == Precision.FP32) {
+                mW32[l] = new float[out * in];
+                vW32[l] = new float[out * in];
+                mB32[l] = new float[out];
+                vB32[l] = new float[out];
+            } else {
+                mW[l] = new double[out * in];
+                vW[l] = new double[out * in];
+                mB[l] = new double[out];
+                vB[l] = new double[out];
+            }
+
+            if (precision == Precision.MIXED) {
+                masterW[l] = SGD.masterWeights(layers[l]);
+                masterB[l] = SGD.masterBiases(layers[l]);
+            }
 
-            mW[l] = new double[out][in];
-            vW[l] = new double[out][in];
-            mB[l] = new double[out];
-            vB[l] = new double[out];
+            updates[l] = new LayerUpdate(l);
+        }
+    }
+
+    private void add(double[] target, double[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] += source[i];
+        }
+    }
+
+    private void add(float[] target, double[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] += (float) source[i];
+        }
+    }
+
+    /* MIXED: Adam step on the double master copy, rounded into the float parameters. */
+    private void stepMaster(float[] params, int offset, float[] g, double[] m, double[] v, double[] master,
+            int index, int n) {
+        for (int k = 0; k < n; k++) {
+            int i = index + k;
+            double gk = g[i] * scale;
+            m[i] = beta1 * m[i] + (1.0 - beta1) * gk;
+            v[i] = beta2 * v[i] + (1.0 - beta2) * (gk * gk);
+
+            master[i] -= learningRate * (m[i] / biasCorr1) / (Math.sqrt(v[i] / biasCorr2) + epsilon);
+            params[offset + k] = (float) master[i];
+        }
+    }
+
+    /* Runs the fused Adam kernel straight into layer l's parameter storage. */
+    private class LayerUpdate implements ParameterUpdate {
+        private final int l;
+
+        LayerUpdate(int l) {
+            this.l = l;
+        }
+
+        @Override
+        public void weights(double[] weights, int offset, int index, int n) {
+            MatrixOps.adam(weights, offset, gW[l], mW[l], vW[l], index, n,
+                    scale, beta1, beta2, learningRate, biasCorr1, biasCorr2, epsilon);
+        }
+
+        @Override
+        public void biases(double[] biases, int n) {
+            MatrixOps.adam(biases, 0, gB[l], mB[l], vB[l], 0, n,
+                    scale, beta1, beta2, learningRate, biasCorr1, biasCorr2, epsilon);
+        }
+
+        @Override
+        public void weights(float[] weights, int offset, int index, int n) {
+            if (masterW != null) {
+                stepMaster(weights, offset, gW32[l], mW[l], vW[l], masterW[l], index, n);
+            } else {
+                MatrixOps.adam(weights, offset, gW32[l], mW32[l], vW32[l], index, n,
+                        scale, beta1, beta2, learningRate, biasCorr1, biasCorr2, epsilon);
+            }
+        }
+
+        @Override
+        public void biases(float[] biases, int n) {
+            if (masterB != null) {
+                stepMaster(biases, 0, gB32[l], mB[l], vB[l], masterB[l], 0, n);
+            } else {
+                MatrixOps.adam(biases, 0, gB32[l], mB32[l], vB32[l], 0, n,
+                        scale, beta1, beta2, learningRate, biasCorr1, biasCorr2, epsilon);
+            }
         }
     }
 }
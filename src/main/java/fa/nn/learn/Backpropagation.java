@@ -1,15 +1,22 @@
 package fa.nn.learn;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.Workspace;
 import fa.nn.loss.LossFunction;
+import fa.nn.util.MatrixOps;
 import fa.nn.util.Preconditions;
 
 public class Backpropagation {
     private NeuralNetwork neuralNetwork;
     private LossFunction loss;
+    private Workspace context; // activations of the last single-sample forward pass
+    private float[][] gradientWeights32; // compute()'s gradients in single precision
+    private float[][] gradientBiases32;
 
     /* Initialize backpropagation for a neural network. */
     public Backpropagation(NeuralNetwork neuralNetwork, LossFunction loss) {
@@ -18,45 +25,215 @@ public class Backpropagation {
 
         this.neuralNetwork = neuralNetwork;
         this.loss = loss;
+        this.context = neuralNetwork.createWorkspace(1);
     }
 
     /*
-     * Accumulate per-layer gradients for one (input, expected) using stored
-     * activations; requires a prior forward pass on input.
+     * Accumulate per-layer gradients for one (input, expected); runs its own
+     * forward pass into this instance's context. gradientWeights[l] is
+     * row-major (outputSize x inputSize), matching Layer#getWeightData(). A
+     * single-precision network computes in float and adds the widened result.
      */
-    public void compute(double[] input, double[] expected, double[][][] gradientWeights, double[][] gradientBiases) {
+    public void compute(double[] input, double[] expected, double[][] gradientWeights, double[][] gradientBiases) {
         Objects.requireNonNull(input, "input");
         Objects.requireNonNull(expected, "expected");
         Objects.requireNonNull(gradientWeights, "gradientWeights");
         Objects.requireNonNull(gradientBiases, "gradientBiases");
 
         Layer[] layers = this.neuralNetwork.getLayers();
+        Preconditions.requireVector(input, layers[0].getInputSize(), "input");
+        Preconditions.requireVector(expected, layers[layers.length - 1].getOutputSize(), "expected");
 
-        double[][] deltas = this.computeDeltas(expected);
-        double[] aPrev = input;
+        if (this.context.getPrecision().isSingle()) {
+            this.computeSingle(input, expected, gradientWeights, gradientBiases);
+            return;
+        }
+
+        // A batch of one, so the derivatives cached by the forward pass are reused
+        System.arraycopy(input, 0, this.context.getInput(), 0, input.length);
+        System.arraycopy(expected, 0, this.context.getTarget(), 0, expected.length);
+        this.computeBatch(this.context, 1, gradientWeights, gradientBiases);
+    }
+
+    /* Accumulate per-layer gradients for a mini-batch given as one row per sample. */
+    public void computeBatch(double[][] x, double[][] expected, double[][] gradientWeights,
+            double[][] gradientBiases) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(expected, "expected");
+
+        if (x.length != expected.length) {
+            throw new IllegalArgumentException("x and expected must have same length");
+        }
+
+        if (x.length == 0) {
+            return;
+        }
+
+        Workspace ws = new Workspace(this.neuralNetwork.getLayers(), x.length);
+        int n = ws.stage(x, expected, 0, x.length);
+
+        this.computeBatch(ws, n, gradientWeights, gradientBiases);
+    }
+
+    /*
+     * Accumulate per-layer gradients for a mini-batch stored row-major in x (n x
+     * inputSize) and expected (n x outputSize).
+     */
+    public void computeBatch(double[] x, double[] expected, int n, double[][] gradientWeights,
+            double[][] gradientBiases) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(expected, "expected");
+        Preconditions.requirePositive(n, "n");
+
+        Layer[] layers = this.neuralNetwork.getLayers();
+        int in = layers[0].getInputSize();
+        int out = layers[layers.length - 1].getOutputSize();
+        Preconditions.requireVector(x, n * in, "x");
+        Preconditions.requireVector(expected, n * out, "expected");
+
+        Workspace ws = new Workspace(layers, n);
+        requireDouble(ws);
+        System.arraycopy(x, 0, ws.getInput(), 0, n * in);
+        System.arraycopy(expected, 0, ws.getTarget(), 0, n * out);
+
+        this.computeBatch(ws, n, gradientWeights, gradientBiases);
+    }
+
+    /*
+     * Accumulate per-layer gradients for the first n samples staged in the
+     * workspace. Runs its own batched forward pass, keeps deltas as n x width
+     * matrices and adds δᵀ·A_prev to each layer's gradient with one matrix
+     * product. Allocates nothing, and only reads the layers, so it may run
+     * concurrently with distinct workspaces and gradient buffers. Requires
+     * an FP64 workspace; single precision takes float gradients.
+     */
+    public void computeBatch(Workspace ws, int n, double[][] gradientWeights, double[][] gradientBiases) {
+        Objects.requireNonNull(ws, "workspace");
+        Objects.requireNonNull(gradientWeights, "gradientWeights");
+        Objects.requireNonNull(gradientBiases, "gradientBiases");
+        Preconditions.requirePositive(n, "n");
+        requireDouble(ws);
+
+        if (n > ws.getCapacity()) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + ws.getCapacity());
+        }
+
+        Layer[] layers = this.neuralNetwork.getLayers();
+        int L = layers.length;
+        Layer last = layers[L - 1];
+
+        double[] aPrev = ws.getInput();
+        for (int l = 0; l < L; l++) {
+            layers[l].forwardBatch(aPrev, ws.getZ(l), ws.getA(l), ws.getDerivative(l), n);
+            aPrev = ws.getA(l);
+        }
+
+        last.backwardBatch(ws.getTarget(), this.loss, ws.getA(L - 1), ws.getDerivative(L - 1),
+                ws.getDelta(L - 1), n);
+        for (int l = L - 2; l >= 0; l--) {
+            layers[l].backwardBatch(ws.getDelta(l + 1), layers[l + 1], ws.getDerivative(l), ws.getDelta(l), n);
+        }
 
-        for (int l = 0; l < layers.length; l++) {
-            Layer layer = layers[l];
-            int out = layer.getOutputSize();
-            int in = layer.getInputSize();
+        aPrev = ws.getInput();
+        for (int l = 0; l < L; l++) {
+            int out = layers[l].getOutputSize();
+            int in = layers[l].getInputSize();
 
-            for (int j = 0; j < out; j++) {
-                for (int i = 0; i < in; i++) {
-                    gradientWeights[l][j][i] += deltas[l][j] * aPrev[i];
-                }
+            MatrixOps.multiplyTransposedA(ws.getDelta(l), out, aPrev, in, gradientWeights[l], in, out, in, n);
+            MatrixOps.addColumnSums(ws.getDelta(l), out, gradientBiases[l], n, out);
 
-                gradientBiases[l][j] += deltas[l][j];
+            aPrev = ws.getA(l);
+        }
+    }
+
+    /*
+     * float variant of computeBatch(Workspace, int, double[][], double[][]) for
+     * single-precision networks and workspaces.
+     */
+    public void computeBatch(Workspace ws, int n, float[][] gradientWeights, float[][] gradientBiases) {
+        Objects.requireNonNull(ws, "workspace");
+        Objects.requireNonNull(gradientWeights, "gradientWeights");
+        Objects.requireNonNull(gradientBiases, "gradientBiases");
+        Preconditions.requirePositive(n, "n");
+
+        if (n > ws.getCapacity()) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + ws.getCapacity());
+        }
+
+        Layer[] layers = this.neuralNetwork.getLayers();
+        int L = layers.length;
+        Layer last = layers[L - 1];
+
+        float[] aPrev = ws.getInput32();
+        for (int l = 0; l < L; l++) {
+            layers[l].forwardBatch(aPrev, ws.getZ32(l), ws.getA32(l), ws.getDerivative32(l), n);
+            aPrev = ws.getA32(l);
+        }
+
+        last.backwardBatch(ws.getTarget32(), this.loss, ws.getA32(L - 1), ws.getDerivative32(L - 1),
+                ws.getDelta32(L - 1), n);
+        for (int l = L - 2; l >= 0; l--) {
+            layers[l].backwardBatch(ws.getDelta32(l + 1), layers[l + 1], ws.getDerivative32(l), ws.getDelta32(l), n);
+        }
+
+        aPrev = ws.getInput32();
+        for (int l = 0; l < L; l++) {
+            int out = layers[l].getOutputSize();
+            int in = layers[l].getInputSize();
+
+            MatrixOps.multiplyTransposedA(ws.getDelta32(l), out, aPrev, in, gradientWeights[l], in, out, in, n);
+            MatrixOps.addColumnSums(ws.getDelta32(l), out, gradientBiases[l], n, out);
+
+            aPrev = ws.getA32(l);
+        }
+    }
+
+    /* compute() for a single-precision context, through float gradients. */
+    private void computeSingle(double[] input, double[] expected, double[][] gradientWeights,
+            double[][] gradientBiases) {
+        if (this.gradientWeights32 == null) {
+            this.gradientWeights32 = new float[gradientWeights.length][];
+            this.gradientBiases32 = new float[gradientBiases.length][];
+            for (int l = 0; l < gradientWeights.length; l++) {
+                this.gradientWeights32[l] = new float[gradientWeights[l].length];
+                this.gradientBiases32[l] = new float[gradientBiases[l].length];
             }
+        } else {
+            for (int l = 0; l < gradientWeights.length; l++) {
+                Arrays.fill(this.gradientWeights32[l], 0f);
+                Arrays.fill(this.gradientBiases32[l], 0f);
+            }
+        }
+
+        MatrixOps.narrow(input, 0, this.context.getInput32(), 0, input.length);
+        MatrixOps.narrow(expected, 0, this.context.getTarget32(), 0, expected.length);
+        this.computeBatch(this.context, 1, this.gradientWeights32, this.gradientBiases32);
+
+        for (int l = 0; l < gradientWeights.length; l++) {
+            add(gradientWeights[l], this.gradientWeights32[l]);
+            add(gradientBiases[l], this.gradientBiases32[l]);
+        }
+    }
+
+    private static void add(double[] dst, float[] src) {
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] += src[i];
+        }
+    }
 
-            aPrev = layer.getState();
+    private static void requireDouble(Workspace ws) {
+        if (ws.getPrecision() != Precision.FP64) {
+            throw new IllegalStateException("double gradients require an FP64 workspace, not " + ws.getPrecision());
         }
     }
 
     /*
-     * Compute deltas for all layers (output→input) using loss and activations.
+     * Compute deltas for all layers (output→input) using the loss and the
+     * activations and derivatives recorded by the last compute().
      */
     public double[][] computeDeltas(double[] expected) {
         Objects.requireNonNull(expected, "expected");
+        requireDouble(this.context);
 
         Layer[] layers = this.neuralNetwork.getLayers();
         double[][] deltas = new double[layers.length][];
@@ -64,16 +241,14 @@ public class Backpropagation {
 
         Preconditions.requireVector(expected, last.getOutputSize(), "expected");
 
-        deltas[layers.length - 1] = last.backward(expected, loss);
-
-        for (int l = layers.length - 1; l >= 0; l--) {
-            Layer layer = layers[l];
-
-            if (layer == last) {
-                continue;
-            }
+        int L = layers.length;
+        deltas[L - 1] = new double[last.getOutputSize()];
+        last.backwardBatch(expected, this.loss, this.context.getA(L - 1), this.context.getDerivative(L - 1),
+                deltas[L - 1], 1);
 
-            deltas[l] = layer.backward(deltas[l + 1], layers[l + 1]);
+        for (int l = L - 2; l >= 0; l--) {
+            deltas[l] = new double[layers[l].getOutputSize()];
+            layers[l].backwardBatch(deltas[l + 1], layers[l + 1], this.context.getDerivative(l), deltas[l], 1);
         }
 
         return deltas;
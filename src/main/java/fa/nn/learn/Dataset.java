@@ -1,64 +1,355 @@
 package fa.nn.learn;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Random;
 
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.util.MatrixOps;
+import fa.nn.util.Preconditions;
+
+/*
+ * Training and validation rows held in memory as two flat row-major arrays,
+ * one for the inputs of all rows and one for their targets, float in single
+ * precision and double otherwise. Shuffling only permutes the order of
+ * the training rows; stage() gathers a mini-batch in that order into the
+ * workspace's reused buffers. Subclasses may keep their rows elsewhere (see
+ * MappedDataset); NeuralNetwork#fitNext only shuffles, asks for the number of
+ * training rows and stages mini-batches through stage().
+ *
+ * The array accessors (trainX() etc.) build per-row copies, the training rows
+ * in the current order; they serve tests and toString(). Training and loss
+ * computations stage or copy chunks of rows instead.
+ */
 public class Dataset {
-    private double[][] trainX;
-    private double[][] trainY;
-    private double[][] valX;
-    private double[][] valY;
+    private double[] x; // rows x inputs; the first train rows train, the rest validate
+    private double[] y;
+    private float[] x32; // replace x and y in single precision
+    private float[] y32;
+    private int inputs;
+    private int outputs;
+    private int train;
+    private int rows;
+    private Precision precision;
     private Random rand;
+    private int[] order; // order[i] is the original index of training row i
+
+    /* For subclasses that store their rows themselves and override every accessor. */
+    protected Dataset(Precision precision, Random rand) {
+        this.precision = precision;
+        this.rand = rand;
+        this.order = new int[0];
+    }
 
     public Dataset(double[][] x, double[][] y, double split, Random rand) {
-        if (x.length != y.length) {
-            throw new IllegalArgumentException();
-        }
+        this(x, y, split, rand, Precision.FP64);
+    }
 
-        int idx = (int) (x.length * (1 - split));
+    /*
+     * Split (x, y) into train and validation rows. With a single precision the
+     * rows are stored as float, halving the memory they take; the double
+     * accessors then return widened copies.
+     */
+    public Dataset(double[][] x, double[][] y, double split, Random rand, Precision precision) {
+        this(flatten(x), flatten(y), false, width(x), width(y), rows(x, y), split, rand, precision);
+    }
 
-        this.trainX = Arrays.copyOfRange(x, 0, idx);
-        this.trainY = Arrays.copyOfRange(y, 0, idx);
-        this.valX = Arrays.copyOfRange(x, idx, x.length);
-        this.valY = Arrays.copyOfRange(y, idx, y.length);
+    /*
+     * Split flat row-major inputs (rows x inputs) and targets (rows x outputs)
+     * into train and validation rows without building an array per row. The
+     * arrays are copied, or narrowed into new float arrays in single
+     * precision, so the caller may reuse them.
+     */
+    public Dataset(double[] x, double[] y, int inputs, int outputs, double split, Random rand, Precision precision) {
+        this(Objects.requireNonNull(x, "x"), Objects.requireNonNull(y, "y"), true, inputs, outputs,
+                rows(x, y, inputs, outputs), split, rand, precision);
+    }
+
+    /* copy says whether x and y are the caller's, to be copied before they are kept. */
+    private Dataset(double[] x, double[] y, boolean copy, int inputs, int outputs, int rows, double split,
+            Random rand, Precision precision) {
+        if (precision == null) {
+            throw new NullPointerException("precision must not be null");
+        }
 
+        if (precision.isSingle()) {
+            this.x32 = new float[x.length];
+            this.y32 = new float[y.length];
+            MatrixOps.narrow(x, 0, this.x32, 0, x.length);
+            MatrixOps.narrow(y, 0, this.y32, 0, y.length);
+        } else {
+            this.x = copy ? x.clone() : x;
+            this.y = copy ? y.clone() : y;
+        }
+
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.rows = rows;
+        this.train = (int) (rows * (1 - split));
+        this.precision = precision;
         this.rand = rand;
+        this.order = new int[this.train];
+        for (int i = 0; i < this.train; i++) {
+            this.order[i] = i;
+        }
     }
 
     public double[][] trainX() {
-        return trainX;
+        return copyRows(this.order, 0, this.train, true);
     }
 
     public double[][] trainY() {
-        return trainY;
+        return copyRows(this.order, 0, this.train, false);
     }
 
     public double[][] valX() {
-        return valX;
+        return copyRows(null, this.train, this.rows, true);
     }
 
     public double[][] valY() {
-        return valY;
+        return copyRows(null, this.train, this.rows, false);
+    }
+
+    public float[][] trainX32() {
+        return copyRows32(0, this.train, true);
     }
 
+    public float[][] trainY32() {
+        return copyRows32(0, this.train, false);
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /* Return the number of training rows. */
+    public int trainSize() {
+        return train;
+    }
+
+    /* Return the number of rows, training rows first and validation rows after them. */
+    public int size() {
+        return rows;
+    }
+
+    /* Return the number of inputs per row. */
+    public int getInputSize() {
+        return inputs;
+    }
+
+    /* Return the number of targets per row. */
+    public int getOutputSize() {
+        return outputs;
+    }
+
+    /*
+     * Copy the inputs of rows [from, to) in their original order, ignoring
+     * any shuffle, to dst[off, ...); rows below trainSize() are the training
+     * rows, the rest the validation rows. Safe to call from several threads.
+     */
+    public void copyInputs(int from, int to, double[] dst, int off) {
+        copyRange(true, from, to, dst, off);
+    }
+
+    /* Like copyInputs, for the targets. */
+    public void copyTargets(int from, int to, double[] dst, int off) {
+        copyRange(false, from, to, dst, off);
+    }
+
+    /*
+     * Stage training rows [from, to) of the current order into the
+     * workspace's input and target buffers; return the number of rows staged.
+     * Safe to call from several threads at once with distinct workspaces,
+     * as long as no shuffle runs meanwhile.
+     */
+    public int stage(Workspace ws, int from, int to) {
+        if (precision.isSingle()) {
+            return ws.stage(x32, y32, order, from, to);
+        }
+        return ws.stage(x, y, order, from, to);
+    }
+
+    /* Permute the order of the training rows; the rows themselves stay put. */
     public void shuffle() {
-        for (int i = trainX.length - 1; i > 0; i--) {
+        for (int i = train - 1; i > 0; i--) {
             int j = rand.nextInt(i + 1);
-            double[] tx = trainX[i];
-            trainX[i] = trainX[j];
-            trainX[j] = tx;
 
-            double[] ty = trainY[i];
-            trainY[i] = trainY[j];
-            trainY[j] = ty;
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
         }
     }
 
+    /*
+     * Return the size in bytes of the shuffle state: the current order of the
+     * training rows and the serialized random generator.
+     */
+    public int stateSize() {
+        return 2 * Integer.BYTES + order.length * Integer.BYTES + serializeRandom().length;
+    }
+
+    /* Write the shuffle state at the buffer's position. */
+    public void saveState(ByteBuffer out) {
+        byte[] random = serializeRandom();
+        out.putInt(order.length);
+        out.putInt(random.length);
+        out.asIntBuffer().put(order);
+        out.position(out.position() + order.length * Integer.BYTES);
+        out.put(random);
+    }
+
+    /*
+     * Restore state written by saveState of a dataset built from the same
+     * rows and split: the training rows are put back in the saved order and
+     * the random generator continues the saved sequence.
+     */
+    public void loadState(ByteBuffer in) {
+        int n = in.getInt();
+        int length = in.getInt();
+        if (n != order.length || length < 0) {
+            throw new IllegalArgumentException("Shuffle state is for " + n + " training rows, dataset has "
+                    + order.length);
+        }
+
+        int[] saved = new int[n];
+        in.asIntBuffer().get(saved);
+        in.position(in.position() + n * Integer.BYTES);
+        requirePermutation(saved);
+
+        byte[] random = new byte[length];
+        in.get(random);
+
+        order = saved;
+        rand = deserializeRandom(random);
+    }
+
     public String toString() {
-        String s = "trainX: " + Arrays.deepToString(trainX) + "\n";
-        s += "trainX: " + Arrays.deepToString(trainY) + "\n";
-        s += "valX: " + Arrays.deepToString(valX) + "\n";
-        s += "valY: " + Arrays.deepToString(valY) + "\n";
+        String s = "trainX: " + Arrays.deepToString(trainX()) + "\n";
+        s += "trainY: " + Arrays.deepToString(trainY()) + "\n";
+        s += "valX: " + Arrays.deepToString(valX()) + "\n";
+        s += "valY: " + Arrays.deepToString(valY()) + "\n";
         return s;
     }
+
+    private byte[] serializeRandom() {
+        return serialize(rand);
+    }
+
+    /* Serialize a random generator so that a restored copy continues its sequence. */
+    static byte[] serialize(Random rand) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rand);
+        } catch (IOException e) {
+            throw new IllegalStateException("Random generator cannot be saved", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /* Reject a saved order that is not a permutation of 0..p.length-1. */
+    static void requirePermutation(int[] p) {
+        boolean[] seen = new boolean[p.length];
+        for (int i : p) {
+            if (i < 0 || i >= p.length || seen[i]) {
+                throw new IllegalArgumentException("Corrupt shuffle state");
+            }
+            seen[i] = true;
+        }
+    }
+
+        static Random deserializeRandom(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("java.util.*;java.lang.*;!*"));
+            return (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalArgumentException("Corrupt random generator state", e);
+        }
+    }
+
+    private void copyRange(boolean inputs, int from, int to, double[] dst, int off) {
+        if (from < 0 || from > to || to > rows) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        int width = inputs ? this.inputs : this.outputs;
+        if (precision.isSingle()) {
+            MatrixOps.widen(inputs ? x32 : y32, from * width, dst, off, (to - from) * width);
+        } else {
+            System.arraycopy(inputs ? x : y, from * width, dst, off, (to - from) * width);
+        }
+    }
+
+    /* Copy rows [from, to), through order when given, into one double array per row. */
+    private double[][] copyRows(int[] order, int from, int to, boolean inputs) {
+        int width = inputs ? this.inputs : this.outputs;
+        double[][] out = new double[to - from][width];
+        for (int r = from; r < to; r++) {
+            int i = order != null ? order[r] : r;
+            if (precision.isSingle()) {
+                MatrixOps.widen(inputs ? x32 : y32, i * width, out[r - from], 0, width);
+            } else {
+                System.arraycopy(inputs ? x : y, i * width, out[r - from], 0, width);
+            }
+        }
+        return out;
+    }
+
+    /* float variant of copyRows over the training order. */
+    private float[][] copyRows32(int from, int to, boolean inputs) {
+        int width = inputs ? this.inputs : this.outputs;
+        float[][] out = new float[to - from][width];
+        for (int r = from; r < to; r++) {
+            int i = order[r];
+            if (precision.isSingle()) {
+                System.arraycopy(inputs ? x32 : y32, i * width, out[r - from], 0, width);
+            } else {
+                MatrixOps.narrow(inputs ? x : y, i * width, out[r - from], 0, width);
+            }
+        }
+        return out;
+    }
+
+    private static int rows(double[][] x, double[][] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("x and y must have same length");
+        }
+        return x.length;
+    }
+
+    private static int rows(double[] x, double[] y, int inputs, int outputs) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(y, "y");
+        Preconditions.requirePositive(inputs, "inputs");
+        Preconditions.requirePositive(outputs, "outputs");
+
+        if (x.length % inputs != 0 || y.length % outputs != 0 || x.length / inputs != y.length / outputs) {
+            throw new IllegalArgumentException("x and y must hold the same number of rows of " + inputs
+                    + " inputs and " + outputs + " targets");
+        }
+        return x.length / inputs;
+    }
+
+    /* Return the common row length of m, or 0 when m has no rows. */
+    private static int width(double[][] m) {
+        return m.length == 0 ? 0 : m[0].length;
+    }
+
+    private static double[] flatten(double[][] m) {
+        int width = width(m);
+        Preconditions.requireMatrix(m, m.length, width, "rows");
+
+        double[] out = new double[m.length * width];
+        for (int r = 0; r < m.length; r++) {
+            System.arraycopy(m[r], 0, out, r * width, width);
+        }
+        return out;
+    }
 }
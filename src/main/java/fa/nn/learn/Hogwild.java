@@ -0,0 +1,276 @@
+package fa.nn.learn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.loss.LossFunction;
+import fa.nn.util.Preconditions;
+
+/*
+ * Asynchronous lock-free SGD ("Hogwild"): worker threads pull mini-batches from
+ * a shared dataset and write their updates straight into the shared layer
+ * parameters with no locks and no barrier between steps. Updates may race and
+ * overwrite each other, so results are not deterministic.
+ *
+ * Through the Trainable interface it behaves like plain SGD that applies each
+ * gradient as soon as it is computed; train() runs the asynchronous mode.
+ */
+public class Hogwild implements Trainable {
+    private final NeuralNetwork neuralNetwork;
+    private final double learningRate;
+    private final int threads;
+
+    private Backpropagation backprop;
+    private double[][] gradientWeights;
+    private double[][] gradientBiases;
+
+    public Hogwild(NeuralNetwork neuralNetwork, double learningRate, int threads) {
+        Objects.requireNonNull(neuralNetwork, "neuralNetwork");
+        Preconditions.requirePositive(threads, "threads");
+
+        if (neuralNetwork.getPrecision() != Precision.FP64) {
+            throw new IllegalArgumentException("Hogwild requires FP64 precision");
+        }
+
+        this.neuralNetwork = neuralNetwork;
+        this.learningRate = learningRate;
+        this.threads = threads;
+
+        this.gradientWeights = newGradientWeights();
+        this.gradientBiases = newGradientBiases();
+    }
+
+    @Override
+    public void setLoss(LossFunction loss) {
+        this.backprop = new Backpropagation(this.neuralNetwork, loss);
+    }
+
+    @Override
+    public void learn(double[] input, double[] exptectedOutput) {
+        this.reset();
+        this.backprop.compute(input, exptectedOutput, this.gradientWeights, this.gradientBiases);
+        this.apply(this.gradientWeights, this.gradientBiases, 1);
+    }
+
+    @Override
+    public void learnBatch(double[][] x, double[][] y) {
+        this.reset();
+        this.backprop.computeBatch(x, y, this.gradientWeights, this.gradientBiases);
+        this.apply(this.gradientWeights, this.gradientBiases, x.length);
+    }
+
+    @Override
+    public void learnBatch(Workspace workspace, int n) {
+        this.reset();
+        this.backprop.computeBatch(workspace, n, this.gradientWeights, this.gradientBiases);
+        this.apply(this.gradientWeights, this.gradientBiases, n);
+    }
+
+    @Override
+    public void accumulate(double[][] gradientWeights, double[][] gradientBiases, int n) {
+        this.apply(gradientWeights, gradientBiases, n);
+    }
+
+    /* Updates are applied as soon as their gradients are known. */
+    @Override
+    public void step() {
+    }
+
+    @Override
+    public void reset() {
+        for (int l = 0; l < this.gradientWeights.length; l++) {
+            Arrays.fill(this.gradientWeights[l], 0.0);
+            Arrays.fill(this.gradientBiases[l], 0.0);
+        }
+    }
+
+    /*
+     * Train asynchronously for the given number of epochs. Each epoch the
+     * dataset is shuffled, then every worker repeatedly claims the next
+     * batchSize rows and applies its averaged gradient to the shared layers.
+     * The training loss is measured after every epoch.
+     */
+    public Report train(Dataset d, int epochs, int batchSize) {
+        Objects.requireNonNull(d, "dataset");
+        Preconditions.requirePositive(epochs, "epochs");
+        Preconditions.requirePositive(batchSize, "batchSize");
+
+        if (this.backprop == null) {
+            throw new IllegalStateException("LossFunction must be set before calling train()");
+        }
+
+        if (d instanceof MappedDataset) {
+            throw new IllegalArgumentException("Hogwild workers stage rows concurrently; a MappedDataset can only "
+                    + "be trained serially");
+        }
+
+        Worker[] workers = new Worker[this.threads];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new Worker(batchSize);
+        }
+
+        double[] losses = new double[epochs];
+        long samples = 0;
+        long nanos = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                d.shuffle();
+                AtomicInteger cursor = new AtomicInteger();
+
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (Worker worker : workers) {
+                    tasks.add(() -> worker.run(d, cursor));
+                }
+
+                long start = System.nanoTime();
+                for (Future<Void> f : pool.invokeAll(tasks)) {
+                    f.get();
+                }
+                nanos += System.nanoTime() - start;
+                samples += d.trainSize();
+
+                losses[epoch] = this.neuralNetwork.calculateLoss(d, 0, d.trainSize());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new Report(this.threads, samples, nanos, losses);
+    }
+
+    /* Apply averaged gradients to the shared layers without synchronization. */
+    private void apply(double[][] gradientWeights, double[][] gradientBiases, int n) {
+        if (n == 0) {
+            return;
+        }
+
+        Layer[] layers = this.neuralNetwork.getLayers();
+        double rate = this.learningRate / n;
+
+        for (int l = 0; l < layers.length; l++) {
+            layers[l].updateGradients(rate, gradientWeights[l], gradientBiases[l]);
+        }
+    }
+
+    private double[][] newGradientWeights() {
+        Layer[] layers = this.neuralNetwork.getLayers();
+        double[][] gw = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            gw[l] = new double[layers[l].getOutputSize() * layers[l].getInputSize()];
+        }
+        return gw;
+    }
+
+    private double[][] newGradientBiases() {
+        Layer[] layers = this.neuralNetwork.getLayers();
+        double[][] gb = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            gb[l] = new double[layers[l].getOutputSize()];
+        }
+        return gb;
+    }
+
+    /* Per-thread workspace and gradient buffers, reused across epochs. */
+    private class Worker {
+        private final int batchSize;
+        private final Workspace workspace;
+        private final double[][] gw;
+        private final double[][] gb;
+
+        Worker(int batchSize) {
+            this.batchSize = batchSize;
+            this.workspace = neuralNetwork.createWorkspace(batchSize);
+            this.gw = newGradientWeights();
+            this.gb = newGradientBiases();
+        }
+
+        /* Stage and learn the batches claimed through cursor straight from d. */
+        Void run(Dataset d, AtomicInteger cursor) {
+            int rows = d.trainSize();
+            int start;
+            while ((start = cursor.getAndAdd(this.batchSize)) < rows) {
+                int end = Math.min(start + this.batchSize, rows);
+                int n = d.stage(this.workspace, start, end);
+
+                for (int l = 0; l < this.gw.length; l++) {
+                    Arrays.fill(this.gw[l], 0.0);
+                    Arrays.fill(this.gb[l], 0.0);
+                }
+
+                backprop.computeBatch(this.workspace, n, this.gw, this.gb);
+                apply(this.gw, this.gb, n);
+            }
+            return null;
+        }
+    }
+
+    /* Throughput and convergence of one train() run. */
+    public static class Report {
+        private final int threads;
+        private final long samples;
+        private final long nanos;
+        private final double[] losses;
+
+        public Report(int threads, long samples, long nanos, double[] losses) {
+            this.threads = threads;
+            this.samples = samples;
+            this.nanos = nanos;
+            this.losses = losses;
+        }
+
+        /* Return the number of worker threads. */
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /* Return the number of training samples processed. */
+        public long getSamples() {
+            return this.samples;
+        }
+
+        /* Return the wall time spent training, excluding loss evaluation. */
+        public double getSeconds() {
+            return this.nanos / 1e9;
+        }
+
+        /* Return training samples processed per second. */
+        public double getSamplesPerSecond() {
+            return this.nanos == 0 ? 0.0 : this.samples / this.getSeconds();
+        }
+
+        /* Return the training loss measured after each epoch. */
+        public double[] getLosses() {
+            return this.losses;
+        }
+
+        /* Return the training loss after the last epoch. */
+        public double getFinalLoss() {
+            return this.losses.length == 0 ? Double.NaN : this.losses[this.losses.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return "threads: " + this.threads + " - samples/s: " + Math.round(this.getSamplesPerSecond())
+                    + " - loss: " + this.getFinalLoss();
+        }
+    }
+}
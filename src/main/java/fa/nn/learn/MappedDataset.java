@@ -0,0 +1,513 @@
+package fa.nn.learn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.util.MatrixOps;
+import fa.nn.util.Preconditions;
+
+/*
+ * Dataset whose rows stay in a memory-mapped file, so training sets larger
+ * than the heap run through NeuralNetwork#fitNext; only the rows of the
+ * current mini-batch are copied into the workspace. The file is little-endian:
+ *
+ *   int magic "FADS", int version, int precision (Precision ordinal),
+ *   int inputs, int outputs, int 0, long rows, then per row its inputs
+ *   followed by its targets, as float in single precision and double
+ *   otherwise.
+ *
+ * The first (1 - split) of the rows train and the rest validate. A global
+ * shuffle is approximated: every epoch permutes the order of the blocks of
+ * blockRows consecutive training rows, and the rows inside each block are
+ * visited in a fresh random order when the block is reached. A trailing
+ * partial block always comes last and is shuffled inside the same way, so
+ * a set smaller than one block is still reordered every epoch. Pages are
+ * thus read block by block instead of at random across the whole file.
+ *
+ * Rows are staged by one thread at a time, so parallel training and Hogwild
+ * reject this dataset. The array accessors (trainX() etc.) copy rows onto the
+ * heap, in file order; use them only for sets that fit.
+ */
+public class MappedDataset extends Dataset {
+    static final int MAGIC = 0x53444146; // "FADS"
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    static final int DEFAULT_BLOCK_ROWS = 1024;
+
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final Path path;
+    private final int inputs;
+    private final int outputs;
+    private final int rows;
+    private final int train;
+    private final int rowValues;
+    private final int rowsPerChunk;
+    private final DoubleBuffer[] chunks;
+    private final FloatBuffer[] chunks32;
+    private final int blockRows;
+    private int[] blockOrder; // physical block of each logical block; the partial block stays last
+    private final int[] inBlock;
+    private int currentBlock = -1;
+    private final double[] row;
+    private final float[] row32;
+    private Random rand;
+
+    public MappedDataset(String filename, double split, Random rand) {
+        this(filename, split, rand, DEFAULT_BLOCK_ROWS);
+    }
+
+    /*
+     * Map a file written by Writer; split is the fraction of trailing rows
+     * used for validation and blockRows the number of consecutive rows
+     * shuffled as one block.
+     */
+    public MappedDataset(String filename, double split, Random rand, int blockRows) {
+        super(readPrecision(Path.of(Objects.requireNonNull(filename, "filename"))), rand);
+        Objects.requireNonNull(rand, "rand");
+        Preconditions.requireProbability(split, "split");
+        Preconditions.requirePositive(blockRows, "blockRows");
+
+        this.path = Path.of(filename);
+        this.rand = rand;
+        this.blockRows = blockRows;
+
+        try (FileChannel ch = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            ch.read(header, 0);
+            header.flip();
+            header.position(12);
+            this.inputs = header.getInt();
+            this.outputs = header.getInt();
+            header.getInt();
+            long count = header.getLong();
+
+            int width = this.getPrecision().isSingle() ? Float.BYTES : Double.BYTES;
+            this.rowValues = this.inputs + this.outputs;
+            long rowBytes = (long) this.rowValues * width;
+            if (this.inputs < 1 || this.outputs < 1 || count < 0 || count > Integer.MAX_VALUE
+                    || HEADER + count * rowBytes > ch.size() || rowBytes > CHUNK_BYTES) {
+                throw new IllegalArgumentException("Corrupt dataset file: " + this.path);
+            }
+
+            this.rows = (int) count;
+            this.train = (int) (this.rows * (1 - split));
+            this.rowsPerChunk = (int) (CHUNK_BYTES / rowBytes);
+
+            int n = (this.rows + this.rowsPerChunk - 1) / this.rowsPerChunk;
+            this.chunks = this.getPrecision().isSingle() ? null : new DoubleBuffer[n];
+            this.chunks32 = this.getPrecision().isSingle() ? new FloatBuffer[n] : null;
+
+            for (int c = 0; c < n; c++) {
+                int chunkRows = Math.min(this.rowsPerChunk, this.rows - c * this.rowsPerChunk);
+                ByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + c * this.rowsPerChunk * rowBytes,
+                        chunkRows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+                if (this.getPrecision().isSingle()) {
+                    this.chunks32[c] = map.asFloatBuffer();
+                } else {
+                    this.chunks[c] = map.asDoubleBuffer();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + this.path, e);
+        }
+
+        this.blockOrder = new int[this.train / blockRows];
+        for (int b = 0; b < this.blockOrder.length; b++) {
+            this.blockOrder[b] = b;
+        }
+        this.inBlock = new int[Math.min(blockRows, Math.max(this.train, 1))];
+        this.row = new double[this.rowValues];
+        this.row32 = new float[this.rowValues];
+    }
+
+    @Override
+    public int getInputSize() {
+        return this.inputs;
+    }
+
+    @Override
+    public int getOutputSize() {
+        return this.outputs;
+    }
+
+    @Override
+    public int trainSize() {
+        return this.train;
+    }
+
+    @Override
+    public int size() {
+        return this.rows;
+    }
+
+    @Override
+    public void copyInputs(int from, int to, double[] dst, int off) {
+        this.copyRange(from, to, 0, this.inputs, dst, off);
+    }
+
+    @Override
+    public void copyTargets(int from, int to, double[] dst, int off) {
+        this.copyRange(from, to, this.inputs, this.outputs, dst, off);
+    }
+
+    /* Permute the order of the full training blocks. */
+    @Override
+    public void shuffle() {
+        for (int i = this.blockOrder.length - 1; i > 0; i--) {
+            int j = this.rand.nextInt(i + 1);
+            int t = this.blockOrder[i];
+            this.blockOrder[i] = this.blockOrder[j];
+            this.blockOrder[j] = t;
+        }
+        this.currentBlock = -1;
+    }
+
+    @Override
+    public int stage(Workspace ws, int from, int to) {
+        Objects.requireNonNull(ws, "workspace");
+
+        int n = to - from;
+        if (from < 0 || n < 0 || to > this.train) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        if (n > ws.getCapacity()) {
+            throw new IllegalArgumentException("batch of " + n + " exceeds capacity " + ws.getCapacity());
+        }
+
+        if (ws.getInputSize() != this.inputs || ws.getOutputSize() != this.outputs) {
+            throw new IllegalArgumentException("Dataset rows have " + this.inputs + " inputs and " + this.outputs
+                    + " outputs; network expects " + ws.getInputSize() + " and " + ws.getOutputSize());
+        }
+
+        for (int r = 0; r < n; r++) {
+            int physical = this.physicalRow(from + r);
+
+            if (ws.getPrecision().isSingle()) {
+                this.readRow(physical, this.row32, this.row);
+                System.arraycopy(this.row32, 0, ws.getInput32(), r * this.inputs, this.inputs);
+                System.arraycopy(this.row32, this.inputs, ws.getTarget32(), r * this.outputs, this.outputs);
+            } else {
+                this.readRow(physical, this.row, this.row32);
+                System.arraycopy(this.row, 0, ws.getInput(), r * this.inputs, this.inputs);
+                System.arraycopy(this.row, this.inputs, ws.getTarget(), r * this.outputs, this.outputs);
+            }
+        }
+
+        return n;
+    }
+
+    @Override
+    public double[][] trainX() {
+        return this.copy(0, this.train, 0, this.inputs);
+    }
+
+    @Override
+    public double[][] trainY() {
+        return this.copy(0, this.train, this.inputs, this.outputs);
+    }
+
+    @Override
+    public double[][] valX() {
+        return this.copy(this.train, this.rows, 0, this.inputs);
+    }
+
+    @Override
+    public double[][] valY() {
+        return this.copy(this.train, this.rows, this.inputs, this.outputs);
+    }
+
+    @Override
+    public float[][] trainX32() {
+        return this.copy32(0, this.train, 0, this.inputs);
+    }
+
+    @Override
+    public float[][] trainY32() {
+        return this.copy32(0, this.train, this.inputs, this.outputs);
+    }
+
+    /* Shuffle state: the block order and the serialized random generator. */
+    @Override
+    public int stateSize() {
+        return 2 * Integer.BYTES + this.blockOrder.length * Integer.BYTES + serialize(this.rand).length;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        byte[] random = serialize(this.rand);
+        out.putInt(this.blockOrder.length);
+        out.putInt(random.length);
+        out.asIntBuffer().put(this.blockOrder);
+        out.position(out.position() + this.blockOrder.length * Integer.BYTES);
+        out.put(random);
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        int n = in.getInt();
+        int length = in.getInt();
+        if (n != this.blockOrder.length || length < 0) {
+            throw new IllegalArgumentException("Shuffle state is for " + n + " blocks, dataset has "
+                    + this.blockOrder.length);
+        }
+
+        int[] saved = new int[n];
+        in.asIntBuffer().get(saved);
+        in.position(in.position() + n * Integer.BYTES);
+        requirePermutation(saved);
+
+        byte[] random = new byte[length];
+        in.get(random);
+
+        this.blockOrder = saved;
+        this.rand = deserializeRandom(random);
+        this.currentBlock = -1;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedDataset(" + this.path + ", rows: " + this.rows + ", train: " + this.train + ", inputs: "
+                + this.inputs + ", outputs: " + this.outputs + ", " + this.getPrecision() + ")";
+    }
+
+    /*
+     * Map a logical training position to a row of the file, drawing a new
+     * in-block order whenever a block is entered. The trailing partial block
+     * keeps its place after the full blocks but is shuffled inside too.
+     */
+    private int physicalRow(int position) {
+        int block = position / this.blockRows;
+        int offset = position % this.blockRows;
+        int full = this.blockOrder.length;
+
+        if (block != this.currentBlock) {
+            int length = block < full ? this.blockRows : this.train - full * this.blockRows;
+            for (int i = 0; i < length; i++) {
+                this.inBlock[i] = i;
+            }
+            for (int i = length - 1; i > 0; i--) {
+                int j = this.rand.nextInt(i + 1);
+                int t = this.inBlock[i];
+                this.inBlock[i] = this.inBlock[j];
+                this.inBlock[j] = t;
+            }
+            this.currentBlock = block;
+        }
+
+        int first = block < full ? this.blockOrder[block] * this.blockRows : full * this.blockRows;
+        return first + this.inBlock[offset];
+    }
+
+    /* Read row r (inputs then targets) into values, converting through scratch. */
+    private void readRow(int r, double[] values, float[] scratch) {
+        int chunk = r / this.rowsPerChunk;
+        int index = (r % this.rowsPerChunk) * this.rowValues;
+
+        if (this.chunks != null) {
+            this.chunks[chunk].get(index, values, 0, this.rowValues);
+        } else {
+            this.chunks32[chunk].get(index, scratch, 0, this.rowValues);
+            MatrixOps.widen(scratch, 0, values, 0, this.rowValues);
+        }
+    }
+
+    /* float variant of readRow. */
+    private void readRow(int r, float[] values, double[] scratch) {
+        int chunk = r / this.rowsPerChunk;
+        int index = (r % this.rowsPerChunk) * this.rowValues;
+
+        if (this.chunks32 != null) {
+            this.chunks32[chunk].get(index, values, 0, this.rowValues);
+        } else {
+            this.chunks[chunk].get(index, scratch, 0, this.rowValues);
+            MatrixOps.narrow(scratch, 0, values, 0, this.rowValues);
+        }
+    }
+
+    private void copyRange(int from, int to, int offset, int length, double[] dst, int off) {
+        if (from < 0 || from > to || to > this.rows) {
+            throw new IndexOutOfBoundsException("rows [" + from + ", " + to + ") out of range");
+        }
+
+        // Local buffers: unlike stage, this may run on several threads at once
+        double[] values = new double[this.rowValues];
+        float[] scratch = new float[this.rowValues];
+        for (int r = from; r < to; r++) {
+            this.readRow(r, values, scratch);
+            System.arraycopy(values, offset, dst, off + (r - from) * length, length);
+        }
+    }
+
+    private double[][] copy(int from, int to, int offset, int length) {
+        double[][] out = new double[to - from][];
+        double[] values = new double[this.rowValues];
+        float[] scratch = new float[this.rowValues];
+        for (int r = from; r < to; r++) {
+            this.readRow(r, values, scratch);
+            out[r - from] = Arrays.copyOfRange(values, offset, offset + length);
+        }
+        return out;
+    }
+
+    private float[][] copy32(int from, int to, int offset, int length) {
+        float[][] out = new float[to - from][];
+        float[] values = new float[this.rowValues];
+        double[] scratch = new double[this.rowValues];
+        for (int r = from; r < to; r++) {
+            this.readRow(r, values, scratch);
+            out[r - from] = Arrays.copyOfRange(values, offset, offset + length);
+        }
+        return out;
+    }
+
+    private static Precision readPrecision(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (ch.read(header) < 0) {
+                    throw new IllegalArgumentException("Not a dataset file: " + path);
+                }
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a dataset file: " + path);
+            }
+
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported dataset file version " + version + ": " + path);
+            }
+
+            int precision = header.getInt();
+            if (precision < 0 || precision >= Precision.values().length) {
+                throw new IllegalArgumentException("Corrupt dataset file: " + path);
+            }
+            return Precision.values()[precision];
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    /*
+     * Appends rows to a dataset file without holding them in memory; the row
+     * count in the header is written on close.
+     */
+    public static class Writer implements AutoCloseable {
+        private final FileChannel ch;
+        private final Precision precision;
+        private final int inputs;
+        private final int outputs;
+        private final int rowBytes;
+        private final ByteBuffer buf;
+        private long rows;
+
+        public Writer(String filename, int inputs, int outputs, Precision precision) {
+            Objects.requireNonNull(filename, "filename");
+            Objects.requireNonNull(precision, "precision");
+            Preconditions.requirePositive(inputs, "inputs");
+            Preconditions.requirePositive(outputs, "outputs");
+
+            this.precision = precision;
+            this.inputs = inputs;
+            this.outputs = outputs;
+
+            int width = precision.isSingle() ? Float.BYTES : Double.BYTES;
+            this.rowBytes = (inputs + outputs) * width;
+            this.buf = ByteBuffer.allocate(Math.max(this.rowBytes, 1 << 16) / this.rowBytes * this.rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            try {
+                this.ch = FileChannel.open(Path.of(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(precision.ordinal()).putInt(inputs).putInt(outputs)
+                        .putInt(0).putLong(0).flip();
+                write(header);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create " + filename, e);
+            }
+        }
+
+        /* Append one row. */
+        public void add(double[] x, double[] y) {
+            Preconditions.requireVector(x, this.inputs, "x");
+            Preconditions.requireVector(y, this.outputs, "y");
+
+            if (this.buf.remaining() < this.rowBytes) {
+                this.flush();
+            }
+
+            for (double v : x) {
+                this.put(v);
+            }
+            for (double v : y) {
+                this.put(v);
+            }
+            this.rows++;
+        }
+
+        /* Append every row of (x, y). */
+        public void addAll(double[][] x, double[][] y) {
+            if (x.length != y.length) {
+                throw new IllegalArgumentException("x and y must have same length");
+            }
+
+            for (int r = 0; r < x.length; r++) {
+                this.add(x[r], y[r]);
+            }
+        }
+
+        /* Write the remaining rows and the row count. */
+        @Override
+        public void close() {
+            try (FileChannel ch = this.ch) {
+                this.flush();
+                ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                count.putLong(this.rows).flip();
+                ch.write(count, HEADER - Long.BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not finish dataset file", e);
+            }
+        }
+
+        private void put(double v) {
+            if (this.precision.isSingle()) {
+                this.buf.putFloat((float) v);
+            } else {
+                this.buf.putDouble(v);
+            }
+        }
+
+        private void flush() {
+            this.buf.flip();
+            try {
+                this.write(this.buf);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write dataset rows", e);
+            }
+            this.buf.clear();
+        }
+
+        private void write(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                this.ch.write(b);
+            }
+        }
+    }
+}
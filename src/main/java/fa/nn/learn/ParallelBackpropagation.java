@@ -0,0 +1,221 @@
+package fa.nn.learn;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.loss.LossFunction;
+import fa.nn.util.Preconditions;
+
+/*
+ * Synchronous data-parallel gradient computation: each mini-batch is split into
+ * shards that run forward and backward on a ForkJoinPool, each into its own
+ * workspace and gradient buffers. The shard gradients are combined by a tree
+ * reduction and handed to the trainer, so a following step() sees the same sum
+ * as the serial path up to floating-point reassociation.
+ */
+public class ParallelBackpropagation {
+    private static final int MIN_SHARD_SIZE = 32;
+
+    private final NeuralNetwork neuralNetwork;
+    private final Backpropagation backprop;
+    private final LossFunction loss;
+    private final ForkJoinPool pool;
+    private final int workers;
+
+    private int shardCapacity;
+    private Workspace[] workspaces;
+    private double[][][] gradientWeights;
+    private double[][][] gradientBiases;
+    private double[] lossSums;
+    private double[] maxLosses;
+    private double lossSum;
+    private double maxLoss;
+
+    /* Split batches into at most workers shards, run on the given pool. */
+    public ParallelBackpropagation(NeuralNetwork neuralNetwork, LossFunction loss, int workers, ForkJoinPool pool) {
+        Objects.requireNonNull(neuralNetwork, "neuralNetwork");
+        Objects.requireNonNull(loss, "loss");
+        Objects.requireNonNull(pool, "pool");
+        Preconditions.requirePositive(workers, "workers");
+
+        if (neuralNetwork.getPrecision() != Precision.FP64) {
+            throw new IllegalArgumentException("Parallel training requires FP64 precision");
+        }
+
+        this.neuralNetwork = neuralNetwork;
+        this.backprop = new Backpropagation(neuralNetwork, loss);
+        this.loss = loss;
+        this.pool = pool;
+        this.workers = workers;
+    }
+
+    /*
+     * Compute the gradients of rows [from, to) of (x, y) in parallel and add
+     * their sum to the trainer via Trainable#accumulate. The loss of the
+     * batch's forward passes is kept for getLossSum and getMaxLoss.
+     */
+    public void computeBatch(double[][] x, double[][] y, int from, int to, Trainable trainer) {
+        Objects.requireNonNull(x, "x");
+        Objects.requireNonNull(y, "y");
+
+        this.compute(x, y, null, from, to, trainer);
+    }
+
+    /*
+     * Like computeBatch(double[][], double[][], int, int, Trainable) for
+     * training rows [from, to) of d in its current order: every shard stages
+     * its own range straight from the dataset into its workspace, so no rows
+     * are copied onto the heap. d's stage() must be safe to call from several
+     * threads at once, as Dataset's is.
+     */
+    public void computeBatch(Dataset d, int from, int to, Trainable trainer) {
+        Objects.requireNonNull(d, "dataset");
+
+        this.compute(null, null, d, from, to, trainer);
+    }
+
+    /* Run the shards over rows [from, to) of either (x, y) or d. */
+    private void compute(double[][] x, double[][] y, Dataset d, int from, int to, Trainable trainer) {
+        Objects.requireNonNull(trainer, "trainer");
+
+        int n = to - from;
+        this.lossSum = 0.0;
+        this.maxLoss = 0.0;
+        if (n <= 0) {
+            return;
+        }
+
+        int shards = Math.max(1, Math.min(this.workers, n / MIN_SHARD_SIZE));
+        int shardSize = (n + shards - 1) / shards;
+        shards = (n + shardSize - 1) / shardSize;
+
+        this.ensureCapacity(shards, shardSize);
+        this.pool.invoke(new Shard(x, y, d, from, to, shardSize, 0, shards));
+
+        for (int s = 0; s < shards; s++) { // In shard order, so the sum does not depend on scheduling
+            this.lossSum += this.lossSums[s];
+            this.maxLoss = Math.max(this.maxLoss, this.maxLosses[s]);
+        }
+
+        trainer.accumulate(this.gradientWeights[0], this.gradientBiases[0], n);
+    }
+
+    /* Return the summed loss terms of the last batch (see LossFunction#accumulate). */
+    public double getLossSum() {
+        return this.lossSum;
+    }
+
+    /* Return the largest loss of a single sample in the last batch. */
+    public double getMaxLoss() {
+        return this.maxLoss;
+    }
+
+    /* Return the maximum number of shards per batch. */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /* Allocate per-shard buffers unless the current ones are large enough. */
+    private void ensureCapacity(int shards, int shardSize) {
+        if (this.workspaces != null && this.workspaces.length >= shards && this.shardCapacity >= shardSize) {
+            return;
+        }
+
+        Layer[] layers = this.neuralNetwork.getLayers();
+        int count = Math.max(shards, this.workspaces == null ? 0 : this.workspaces.length);
+        this.shardCapacity = Math.max(shardSize, this.shardCapacity);
+
+        this.workspaces = new Workspace[count];
+        this.gradientWeights = new double[count][layers.length][];
+        this.gradientBiases = new double[count][layers.length][];
+        this.lossSums = new double[count];
+        this.maxLosses = new double[count];
+
+        for (int s = 0; s < count; s++) {
+            this.workspaces[s] = this.neuralNetwork.createWorkspace(this.shardCapacity);
+
+            for (int l = 0; l < layers.length; l++) {
+                this.gradientWeights[s][l] = new double[layers[l].getOutputSize() * layers[l].getInputSize()];
+                this.gradientBiases[s][l] = new double[layers[l].getOutputSize()];
+            }
+        }
+    }
+
+    /* Add shard src's gradients into shard dst's. */
+    private void add(int dst, int src) {
+        for (int l = 0; l < this.gradientWeights[dst].length; l++) {
+            double[] gw = this.gradientWeights[dst][l], other = this.gradientWeights[src][l];
+            for (int k = 0; k < gw.length; k++) {
+                gw[k] += other[k];
+            }
+
+            double[] gb = this.gradientBiases[dst][l], otherB = this.gradientBiases[src][l];
+            for (int k = 0; k < gb.length; k++) {
+                gb[k] += otherB[k];
+            }
+        }
+    }
+
+    /*
+     * Computes shards [lo, hi) and leaves their summed gradients in shard lo's
+     * buffers; halves are reduced pairwise as the recursion unwinds.
+     */
+    private class Shard extends RecursiveAction {
+        private final double[][] x;
+        private final double[][] y;
+        private final Dataset d;
+        private final int from;
+        private final int to;
+        private final int shardSize;
+        private final int lo;
+        private final int hi;
+
+        Shard(double[][] x, double[][] y, Dataset d, int from, int to, int shardSize, int lo, int hi) {
+            this.x = x;
+            this.y = y;
+            this.d = d;
+            this.from = from;
+            this.to = to;
+            this.shardSize = shardSize;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo == 1) {
+                int start = this.from + this.lo * this.shardSize;
+                int end = Math.min(start + this.shardSize, this.to);
+
+                double[][] gw = gradientWeights[this.lo], gb = gradientBiases[this.lo];
+                for (int l = 0; l < gw.length; l++) {
+                    Arrays.fill(gw[l], 0.0);
+                    Arrays.fill(gb[l], 0.0);
+                }
+
+                Workspace ws = workspaces[this.lo];
+                int n = this.d != null ? this.d.stage(ws, start, end) : ws.stage(this.x, this.y, start, end);
+                backprop.computeBatch(ws, n, gw, gb);
+                lossSums[this.lo] = ws.scoreLoss(loss, n);
+                maxLosses[this.lo] = ws.getMaxLoss();
+                return;
+            }
+
+            int mid = (this.lo + this.hi) >>> 1;
+            Shard left = new Shard(this.x, this.y, this.d, this.from, this.to, this.shardSize, this.lo, mid);
+            Shard right = new Shard(this.x, this.y, this.d, this.from, this.to, this.shardSize, mid, this.hi);
+
+            left.fork();
+            right.compute();
+            left.join();
+
+            add(this.lo, mid);
+        }
+    }
+}
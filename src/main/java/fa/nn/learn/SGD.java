@@ -1,22 +1,39 @@
 package fa.nn.learn;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.ParameterUpdate;
+import fa.nn.Precision;
+import fa.nn.Workspace;
 import fa.nn.loss.LossFunction;
+import fa.nn.util.BufferOps;
+import fa.nn.util.MatrixOps;
 
 public class SGD implements Trainable {
     private NeuralNetwork neuralNetwork;
     private double learningRate;
+    private Precision precision;
     protected int count;
     protected Backpropagation backprop;
-    protected double[][][] gradientWeights;
+    protected double[][] gradientWeights; // per layer, row-major (out x in)
     protected double[][] gradientBiases;
+    protected float[][] gradientWeights32; // replace the double gradients in single precision
+    protected float[][] gradientBiases32;
+    private double[][] masterWeights; // MIXED only: double copy of the parameters, row-major (out x in)
+    private double[][] masterBiases;
+    private Workspace single; // stages learn() samples in single precision
+    private LayerUpdate[] updates;
+    private double rate; // learning rate over the batch size, set by step()
 
     public SGD(NeuralNetwork neuralNetwork, double learningRate) {
         this.neuralNetwork = neuralNetwork;
         this.count = 0;
         this.learningRate = learningRate;
-        this.reset();
+        this.precision = neuralNetwork.getPrecision();
+        this.allocateBuffers();
     }
 
     @Override
@@ -26,20 +43,74 @@ public class SGD implements Trainable {
 
     @Override
     public void learn(double[] input, double exptectedOutput[]) {
+        if (this.precision.isSingle()) {
+            if (this.single == null) {
+                this.single = this.neuralNetwork.createWorkspace(1);
+            }
+
+            MatrixOps.narrow(input, 0, this.single.getInput32(), 0, input.length);
+            MatrixOps.narrow(exptectedOutput, 0, this.single.getTarget32(), 0, exptectedOutput.length);
+            this.learnBatch(this.single, 1);
+            return;
+        }
+
         this.backprop.compute(input, exptectedOutput, this.gradientWeights, this.gradientBiases);
         this.count++;
     }
 
+    @Override
+    public void learnBatch(double[][] x, double[][] y) {
+        if (this.precision.isSingle()) {
+            if (x.length == 0) {
+                return;
+            }
+
+            Workspace ws = this.neuralNetwork.createWorkspace(x.length);
+            this.learnBatch(ws, ws.stage(x, y, 0, x.length));
+            return;
+        }
+
+        this.backprop.computeBatch(x, y, this.gradientWeights, this.gradientBiases);
+        this.count += x.length;
+    }
+
+    @Override
+    public void learnBatch(Workspace workspace, int n) {
+        if (this.precision.isSingle()) {
+            this.backprop.computeBatch(workspace, n, this.gradientWeights32, this.gradientBiases32);
+        } else {
+            this.backprop.computeBatch(workspace, n, this.gradientWeights, this.gradientBiases);
+        }
+        this.count += n;
+    }
+
+    @Override
+    public void accumulate(double[][] gradientWeights, double[][] gradientBiases, int n) {
+        for (int l = 0; l < gradientWeights.length; l++) {
+            if (this.precision.isSingle()) {
+                add(this.gradientWeights32[l], gradientWeights[l]);
+                add(this.gradientBiases32[l], gradientBiases[l]);
+            } else {
+                add(this.gradientWeights[l], gradientWeights[l]);
+                add(this.gradientBiases[l], gradientBiases[l]);
+            }
+        }
+        this.count += n;
+    }
+
     @Override
     public void step() {
+        if (this.count == 0) {
+            return;
+        }
+
         Layer[] layers = this.neuralNetwork.getLayers();
-        int numLayers = this.neuralNetwork.getNumLayers();
 
-        double scale = 1.0 / this.count;
+        // Fold the batch average into the learning rate instead of scaling copies of the gradients
+        this.rate = this.learningRate / this.count;
 
-        for (int l = 0; l < numLayers; l++) {
-            Layer layer = layers[l];
-            layer.update(this.learningRate, mult(this.gradientWeights[l], scale), mult(this.gradientBiases[l], scale));
+        for (int l = 0; l < layers.length; l++) {
+            layers[l].updateParameters(this.updates[l]);
         }
 
         this.reset();
@@ -47,38 +118,171 @@ public class SGD implements Trainable {
 
     @Override
     public void reset() {
+        for (int l = 0; l < this.neuralNetwork.getNumLayers(); l++) {
+            if (this.precision.isSingle()) {
+                Arrays.fill(this.gradientWeights32[l], 0f);
+                Arrays.fill(this.gradientBiases32[l], 0f);
+            } else {
+                Arrays.fill(this.gradientWeights[l], 0.0);
+                Arrays.fill(this.gradientBiases[l], 0.0);
+            }
+        }
+
+        this.count = 0;
+    }
+
+    /* Only MIXED keeps state between steps: the double master weights and biases. */
+    @Override
+    public int stateSize() {
+        if (this.precision != Precision.MIXED) {
+            return 0;
+        }
+        return (BufferOps.length(this.masterWeights) + BufferOps.length(this.masterBiases)) * Double.BYTES;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        if (this.precision == Precision.MIXED) {
+            BufferOps.putAll(out, this.masterWeights);
+            BufferOps.putAll(out, this.masterBiases);
+        }
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        if (this.precision == Precision.MIXED) {
+            BufferOps.getAll(in, this.masterWeights);
+            BufferOps.getAll(in, this.masterBiases);
+        }
+    }
+
+    @Override
+    public void resetState() {
+        if (this.precision == Precision.MIXED) {
+            Layer[] layers = this.neuralNetwork.getLayers();
+            for (int l = 0; l < layers.length; l++) {
+                this.masterWeights[l] = masterWeights(layers[l]);
+                this.masterBiases[l] = masterBiases(layers[l]);
+            }
+        }
+        this.reset();
+    }
+
+    private void allocateBuffers() {
         Layer[] layers = this.neuralNetwork.getLayers();
         int numLayers = this.neuralNetwork.getNumLayers();
-        this.gradientWeights = new double[numLayers][][];
-        this.gradientBiases = new double[numLayers][];
+
+        if (this.precision.isSingle()) {
+            this.gradientWeights32 = new float[numLayers][];
+            this.gradientBiases32 = new float[numLayers][];
+        } else {
+            this.gradientWeights = new double[numLayers][];
+            this.gradientBiases = new double[numLayers][];
+        }
+
+        if (this.precision == Precision.MIXED) {
+            this.masterWeights = new double[numLayers][];
+            this.masterBiases = new double[numLayers][];
+        }
+
+        this.updates = new LayerUpdate[numLayers];
 
         for (int l = 0; l < numLayers; l++) {
             Layer layer = layers[l];
             int out = layer.getOutputSize();
             int in = layer.getInputSize();
 
-            this.gradientWeights[l] = new double[out][in];
-            this.gradientBiases[l] = new double[out];
+            if (this.precision.isSingle()) {
+                this.gradientWeights32[l] = new float[out * in];
+                this.gradientBiases32[l] = new float[out];
+            } else {
+                this.gradientWeights[l] = new double[out * in];
+                this.gradientBiases[l] = new double[out];
+            }
+
+            if (this.precision == Precision.MIXED) {
+                this.masterWeights[l] = masterWeights(layer);
+                this.masterBiases[l] = masterBiases(layer);
+            }
+
+            this.updates[l] = new LayerUpdate(l);
         }
 
         this.count = 0;
     }
 
-    private double[] mult(double[] a, double scale) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = scale * a[i];
+    /* Row-major double copy of a single-precision layer's weights. */
+    static double[] masterWeights(Layer layer) {
+        int in = layer.getInputSize();
+        double[] master = new double[layer.getOutputSize() * in];
+        for (int j = 0; j < layer.getOutputSize(); j++) {
+            MatrixOps.widen(layer.getWeightData32(), j * layer.getStride(), master, j * in, in);
+        }
+        return master;
+    }
+
+    /* Double copy of a single-precision layer's biases. */
+    static double[] masterBiases(Layer layer) {
+        double[] master = new double[layer.getOutputSize()];
+        MatrixOps.widen(layer.getBiases32(), 0, master, 0, master.length);
+        return master;
+    }
+
+    private void add(double[] target, double[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] += source[i];
+        }
+    }
+
+    private void add(float[] target, double[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] += (float) source[i];
+        }
+    }
+
+    /* MIXED: step the double master copy and round the result into the layer. */
+    private void stepMaster(float[] params, int offset, double[] master, float[] gradient, int index, int n) {
+        for (int k = 0; k < n; k++) {
+            double p = master[index + k] - this.rate * gradient[index + k];
+            master[index + k] = p;
+            params[offset + k] = (float) p;
         }
-        return result;
     }
 
-    private double[][] mult(double[][] a, double scale) {
-        double[][] result = new double[a.length][a[0].length];
-        for (int i = 0; i < a.length; i++) {
-            for (int j = 0; j < a[0].length; j++) {
-                result[i][j] = scale * a[i][j];
+    /* Writes w -= rate * g straight into layer l's parameter storage. */
+    private class LayerUpdate implements ParameterUpdate {
+        private final int l;
+
+        LayerUpdate(int l) {
+            this.l = l;
+        }
+
+        @Override
+        public void weights(double[] weights, int offset, int index, int n) {
+            MatrixOps.axpy(-rate, gradientWeights[this.l], index, weights, offset, n);
+        }
+
+        @Override
+        public void biases(double[] biases, int n) {
+            MatrixOps.axpy(-rate, gradientBiases[this.l], 0, biases, 0, n);
+        }
+
+        @Override
+        public void weights(float[] weights, int offset, int index, int n) {
+            if (masterWeights != null) {
+                stepMaster(weights, offset, masterWeights[this.l], gradientWeights32[this.l], index, n);
+            } else {
+                MatrixOps.axpy((float) -rate, gradientWeights32[this.l], index, weights, offset, n);
+            }
+        }
+
+        @Override
+        public void biases(float[] biases, int n) {
+            if (masterBiases != null) {
+                stepMaster(biases, 0, masterBiases[this.l], gradientBiases32[this.l], 0, n);
+            } else {
+                MatrixOps.axpy((float) -rate, gradientBiases32[this.l], 0, biases, 0, n);
             }
         }
-        return result;
     }
 }
@@ -1,13 +1,57 @@
 package fa.nn.learn;
 
+import java.nio.ByteBuffer;
+
+import fa.nn.Workspace;
 import fa.nn.loss.LossFunction;
 
 public interface Trainable {
     void learn(double[] input, double exptectedOutput[]);
 
+    /* Accumulate gradients for a whole mini-batch (one row per sample). */
+    void learnBatch(double[][] x, double[][] y);
+
+    /*
+     * Accumulate gradients for the first n samples staged in the workspace's
+     * input/target buffers without allocating.
+     */
+    void learnBatch(Workspace workspace, int n);
+
+    /*
+     * Add gradients summed over n samples elsewhere (e.g. by parallel workers)
+     * to the accumulated gradients; weight gradients are row-major per layer.
+     */
+    void accumulate(double[][] gradientWeights, double[][] gradientBiases, int n);
+
     void step();
 
     void reset();
 
     void setLoss(LossFunction loss);
+
+    /*
+     * Return the size in bytes of the optimizer state saveState writes (e.g.
+     * Adam moments), or 0 for a trainer that keeps none between steps.
+     */
+    default int stateSize() {
+        return 0;
+    }
+
+    /* Write stateSize() bytes of optimizer state at the buffer's position. */
+    default void saveState(ByteBuffer out) {
+    }
+
+    /*
+     * Restore state written by saveState of the same trainer type for a network
+     * of the same topology and precision.
+     */
+    default void loadState(ByteBuffer in) {
+    }
+
+    /*
+     * Discard optimizer state after the network's parameters were replaced,
+     * so training restarts from the new parameters.
+     */
+    default void resetState() {
+    }
 }
@@ -4,4 +4,16 @@ public interface LossFunction {
     double loss(double[] predicted, double[] expected);
 
     double derivative(double predicted, double expected);
-}
\ No newline at end of file
+
+    /*
+     * Streaming form of loss: add the terms of predicted[pOff, pOff + n)
+     * against expected[eOff, eOff + n) to the running sum and return it.
+     * Sums of disjoint ranges may be added together; result turns the total
+     * over count values into the loss. Together they avoid gathering all
+     * predictions into one array.
+     */
+    double accumulate(double sum, double[] predicted, int pOff, double[] expected, int eOff, int n);
+
+    /* Return the loss given the accumulated sum over count values. */
+    double result(double sum, long count);
+}
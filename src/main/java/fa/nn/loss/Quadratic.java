@@ -3,16 +3,25 @@ package fa.nn.loss;
 public class Quadratic implements LossFunction {
     @Override
     public double loss(double[] predicted, double[] expected) {
-        double sum = 0.0;
-        for (int i = 0; i < predicted.length; i++) {
-            double diff = predicted[i] - expected[i];
+        return this.result(this.accumulate(0.0, predicted, 0, expected, 0, predicted.length), predicted.length);
+    }
+
+    @Override
+    public double derivative(double predicted, double expected) {
+        return predicted - expected;
+    }
+
+    @Override
+    public double accumulate(double sum, double[] predicted, int pOff, double[] expected, int eOff, int n) {
+        for (int i = 0; i < n; i++) {
+            double diff = predicted[pOff + i] - expected[eOff + i];
             sum += 0.5 * diff * diff;
         }
         return sum;
     }
 
     @Override
-    public double derivative(double predicted, double expected) {
-        return predicted - expected;
+    public double result(double sum, long count) {
+        return sum;
     }
 }
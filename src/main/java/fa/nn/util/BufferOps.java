@@ -0,0 +1,100 @@
+package fa.nn.util;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/*
+ * Bulk transfers between primitive arrays and byte buffers. Each call copies a
+ * whole run through a view buffer in the byte buffer's order and advances its
+ * position past the run, so a model is written and read one array at a time
+ * instead of one number at a time.
+ */
+public class BufferOps {
+    /* Write a[off, off + n) at the buffer's position. */
+    public static void put(ByteBuffer buf, double[] a, int off, int n) {
+        buf.asDoubleBuffer().put(a, off, n);
+        buf.position(buf.position() + n * Double.BYTES);
+    }
+
+    /* Read n doubles at the buffer's position into a[off, off + n). */
+    public static void get(ByteBuffer buf, double[] a, int off, int n) {
+        buf.asDoubleBuffer().get(a, off, n);
+        buf.position(buf.position() + n * Double.BYTES);
+    }
+
+    /* float variant of put. */
+    public static void put(ByteBuffer buf, float[] a, int off, int n) {
+        buf.asFloatBuffer().put(a, off, n);
+        buf.position(buf.position() + n * Float.BYTES);
+    }
+
+    /* float variant of get. */
+    public static void get(ByteBuffer buf, float[] a, int off, int n) {
+        buf.asFloatBuffer().get(a, off, n);
+        buf.position(buf.position() + n * Float.BYTES);
+    }
+
+    /* Write src[off, off + n) at the buffer's position. */
+    public static void put(ByteBuffer buf, DoubleBuffer src, int off, int n) {
+        buf.asDoubleBuffer().put(0, src, off, n);
+        buf.position(buf.position() + n * Double.BYTES);
+    }
+
+    /* float variant of put(ByteBuffer, DoubleBuffer, int, int). */
+    public static void put(ByteBuffer buf, FloatBuffer src, int off, int n) {
+        buf.asFloatBuffer().put(0, src, off, n);
+        buf.position(buf.position() + n * Float.BYTES);
+    }
+
+    /* Write every array of a in order. */
+    public static void putAll(ByteBuffer buf, double[][] a) {
+        for (double[] row : a) {
+            put(buf, row, 0, row.length);
+        }
+    }
+
+    /* Fill every array of a in order. */
+    public static void getAll(ByteBuffer buf, double[][] a) {
+        for (double[] row : a) {
+            get(buf, row, 0, row.length);
+        }
+    }
+
+    /* float variant of putAll. */
+    public static void putAll(ByteBuffer buf, float[][] a) {
+        for (float[] row : a) {
+            put(buf, row, 0, row.length);
+        }
+    }
+
+    /* float variant of getAll. */
+    public static void getAll(ByteBuffer buf, float[][] a) {
+        for (float[] row : a) {
+            get(buf, row, 0, row.length);
+        }
+    }
+
+    /* Return the total number of elements in a. */
+    public static int length(double[][] a) {
+        int n = 0;
+        for (double[] row : a) {
+            n += row.length;
+        }
+        return n;
+    }
+
+    /* float variant of length. */
+    public static int length(float[][] a) {
+        int n = 0;
+        for (float[] row : a) {
+            n += row.length;
+        }
+        return n;
+    }
+
+    /* Round n up to a multiple of eight. */
+    public static int align8(int n) {
+        return (n + 7) & ~7;
+    }
+}
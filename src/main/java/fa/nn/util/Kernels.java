@@ -0,0 +1,48 @@
+package fa.nn.util;
+
+/*
+ * Numeric kernels behind MatrixOps. Matrices are row-major in flat arrays:
+ * element (r, c) of a matrix with leading dimension ld lives at r * ld + c.
+ */
+public interface Kernels {
+    /* C[m x n] += A[m x k] · B[n x k]ᵀ */
+    void multiplyTransposed(double[] a, int lda, double[] b, int ldb, double[] c, int ldc, int m, int n, int k);
+
+    /* C[m x n] += A[m x k] · B[k x n] */
+    void multiply(double[] a, int lda, double[] b, int ldb, double[] c, int ldc, int m, int n, int k);
+
+    /* C[m x n] += A[k x m]ᵀ · B[k x n] */
+    void multiplyTransposedA(double[] a, int lda, double[] b, int ldb, double[] c, int ldc, int m, int n, int k);
+
+    /* v[n] += column sums of A[m x n] */
+    void addColumnSums(double[] a, int lda, double[] v, int m, int n);
+
+    /* y[yOff, yOff + n) += alpha * x[xOff, xOff + n) */
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n);
+
+    /*
+     * Fused Adam update over n elements in one pass: with g' = g * gradientScale,
+     * update the moments m and v in place and subtract
+     * learningRate * m̂ / (√v̂ + epsilon) from w[wOff, wOff + n). g, m and v are
+     * read from off.
+     */
+    void adam(double[] w, int wOff, double[] g, double[] m, double[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon);
+
+    /* float variants of the kernels above */
+
+    void multiplyTransposed(float[] a, int lda, float[] b, int ldb, float[] c, int ldc, int m, int n, int k);
+
+    void multiply(float[] a, int lda, float[] b, int ldb, float[] c, int ldc, int m, int n, int k);
+
+    void multiplyTransposedA(float[] a, int lda, float[] b, int ldb, float[] c, int ldc, int m, int n, int k);
+
+    void addColumnSums(float[] a, int lda, float[] v, int m, int n);
+
+    void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n);
+
+    void adam(float[] w, int wOff, float[] g, float[] m, float[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon);
+}
@@ -0,0 +1,276 @@
+package fa.nn.util;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/*
+ * Dense kernels over row-major matrices stored in flat arrays. Element (r, c)
+ * of a matrix with leading dimension ld lives at r * ld + c.
+ *
+ * The implementation is chosen once at startup: SIMD kernels on the JDK Vector
+ * API when the jdk.incubator.vector module is present (run with
+ * --add-modules jdk.incubator.vector), scalar kernels otherwise. Setting the
+ * system property fa.nn.simd=false forces the scalar kernels.
+ */
+public class MatrixOps {
+    private static final Kernels SCALAR = new ScalarKernels();
+    private static final Kernels VECTOR = loadVectorKernels();
+    private static final Kernels KERNELS = (VECTOR != null && !"false".equals(System.getProperty("fa.nn.simd")))
+            ? VECTOR
+            : SCALAR;
+
+    // Rows of a buffer-backed B staged on the heap per kernel call
+    private static final int BUFFER_TILE = 64;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /*
+     * C[m x n] += A[m x k] · B[n x k]ᵀ, blocked so a tile of B stays in cache
+     * while it is reused across a tile of A's rows; four rows of A share each
+     * load of a B row.
+     */
+    public static void multiplyTransposed(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiplyTransposed(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /*
+     * C[m x n] += A[m x k] · B[k x n]. Each element of A scales a contiguous row
+     * of B into a contiguous row of C.
+     */
+    public static void multiply(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiply(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /*
+     * C[m x n] += A[k x m]ᵀ · B[k x n], i.e. a sum of k outer products. Blocked
+     * over C's rows so the tile being accumulated stays in cache while the k
+     * rows of A and B stream past.
+     */
+    public static void multiplyTransposedA(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiplyTransposedA(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /* v[n] += column sums of A[m x n]. */
+    public static void addColumnSums(double[] a, int lda, double[] v, int m, int n) {
+        KERNELS.addColumnSums(a, lda, v, m, n);
+    }
+
+    /* y[yOff, yOff + n) += alpha * x[xOff, xOff + n). */
+    public static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        KERNELS.axpy(alpha, x, xOff, y, yOff, n);
+    }
+
+    /*
+     * Fused Adam update of w[wOff, wOff + n) from g, m and v at off; see
+     * Kernels#adam.
+     */
+    public static void adam(double[] w, int wOff, double[] g, double[] m, double[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        KERNELS.adam(w, wOff, g, m, v, off, n, gradientScale, beta1, beta2, learningRate, biasCorr1, biasCorr2,
+                epsilon);
+    }
+
+    /* Fill each of the m rows of C[m x n] with the vector v. */
+    public static void broadcastRows(double[] v, double[] c, int ldc, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(v, 0, c, i * ldc, n);
+        }
+    }
+
+    /*
+     * multiplyTransposed with B in a buffer, e.g. off-heap or memory-mapped
+     * parameters. Tiles of B's rows are copied into thread-local heap scratch
+     * and multiplied by the array kernels into a zeroed tile of C that is then
+     * added to C, so every element receives exactly the sum the array variant
+     * adds and the results are identical. Every call thus copies all of B
+     * through the heap once, plus a pass over C; the scratch, not B, is what
+     * stays on the heap. Reading B in place would need MemorySegment loads in
+     * the SIMD kernels, a preview API on JDK 21.
+     */
+    public static void multiplyTransposed(double[] a, int lda, DoubleBuffer b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        Scratch scratch = SCRATCH.get();
+        for (int j0 = 0; j0 < n; j0 += BUFFER_TILE) {
+            int rows = Math.min(BUFFER_TILE, n - j0);
+            double[] tileB = scratch.tileB(rows * k);
+            double[] tileC = scratch.tileC(m * rows);
+
+            for (int j = 0; j < rows; j++) {
+                b.get((j0 + j) * ldb, tileB, j * k, k);
+            }
+            Arrays.fill(tileC, 0, m * rows, 0.0);
+            KERNELS.multiplyTransposed(a, lda, tileB, k, tileC, rows, m, rows, k);
+
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < rows; j++) {
+                    c[i * ldc + j0 + j] += tileC[i * rows + j];
+                }
+            }
+        }
+    }
+
+    /* Fill each of the m rows of C[m x n] with the first n values of the buffer v. */
+    public static void broadcastRows(DoubleBuffer v, double[] c, int ldc, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            v.get(0, c, i * ldc, n);
+        }
+    }
+
+    /* float variant of multiplyTransposed. */
+    public static void multiplyTransposed(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiplyTransposed(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /* float variant of multiply. */
+    public static void multiply(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiply(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /* float variant of multiplyTransposedA. */
+    public static void multiplyTransposedA(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        KERNELS.multiplyTransposedA(a, lda, b, ldb, c, ldc, m, n, k);
+    }
+
+    /* float variant of addColumnSums. */
+    public static void addColumnSums(float[] a, int lda, float[] v, int m, int n) {
+        KERNELS.addColumnSums(a, lda, v, m, n);
+    }
+
+    /* float variant of axpy. */
+    public static void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n) {
+        KERNELS.axpy(alpha, x, xOff, y, yOff, n);
+    }
+
+    /* float variant of adam. */
+    public static void adam(float[] w, int wOff, float[] g, float[] m, float[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        KERNELS.adam(w, wOff, g, m, v, off, n, gradientScale, beta1, beta2, learningRate, biasCorr1, biasCorr2,
+                epsilon);
+    }
+
+    /* float variant of broadcastRows. */
+    public static void broadcastRows(float[] v, float[] c, int ldc, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(v, 0, c, i * ldc, n);
+        }
+    }
+
+    /* float variant of multiplyTransposed over a buffer. */
+    public static void multiplyTransposed(float[] a, int lda, FloatBuffer b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        Scratch scratch = SCRATCH.get();
+        for (int j0 = 0; j0 < n; j0 += BUFFER_TILE) {
+            int rows = Math.min(BUFFER_TILE, n - j0);
+            float[] tileB = scratch.tileB32(rows * k);
+            float[] tileC = scratch.tileC32(m * rows);
+
+            for (int j = 0; j < rows; j++) {
+                b.get((j0 + j) * ldb, tileB, j * k, k);
+            }
+            Arrays.fill(tileC, 0, m * rows, 0f);
+            KERNELS.multiplyTransposed(a, lda, tileB, k, tileC, rows, m, rows, k);
+
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < rows; j++) {
+                    c[i * ldc + j0 + j] += tileC[i * rows + j];
+                }
+            }
+        }
+    }
+
+    /* float variant of broadcastRows over a buffer. */
+    public static void broadcastRows(FloatBuffer v, float[] c, int ldc, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            v.get(0, c, i * ldc, n);
+        }
+    }
+
+    /* Round src[srcOff, srcOff + n) into dst[dstOff, dstOff + n). */
+    public static void narrow(double[] src, int srcOff, float[] dst, int dstOff, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[dstOff + i] = (float) src[srcOff + i];
+        }
+    }
+
+    /* Widen src[srcOff, srcOff + n) into dst[dstOff, dstOff + n). */
+    public static void widen(float[] src, int srcOff, double[] dst, int dstOff, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[dstOff + i] = src[srcOff + i];
+        }
+    }
+
+    /* Return the kernels in use. */
+    public static Kernels kernels() {
+        return KERNELS;
+    }
+
+    /* Return the scalar kernels. */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    /* Return the SIMD kernels, or null when the Vector API is unavailable. */
+    public static Kernels vector() {
+        return VECTOR;
+    }
+
+    /*
+     * Load VectorKernels reflectively so that this class still links when the
+     * incubator module is not resolved.
+     */
+    private static Kernels loadVectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+
+        try {
+            return (Kernels) Class.forName("fa.nn.util.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /* Per-thread heap tiles for the buffer kernels, grown on demand. */
+    private static class Scratch {
+        private double[] tileB = new double[0];
+        private double[] tileC = new double[0];
+        private float[] tileB32 = new float[0];
+        private float[] tileC32 = new float[0];
+
+        double[] tileB(int n) {
+            if (this.tileB.length < n) {
+                this.tileB = new double[n];
+            }
+            return this.tileB;
+        }
+
+        double[] tileC(int n) {
+            if (this.tileC.length < n) {
+                this.tileC = new double[n];
+            }
+            return this.tileC;
+        }
+
+        float[] tileB32(int n) {
+            if (this.tileB32.length < n) {
+                this.tileB32 = new float[n];
+            }
+            return this.tileB32;
+        }
+
+        float[] tileC32(int n) {
+            if (this.tileC32.length < n) {
+                this.tileC32 = new float[n];
+            }
+            return this.tileC32;
+        }
+    }
+}
@@ -21,6 +21,12 @@ public class Preconditions {
         }
     }
 
+    public static void requirePositiveOrZero(long v, String name) {
+        if (v < 0) {
+            throw new IllegalArgumentException(name + " must be ≥ 0; got " + v);
+        }
+    }
+
     public static void requireMatrix(double[][] m, int rows, int cols, String name) {
         Objects.requireNonNull(m, name);
         if (m.length != rows) {
@@ -42,6 +48,27 @@ public class Preconditions {
         }
     }
 
+    public static void requireCapacity(double[] v, int len, String name) {
+        Objects.requireNonNull(v, name);
+        if (v.length < len) {
+            throw new IllegalArgumentException(name + " length " + v.length + " < required " + len);
+        }
+    }
+
+    public static void requireVector(float[] v, int len, String name) {
+        Objects.requireNonNull(v, name);
+        if (v.length != len) {
+            throw new IllegalArgumentException(name + " length " + v.length + " != expected " + len);
+        }
+    }
+
+    public static void requireCapacity(float[] v, int len, String name) {
+        Objects.requireNonNull(v, name);
+        if (v.length < len) {
+            throw new IllegalArgumentException(name + " length " + v.length + " < required " + len);
+        }
+    }
+
     public static String shape(int rows, int cols) {
         return "(" + rows + "x" + cols + ")";
     }
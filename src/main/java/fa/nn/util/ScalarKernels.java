@@ -0,0 +1,278 @@
+package fa.nn.util;
+
+/* Portable scalar kernels; always available. */
+class ScalarKernels implements Kernels {
+    static final int BLOCK_ROWS = 64;
+    static final int BLOCK_COLS = 64;
+
+    /*
+     * C[m x n] += A[m x k] · B[n x k]ᵀ, blocked so a tile of B stays in cache
+     * while it is reused across a tile of A's rows; four rows of A share each
+     * load of a B row.
+     */
+    @Override
+    public void multiplyTransposed(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int j0 = 0; j0 < n; j0 += BLOCK_COLS) {
+                int jEnd = Math.min(j0 + BLOCK_COLS, n);
+
+                int i = i0;
+                for (; i + 3 < iEnd; i += 4) {
+                    int a0 = i * lda, a1 = a0 + lda, a2 = a1 + lda, a3 = a2 + lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+                        for (int p = 0; p < k; p++) {
+                            double bv = b[bj + p];
+                            s0 += a[a0 + p] * bv;
+                            s1 += a[a1 + p] * bv;
+                            s2 += a[a2 + p] * bv;
+                            s3 += a[a3 + p] * bv;
+                        }
+
+                        c[i * ldc + j] += s0;
+                        c[(i + 1) * ldc + j] += s1;
+                        c[(i + 2) * ldc + j] += s2;
+                        c[(i + 3) * ldc + j] += s3;
+                    }
+                }
+
+                for (; i < iEnd; i++) {
+                    int ai = i * lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        double s = 0;
+
+                        for (int p = 0; p < k; p++) {
+                            s += a[ai + p] * b[bj + p];
+                        }
+
+                        c[i * ldc + j] += s;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * C[m x n] += A[m x k] · B[k x n]. Each element of A scales a contiguous row
+     * of B into a contiguous row of C.
+     */
+    @Override
+    public void multiply(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda, ci = i * ldc;
+
+            for (int p = 0; p < k; p++) {
+                double av = a[ai + p];
+                if (av == 0.0) {
+                    continue;
+                }
+
+                int bp = p * ldb;
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] += av * b[bp + j];
+                }
+            }
+        }
+    }
+
+    /*
+     * C[m x n] += A[k x m]ᵀ · B[k x n], i.e. a sum of k outer products. Blocked
+     * over C's rows so the tile being accumulated stays in cache while the k
+     * rows of A and B stream past.
+     */
+    @Override
+    public void multiplyTransposedA(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int p = 0; p < k; p++) {
+                int ap = p * lda, bp = p * ldb;
+
+                for (int i = i0; i < iEnd; i++) {
+                    double av = a[ap + i];
+                    if (av == 0.0) {
+                        continue;
+                    }
+
+                    int ci = i * ldc;
+                    for (int j = 0; j < n; j++) {
+                        c[ci + j] += av * b[bp + j];
+                    }
+                }
+            }
+        }
+    }
+
+    /* v[n] += column sums of A[m x n]. */
+    @Override
+    public void addColumnSums(double[] a, int lda, double[] v, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda;
+            for (int j = 0; j < n; j++) {
+                v[j] += a[ai + j];
+            }
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void adam(double[] w, int wOff, double[] g, double[] m, double[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        for (int k = 0; k < n; k++) {
+            int i = off + k;
+            double gk = g[i] * gradientScale;
+            double mk = beta1 * m[i] + (1.0 - beta1) * gk;
+            double vk = beta2 * v[i] + (1.0 - beta2) * (gk * gk);
+            m[i] = mk;
+            v[i] = vk;
+
+            w[wOff + k] -= learningRate * (mk / biasCorr1) / (Math.sqrt(vk / biasCorr2) + epsilon);
+        }
+    }
+
+    // float variants of the kernels above
+
+    @Override
+    public void multiplyTransposed(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int j0 = 0; j0 < n; j0 += BLOCK_COLS) {
+                int jEnd = Math.min(j0 + BLOCK_COLS, n);
+
+                int i = i0;
+                for (; i + 3 < iEnd; i += 4) {
+                    int a0 = i * lda, a1 = a0 + lda, a2 = a1 + lda, a3 = a2 + lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+                        for (int p = 0; p < k; p++) {
+                            float bv = b[bj + p];
+                            s0 += a[a0 + p] * bv;
+                            s1 += a[a1 + p] * bv;
+                            s2 += a[a2 + p] * bv;
+                            s3 += a[a3 + p] * bv;
+                        }
+
+                        c[i * ldc + j] += s0;
+                        c[(i + 1) * ldc + j] += s1;
+                        c[(i + 2) * ldc + j] += s2;
+                        c[(i + 3) * ldc + j] += s3;
+                    }
+                }
+
+                for (; i < iEnd; i++) {
+                    int ai = i * lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        float s = 0;
+
+                        for (int p = 0; p < k; p++) {
+                            s += a[ai + p] * b[bj + p];
+                        }
+
+                        c[i * ldc + j] += s;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void multiply(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda, ci = i * ldc;
+
+            for (int p = 0; p < k; p++) {
+                float av = a[ai + p];
+                if (av == 0.0) {
+                    continue;
+                }
+
+                int bp = p * ldb;
+                for (int j = 0; j < n; j++) {
+                    c[ci + j] += av * b[bp + j];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void multiplyTransposedA(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int p = 0; p < k; p++) {
+                int ap = p * lda, bp = p * ldb;
+
+                for (int i = i0; i < iEnd; i++) {
+                    float av = a[ap + i];
+                    if (av == 0.0) {
+                        continue;
+                    }
+
+                    int ci = i * ldc;
+                    for (int j = 0; j < n; j++) {
+                        c[ci + j] += av * b[bp + j];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addColumnSums(float[] a, int lda, float[] v, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda;
+            for (int j = 0; j < n; j++) {
+                v[j] += a[ai + j];
+            }
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void adam(float[] w, int wOff, float[] g, float[] m, float[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        for (int k = 0; k < n; k++) {
+            int i = off + k;
+            double gk = g[i] * gradientScale;
+            double mk = beta1 * m[i] + (1.0 - beta1) * gk;
+            double vk = beta2 * v[i] + (1.0 - beta2) * (gk * gk);
+            m[i] = (float) mk;
+            v[i] = (float) vk;
+
+            w[wOff + k] -= (float) (learningRate * (mk / biasCorr1) / (Math.sqrt(vk / biasCorr2) + epsilon));
+        }
+    }
+}
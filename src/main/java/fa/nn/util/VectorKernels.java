@@ -0,0 +1,353 @@
+package fa.nn.util;
+
+import static fa.nn.util.ScalarKernels.BLOCK_COLS;
+import static fa.nn.util.ScalarKernels.BLOCK_ROWS;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * SIMD kernels on the JDK Vector API (jdk.incubator.vector). Only loaded by
+ * MatrixOps when the module is present, so nothing else may reference this
+ * class directly. Loops run vector-wide and finish the tail with scalars.
+ */
+class VectorKernels implements Kernels {
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void multiplyTransposed(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        int upper = S.loopBound(k);
+
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int j0 = 0; j0 < n; j0 += BLOCK_COLS) {
+                int jEnd = Math.min(j0 + BLOCK_COLS, n);
+
+                int i = i0;
+                for (; i + 3 < iEnd; i += 4) {
+                    int a0 = i * lda, a1 = a0 + lda, a2 = a1 + lda, a3 = a2 + lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        DoubleVector v0 = DoubleVector.zero(S), v1 = v0, v2 = v0, v3 = v0;
+
+                        int p = 0;
+                        for (; p < upper; p += S.length()) {
+                            DoubleVector bv = DoubleVector.fromArray(S, b, bj + p);
+                            v0 = DoubleVector.fromArray(S, a, a0 + p).fma(bv, v0);
+                            v1 = DoubleVector.fromArray(S, a, a1 + p).fma(bv, v1);
+                            v2 = DoubleVector.fromArray(S, a, a2 + p).fma(bv, v2);
+                            v3 = DoubleVector.fromArray(S, a, a3 + p).fma(bv, v3);
+                        }
+
+                        double s0 = v0.reduceLanes(VectorOperators.ADD);
+                        double s1 = v1.reduceLanes(VectorOperators.ADD);
+                        double s2 = v2.reduceLanes(VectorOperators.ADD);
+                        double s3 = v3.reduceLanes(VectorOperators.ADD);
+
+                        for (; p < k; p++) {
+                            double bv = b[bj + p];
+                            s0 += a[a0 + p] * bv;
+                            s1 += a[a1 + p] * bv;
+                            s2 += a[a2 + p] * bv;
+                            s3 += a[a3 + p] * bv;
+                        }
+
+                        c[i * ldc + j] += s0;
+                        c[(i + 1) * ldc + j] += s1;
+                        c[(i + 2) * ldc + j] += s2;
+                        c[(i + 3) * ldc + j] += s3;
+                    }
+                }
+
+                for (; i < iEnd; i++) {
+                    int ai = i * lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        c[i * ldc + j] += dot(a, ai, b, j * ldb, k, upper);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void multiply(double[] a, int lda, double[] b, int ldb, double[] c, int ldc, int m, int n, int k) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda, ci = i * ldc;
+
+            for (int p = 0; p < k; p++) {
+                double av = a[ai + p];
+                if (av == 0.0) {
+                    continue;
+                }
+
+                this.axpy(av, b, p * ldb, c, ci, n);
+            }
+        }
+    }
+
+    @Override
+    public void multiplyTransposedA(double[] a, int lda, double[] b, int ldb, double[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int p = 0; p < k; p++) {
+                int ap = p * lda, bp = p * ldb;
+
+                for (int i = i0; i < iEnd; i++) {
+                    double av = a[ap + i];
+                    if (av == 0.0) {
+                        continue;
+                    }
+
+                    this.axpy(av, b, bp, c, i * ldc, n);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addColumnSums(double[] a, int lda, double[] v, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            this.axpy(1.0, a, i * lda, v, 0, n);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        DoubleVector av = DoubleVector.broadcast(S, alpha);
+        int upper = S.loopBound(n);
+
+        int i = 0;
+        for (; i < upper; i += S.length()) {
+            DoubleVector yv = DoubleVector.fromArray(S, y, yOff + i);
+            DoubleVector.fromArray(S, x, xOff + i).fma(av, yv).intoArray(y, yOff + i);
+        }
+
+        for (; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void adam(double[] w, int wOff, double[] g, double[] m, double[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        int upper = S.loopBound(n);
+
+        int k = 0;
+        for (; k < upper; k += S.length()) {
+            int i = off + k;
+            DoubleVector gv = DoubleVector.fromArray(S, g, i).mul(gradientScale);
+            DoubleVector mv = DoubleVector.fromArray(S, m, i).mul(beta1).add(gv.mul(1.0 - beta1));
+            DoubleVector vv = DoubleVector.fromArray(S, v, i).mul(beta2).add(gv.mul(gv).mul(1.0 - beta2));
+
+            mv.intoArray(m, i);
+            vv.intoArray(v, i);
+
+            DoubleVector step = mv.div(biasCorr1).mul(learningRate)
+                    .div(vv.div(biasCorr2).lanewise(VectorOperators.SQRT).add(epsilon));
+            DoubleVector.fromArray(S, w, wOff + k).sub(step).intoArray(w, wOff + k);
+        }
+
+        for (; k < n; k++) {
+            int i = off + k;
+            double gk = g[i] * gradientScale;
+            m[i] = beta1 * m[i] + (1.0 - beta1) * gk;
+            v[i] = beta2 * v[i] + (1.0 - beta2) * (gk * gk);
+
+            w[wOff + k] -= learningRate * (m[i] / biasCorr1) / (Math.sqrt(v[i] / biasCorr2) + epsilon);
+        }
+    }
+
+    // float variants; a FloatVector holds twice as many lanes as a DoubleVector
+
+    @Override
+    public void multiplyTransposed(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        int upper = F.loopBound(k);
+
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int j0 = 0; j0 < n; j0 += BLOCK_COLS) {
+                int jEnd = Math.min(j0 + BLOCK_COLS, n);
+
+                int i = i0;
+                for (; i + 3 < iEnd; i += 4) {
+                    int a0 = i * lda, a1 = a0 + lda, a2 = a1 + lda, a3 = a2 + lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = j * ldb;
+                        FloatVector v0 = FloatVector.zero(F), v1 = v0, v2 = v0, v3 = v0;
+
+                        int p = 0;
+                        for (; p < upper; p += F.length()) {
+                            FloatVector bv = FloatVector.fromArray(F, b, bj + p);
+                            v0 = FloatVector.fromArray(F, a, a0 + p).fma(bv, v0);
+                            v1 = FloatVector.fromArray(F, a, a1 + p).fma(bv, v1);
+                            v2 = FloatVector.fromArray(F, a, a2 + p).fma(bv, v2);
+                            v3 = FloatVector.fromArray(F, a, a3 + p).fma(bv, v3);
+                        }
+
+                        float s0 = v0.reduceLanes(VectorOperators.ADD);
+                        float s1 = v1.reduceLanes(VectorOperators.ADD);
+                        float s2 = v2.reduceLanes(VectorOperators.ADD);
+                        float s3 = v3.reduceLanes(VectorOperators.ADD);
+
+                        for (; p < k; p++) {
+                            float bv = b[bj + p];
+                            s0 += a[a0 + p] * bv;
+                            s1 += a[a1 + p] * bv;
+                            s2 += a[a2 + p] * bv;
+                            s3 += a[a3 + p] * bv;
+                        }
+
+                        c[i * ldc + j] += s0;
+                        c[(i + 1) * ldc + j] += s1;
+                        c[(i + 2) * ldc + j] += s2;
+                        c[(i + 3) * ldc + j] += s3;
+                    }
+                }
+
+                for (; i < iEnd; i++) {
+                    int ai = i * lda;
+
+                    for (int j = j0; j < jEnd; j++) {
+                        c[i * ldc + j] += dot(a, ai, b, j * ldb, k, upper);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void multiply(float[] a, int lda, float[] b, int ldb, float[] c, int ldc, int m, int n, int k) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * lda, ci = i * ldc;
+
+            for (int p = 0; p < k; p++) {
+                float av = a[ai + p];
+                if (av == 0.0) {
+                    continue;
+                }
+
+                this.axpy(av, b, p * ldb, c, ci, n);
+            }
+        }
+    }
+
+    @Override
+    public void multiplyTransposedA(float[] a, int lda, float[] b, int ldb, float[] c, int ldc,
+            int m, int n, int k) {
+        for (int i0 = 0; i0 < m; i0 += BLOCK_ROWS) {
+            int iEnd = Math.min(i0 + BLOCK_ROWS, m);
+
+            for (int p = 0; p < k; p++) {
+                int ap = p * lda, bp = p * ldb;
+
+                for (int i = i0; i < iEnd; i++) {
+                    float av = a[ap + i];
+                    if (av == 0.0) {
+                        continue;
+                    }
+
+                    this.axpy(av, b, bp, c, i * ldc, n);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addColumnSums(float[] a, int lda, float[] v, int m, int n) {
+        for (int i = 0; i < m; i++) {
+            this.axpy(1.0f, a, i * lda, v, 0, n);
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n) {
+        FloatVector av = FloatVector.broadcast(F, alpha);
+        int upper = F.loopBound(n);
+
+        int i = 0;
+        for (; i < upper; i += F.length()) {
+            FloatVector yv = FloatVector.fromArray(F, y, yOff + i);
+            FloatVector.fromArray(F, x, xOff + i).fma(av, yv).intoArray(y, yOff + i);
+        }
+
+        for (; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public void adam(float[] w, int wOff, float[] g, float[] m, float[] v, int off, int n,
+            double gradientScale, double beta1, double beta2, double learningRate, double biasCorr1, double biasCorr2,
+            double epsilon) {
+        float scale = (float) gradientScale, b1 = (float) beta1, b2 = (float) beta2;
+        float rate = (float) learningRate, eps = (float) epsilon;
+        float c1 = (float) biasCorr1, c2 = (float) biasCorr2;
+        int upper = F.loopBound(n);
+
+        int k = 0;
+        for (; k < upper; k += F.length()) {
+            int i = off + k;
+            FloatVector gv = FloatVector.fromArray(F, g, i).mul(scale);
+            FloatVector mv = FloatVector.fromArray(F, m, i).mul(b1).add(gv.mul(1f - b1));
+            FloatVector vv = FloatVector.fromArray(F, v, i).mul(b2).add(gv.mul(gv).mul(1f - b2));
+
+            mv.intoArray(m, i);
+            vv.intoArray(v, i);
+
+            FloatVector step = mv.div(c1).mul(rate).div(vv.div(c2).lanewise(VectorOperators.SQRT).add(eps));
+            FloatVector.fromArray(F, w, wOff + k).sub(step).intoArray(w, wOff + k);
+        }
+
+        for (; k < n; k++) {
+            int i = off + k;
+            float gk = g[i] * scale;
+            m[i] = b1 * m[i] + (1f - b1) * gk;
+            v[i] = b2 * v[i] + (1f - b2) * (gk * gk);
+
+            w[wOff + k] -= rate * (m[i] / c1) / ((float) Math.sqrt(v[i] / c2) + eps);
+        }
+    }
+
+    private static double dot(double[] a, int aOff, double[] b, int bOff, int k, int upper) {
+        DoubleVector acc = DoubleVector.zero(S);
+
+        int p = 0;
+        for (; p < upper; p += S.length()) {
+            acc = DoubleVector.fromArray(S, a, aOff + p).fma(DoubleVector.fromArray(S, b, bOff + p), acc);
+        }
+
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; p < k; p++) {
+            s += a[aOff + p] * b[bOff + p];
+        }
+        return s;
+    }
+
+    private static float dot(float[] a, int aOff, float[] b, int bOff, int k, int upper) {
+        FloatVector acc = FloatVector.zero(F);
+
+        int p = 0;
+        for (; p < upper; p += F.length()) {
+            acc = FloatVector.fromArray(F, a, aOff + p).fma(FloatVector.fromArray(F, b, bOff + p), acc);
+        }
+
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; p < k; p++) {
+            s += a[aOff + p] * b[bOff + p];
+        }
+        return s;
+    }
+}
@@ -13,19 +13,33 @@ let interval = document.querySelector('.interval').value
 // expression handling
 expressionInp.addEventListener('input', plotExpression);
 
+// only the latest keystroke's request matters; older ones are aborted
+let validation = null;
+
 async function plotExpression() {
   let expression = expressionInp.value || expressionInp.placeholder;
 
-  const { valid, x, y } = await validateExpression(expression, xmin, xmax, npts);
+  const result = await validateExpression(expression, xmin, xmax, npts);
+  if (!result) {
+    return; // superseded by a newer request
+  }
+
+  const { valid, x, y } = result;
   expressionInp.classList.toggle('invalid', !valid);
 
   plotChart(x, y);
 }
 
 async function validateExpression(expr, xmin, xmax, npts) {
+  if (validation) {
+    validation.abort();
+  }
+  const controller = validation = new AbortController();
+
   try {
     const res = await fetch("/validate", {
       method: 'POST',
+      signal: controller.signal,
       headers: { 'Content-Type': 'application/json' },
       body: JSON.stringify({
         expression: expr,
@@ -37,12 +51,20 @@ async function validateExpression(expr, xmin, xmax, npts) {
       })
     });
 
+    if (res.status === 409 || controller !== validation) {
+      return null;
+    }
+
     if (!res.ok) {
       return { valid: false, x: [], y: [] };
     }
 
-    return await res.json();
+    const body = await res.json();
+    return controller === validation ? body : null;
   } catch (err) {
+    if (err.name === 'AbortError') {
+      return null;
+    }
     console.error("Validate failed:", err);
     return { valid: false, x: [], y: [] };
   }
@@ -78,12 +100,18 @@ function stopStream() {
 function startStream() {
   stopStream();
 
-  evtSource = new EventSource("/stream-sse");
+  // compact format: x arrives once in 'init', then each epoch carries y as base64 float32
+  evtSource = new EventSource("/stream-sse?format=f32");
+  let xs = null;
+
+  evtSource.addEventListener('init', (event) => {
+    xs = decodeFloat32(JSON.parse(event.data).x);
+  });
 
-  evtSource.addEventListener('epoch', () => {
-    const { x, y, epoch, loss, valLoss } = JSON.parse(event.data);
+  evtSource.addEventListener('epoch', (event) => {
+    const { y, epoch, loss, valLoss } = JSON.parse(event.data);
 
-    update(x, y)
+    update(xs, decodeFloat32(y))
     setStatus({ epoch: epoch, loss: loss, valLoss: valLoss })
   });
 
@@ -97,6 +125,17 @@ function startStream() {
   };
 }
 
+// decode base64 little-endian float32 values
+function decodeFloat32(b64) {
+  const bytes = Uint8Array.from(atob(b64), c => c.charCodeAt(0));
+  const view = new DataView(bytes.buffer);
+  const out = new Float32Array(bytes.length / 4);
+  for (let i = 0; i < out.length; i++) {
+    out[i] = view.getFloat32(i * 4, true);
+  }
+  return out;
+}
+
 learnBtn.addEventListener('click', startStream);
 
 // set status
@@ -0,0 +1,89 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fa.nn.activation.ActivationFunction;
+import fa.nn.activation.LeakyReLU;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.activation.Sigmoid;
+
+public class ActivationFunctionTest {
+    private static final ActivationFunction[] FUNCTIONS = {
+            new ReLU(), new LeakyReLU(), new Linear(), new Sigmoid()
+    };
+
+    @Test
+    public void activate_bulk_MatchesScalar() {
+        double[] z = sample(37);
+
+        for (ActivationFunction f : FUNCTIONS) {
+            double[] a = new double[z.length];
+            double[] dadz = new double[z.length];
+            double[] inference = new double[z.length];
+
+            f.activate(z, a, dadz, z.length);
+            f.activate(z, inference, z.length);
+
+            for (int k = 0; k < z.length; k++) {
+                String name = f.getClass().getSimpleName() + "[" + k + "]";
+                assertEquals(f.activate(z[k]), a[k], 1e-15, name);
+                assertEquals(f.derivative(z[k]), dadz[k], 1e-15, name);
+            }
+            assertArrayEquals(a, inference);
+        }
+    }
+
+    @Test
+    public void activate_bulkFloat_MatchesScalar() {
+        double[] zd = sample(37);
+        float[] z = new float[zd.length];
+        for (int k = 0; k < z.length; k++) {
+            z[k] = (float) zd[k];
+        }
+
+        for (ActivationFunction f : FUNCTIONS) {
+            float[] a = new float[z.length];
+            float[] dadz = new float[z.length];
+
+            f.activate(z, a, dadz, z.length);
+
+            for (int k = 0; k < z.length; k++) {
+                String name = f.getClass().getSimpleName() + "[" + k + "]";
+                assertEquals(f.activate(z[k]), a[k], 1e-6, name);
+                assertEquals(f.derivative(z[k]), dadz[k], 1e-6, name);
+            }
+        }
+    }
+
+    @Test
+    public void activate_inPlace_MatchesScalar() {
+        double[] z = sample(16);
+
+        for (ActivationFunction f : FUNCTIONS) {
+            double[] a = z.clone();
+            double[] dadz = new double[z.length];
+
+            f.activate(a, a, dadz, a.length);
+
+            for (int k = 0; k < z.length; k++) {
+                assertEquals(f.activate(z[k]), a[k], 1e-15);
+                assertEquals(f.derivative(z[k]), dadz[k], 1e-15);
+            }
+        }
+    }
+
+    private static double[] sample(int n) {
+        Random rand = new Random(3);
+        double[] z = new double[n];
+        for (int k = 0; k < n; k++) {
+            z[k] = k % 5 == 0 ? 0.0 : rand.nextGaussian() * 3;
+        }
+        return z;
+    }
+}
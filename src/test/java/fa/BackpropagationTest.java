@@ -1,14 +1,20 @@
 package fa;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.util.Random;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.activation.Linear;
 import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
 import fa.nn.learn.Backpropagation;
 import fa.nn.learn.SGD;
 import fa.nn.loss.MSE;
@@ -41,7 +47,7 @@ public class BackpropagationTest {
     public void compute_nullParameters_ExceptionThrown() {
         double[] input = new double[2];
         double[] expected = new double[2];
-        double[][][] gw = new double[2][][];
+        double[][] gw = new double[2][];
         double[][] gb = new double[2][];
 
         assertThrows(NullPointerException.class, () -> this.backprop.compute(null, expected, gw, gb));
@@ -50,6 +56,116 @@ public class BackpropagationTest {
         assertThrows(NullPointerException.class, () -> this.backprop.compute(input, expected, gw, null));
     }
 
+    @Test
+    public void computeBatch_nullParameters_ExceptionThrown() {
+        double[][] x = new double[1][2];
+        double[][] y = new double[1][2];
+        double[][] gw = new double[1][4];
+        double[][] gb = new double[1][2];
+
+        assertThrows(NullPointerException.class, () -> this.backprop.computeBatch(null, y, gw, gb));
+        assertThrows(NullPointerException.class, () -> this.backprop.computeBatch(x, null, gw, gb));
+        assertThrows(NullPointerException.class, () -> this.backprop.computeBatch(x, y, null, gb));
+        assertThrows(NullPointerException.class, () -> this.backprop.computeBatch(x, y, gw, null));
+    }
+
+    @Test
+    public void computeBatch_invalidParameters_ExceptionThrown() {
+        double[][] gw = new double[1][4];
+        double[][] gb = new double[1][2];
+
+        assertThrows(IllegalArgumentException.class,
+                () -> this.backprop.computeBatch(new double[2][2], new double[1][2], gw, gb));
+        assertThrows(IllegalArgumentException.class,
+                () -> this.backprop.computeBatch(new double[1][3], new double[1][2], gw, gb));
+    }
+
+    @Test
+    public void computeBatch_validParameters_MatchesPerSampleCompute() {
+        Random rand = new Random(3);
+        Layer[] layers = {
+                new Layer(3, 7, new ReLU(), new XavierInitializer(rand)),
+                new Layer(7, 5, new ReLU(), new XavierInitializer(rand)),
+                new Layer(5, 2, new Linear(), new XavierInitializer(rand))
+        };
+        NeuralNetwork net = new NeuralNetwork(layers);
+        Backpropagation bp = new Backpropagation(net, new MSE());
+
+        int n = 6;
+        double[][] x = new double[n][3];
+        double[][] y = new double[n][2];
+        for (int r = 0; r < n; r++) {
+            for (int i = 0; i < 3; i++) {
+                x[r][i] = rand.nextGaussian();
+            }
+            y[r][0] = rand.nextGaussian();
+            y[r][1] = rand.nextGaussian();
+        }
+
+        double[][] gwSample = gradientWeights(layers), gbSample = gradientBiases(layers);
+        for (int r = 0; r < n; r++) {
+            bp.compute(x[r], y[r], gwSample, gbSample);
+        }
+
+        double[][] gwBatch = gradientWeights(layers), gbBatch = gradientBiases(layers);
+        bp.computeBatch(x, y, gwBatch, gbBatch);
+
+        for (int l = 0; l < layers.length; l++) {
+            assertArrayEquals(gwSample[l], gwBatch[l], 1e-12);
+            assertArrayEquals(gbSample[l], gbBatch[l], 1e-12);
+        }
+    }
+
+    @Test
+    public void compute_fp32Network_MatchesFp64() {
+        NeuralNetwork fp64 = new NeuralNetwork(layers(new Random(4)));
+        NeuralNetwork fp32 = new NeuralNetwork(layers(new Random(4)), Precision.FP32);
+        Backpropagation bp64 = new Backpropagation(fp64, new MSE());
+        Backpropagation bp32 = new Backpropagation(fp32, new MSE());
+
+        Random rand = new Random(5);
+        double[][] gw64 = gradientWeights(fp64.getLayers()), gb64 = gradientBiases(fp64.getLayers());
+        double[][] gw32 = gradientWeights(fp32.getLayers()), gb32 = gradientBiases(fp32.getLayers());
+        for (int r = 0; r < 3; r++) {
+            double[] x = { rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian() };
+            double[] y = { rand.nextGaussian(), rand.nextGaussian() };
+            bp64.compute(x, y, gw64, gb64);
+            bp32.compute(x, y, gw32, gb32);
+        }
+
+        for (int l = 0; l < gw64.length; l++) {
+            assertArrayEquals(gw64[l], gw32[l], 1e-4);
+            assertArrayEquals(gb64[l], gb32[l], 1e-4);
+        }
+
+        // Batches in single precision take float gradients
+        assertThrows(IllegalStateException.class,
+                () -> bp32.computeBatch(new double[1][3], new double[1][2], gw32, gb32));
+    }
+
+    private static Layer[] layers(Random rand) {
+        return new Layer[] {
+                new Layer(3, 7, new ReLU(), new XavierInitializer(rand)),
+                new Layer(7, 2, new Linear(), new XavierInitializer(rand))
+        };
+    }
+
+    private static double[][] gradientWeights(Layer[] layers) {
+        double[][] gw = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            gw[l] = new double[layers[l].getOutputSize() * layers[l].getInputSize()];
+        }
+        return gw;
+    }
+
+    private static double[][] gradientBiases(Layer[] layers) {
+        double[][] gb = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            gb[l] = new double[layers[l].getOutputSize()];
+        }
+        return gb;
+    }
+
     @Test
     public void computeDeltas_nullParameters_ExceptionThrown() {
         assertThrows(NullPointerException.class, () -> this.backprop.computeDeltas(null));
@@ -0,0 +1,120 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fa.nn.Checkpointer;
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+import fa.nn.learn.Adam;
+import fa.nn.learn.Dataset;
+import fa.nn.loss.MSE;
+
+public class CheckpointerTest {
+    double[][] x;
+    double[][] y;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void setup() {
+        Random rand = new Random(30);
+        this.x = new double[400][1];
+        this.y = new double[400][1];
+        for (int i = 0; i < this.x.length; i++) {
+            this.x[i][0] = rand.nextDouble() * 2 - 1;
+            this.y[i][0] = this.x[i][0] * this.x[i][0];
+        }
+    }
+
+    @Test
+    public void constructor_invalidParameters_ExceptionThrown() {
+        String file = this.dir.resolve("c.fann").toString();
+        assertThrows(NullPointerException.class, () -> new Checkpointer(null, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Checkpointer(file, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Checkpointer(file, 0, -1));
+        assertThrows(IllegalArgumentException.class, () -> new Checkpointer(file, 0, 0));
+    }
+
+    @Test
+    public void fitNext_everyEpochs_WritesCheckpoints() {
+        NeuralNetwork nn = network(31, Precision.FP64);
+        Dataset d = new Dataset(this.x, this.y, 0.2, new Random(32));
+
+        try (Checkpointer c = new Checkpointer(this.dir.resolve("c.fann").toString(), 2, 0)) {
+            nn.setCheckpointer(c);
+            for (int epoch = 0; epoch < 5; epoch++) {
+                nn.fitNext(d, 32);
+            }
+            c.flush();
+
+            assertEquals(5, c.getEpochs());
+            assertEquals(2, c.getWritten() + c.getSkipped());
+            assertTrue(Files.exists(c.getPath()));
+            assertTrue(Files.notExists(this.dir.resolve("c.fann.tmp")));
+        }
+    }
+
+    @Test
+    public void restore_noCheckpoint_ReturnsZero() {
+        NeuralNetwork nn = network(33, Precision.FP64);
+        Dataset d = new Dataset(this.x, this.y, 0.2, new Random(34));
+
+        try (Checkpointer c = new Checkpointer(this.dir.resolve("none.fann").toString(), 1, 0)) {
+            assertEquals(0, c.restore(nn, d));
+        }
+    }
+
+    @Test
+    public void fit_existingCheckpoint_ResumesExactly() {
+        for (Precision precision : Precision.values()) {
+            String file = this.dir.resolve(precision + ".fann").toString();
+
+            NeuralNetwork reference = network(35, precision);
+            reference.fit(this.x, this.y, 0.2, 6, 32, false, new Random(36));
+
+            NeuralNetwork interrupted = network(35, precision);
+            try (Checkpointer c = new Checkpointer(file, 1, 0)) {
+                interrupted.setCheckpointer(c);
+                interrupted.fit(this.x, this.y, 0.2, 4, 32, false, new Random(36));
+            }
+
+            NeuralNetwork resumed = network(37, precision);
+            try (Checkpointer c = new Checkpointer(file, 1, 0)) {
+                resumed.setCheckpointer(c);
+                resumed.fit(this.x, this.y, 0.2, 6, 32, false, new Random(38));
+                assertEquals(6, c.getEpochs());
+            }
+
+            for (int l = 0; l < reference.getNumLayers(); l++) {
+                assertArrayEquals(reference.getLayers()[l].getWeights(), resumed.getLayers()[l].getWeights(),
+                        precision + " layer " + l);
+            }
+        }
+    }
+
+    private static NeuralNetwork network(long seed, Precision precision) {
+        Random rand = new Random(seed);
+        NeuralNetwork nn = new NeuralNetwork(new Layer[] {
+                new Layer(1, 16, new ReLU(), new XavierInitializer(rand)),
+                new Layer(16, 1, new Linear(), new XavierInitializer(rand))
+        }, precision);
+        nn.setup(new Adam(nn), new MSE());
+        return nn;
+    }
+}
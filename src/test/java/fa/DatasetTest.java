@@ -0,0 +1,118 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fa.nn.Layer;
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.activation.Linear;
+import fa.nn.learn.Dataset;
+
+public class DatasetTest {
+    double[] x;
+    double[] y;
+
+    @BeforeEach
+    public void setup() {
+        this.x = new double[100 * 2];
+        this.y = new double[100];
+        for (int i = 0; i < 100; i++) {
+            this.x[2 * i] = i;
+            this.x[2 * i + 1] = -i;
+            this.y[i] = i * 0.5;
+        }
+    }
+
+    @Test
+    public void constructor_flatRows_SameAsRowArrays() {
+        double[][] mx = new double[100][];
+        double[][] my = new double[100][];
+        for (int i = 0; i < 100; i++) {
+            mx[i] = new double[] { this.x[2 * i], this.x[2 * i + 1] };
+            my[i] = new double[] { this.y[i] };
+        }
+
+        Dataset flat = new Dataset(this.x, this.y, 2, 1, 0.2, new Random(50), Precision.FP64);
+        Dataset rows = new Dataset(mx, my, 0.2, new Random(50));
+
+        assertEquals(80, flat.trainSize());
+        assertArrayEquals(rows.trainX(), flat.trainX());
+        assertArrayEquals(rows.valY(), flat.valY());
+        assertThrows(IllegalArgumentException.class,
+                () -> new Dataset(this.x, this.y, 3, 1, 0.2, new Random(50), Precision.FP64));
+    }
+
+    @Test
+    public void constructor_flatRowsReused_RowsUnchanged() {
+        for (Precision precision : Precision.values()) {
+            double[] x = this.x.clone();
+            Dataset d = new Dataset(x, this.y, 2, 1, 0.2, new Random(55), precision);
+            x[0] = 42;
+
+            assertEquals(0.0, d.trainX()[0][0], precision.toString());
+        }
+    }
+
+    @Test
+    public void stage_shuffledOrder_GathersRows() {
+        for (Precision precision : Precision.values()) {
+            Dataset d = new Dataset(this.x, this.y, 2, 1, 0.2, new Random(51), precision);
+            Workspace ws = workspace(16, precision);
+
+            d.shuffle();
+            double[][] trainX = d.trainX();
+            double[][] trainY = d.trainY();
+            int n = d.stage(ws, 32, 48);
+
+            assertEquals(16, n);
+            for (int r = 0; r < n; r++) {
+                double input = precision.isSingle() ? ws.getInput32()[r * 2] : ws.getInput()[r * 2];
+                double target = precision.isSingle() ? ws.getTarget32()[r] : ws.getTarget()[r];
+                assertEquals(trainX[32 + r][0], input);
+                assertEquals(trainY[32 + r][0], target);
+                assertEquals(-trainX[32 + r][0], trainX[32 + r][1], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void loadState_savedOrder_SameRows() {
+        Dataset a = new Dataset(this.x, this.y, 2, 1, 0.2, new Random(52), Precision.FP32);
+        Dataset b = new Dataset(this.x, this.y, 2, 1, 0.2, new Random(53), Precision.FP32);
+
+        a.shuffle();
+        ByteBuffer state = ByteBuffer.allocate(a.stateSize());
+        a.saveState(state);
+        b.loadState(state.flip());
+        assertArrayEquals(a.trainX32(), b.trainX32());
+
+        a.shuffle();
+        b.shuffle();
+        assertArrayEquals(a.trainY32(), b.trainY32());
+    }
+
+    @Test
+    public void loadState_duplicateRow_ExceptionThrown() {
+        Dataset d = new Dataset(this.x, this.y, 2, 1, 0.2, new Random(54), Precision.FP64);
+        d.shuffle();
+        ByteBuffer state = ByteBuffer.allocate(d.stateSize());
+        d.saveState(state);
+        state.putInt(3 * Integer.BYTES, state.getInt(2 * Integer.BYTES)); // the first row twice
+
+        assertThrows(IllegalArgumentException.class, () -> d.loadState(state.flip()));
+    }
+
+    private static Workspace workspace(int capacity, Precision precision) {
+        Layer layer = new Layer(2, 1, new Linear());
+        layer.setPrecision(precision);
+        return new Workspace(new Layer[] { layer }, capacity);
+    }
+}
@@ -0,0 +1,89 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.objecthunter.exp4j.Expression;
+import net.objecthunter.exp4j.ExpressionBuilder;
+
+import fa.core.CompiledExpression;
+import fa.core.FunctionSampler;
+
+public class FunctionSamplerTest {
+    private static final String[] EXPRESSIONS = {
+            "x", "-x^2 + 3*x - 1", "2x + pi", "sin(x) * exp(-x^2 / 10) + sqrt(abs(x)) * cos(3 * x) - log(x^2 + 1)",
+            "pow(x, 3) % 7", "log2(abs(x) + 1) * signum(x)", "cot(x) + e", "-(-x)", "3 / (x + 100)"
+    };
+
+    @Test
+    public void compile_builtins_MatchesExp4j() {
+        Random rand = new Random(1);
+
+        for (String s : EXPRESSIONS) {
+            Expression e = new ExpressionBuilder(s).variable("x").build();
+            CompiledExpression c = CompiledExpression.compile(s, "x");
+
+            for (int i = 0; i < 200; i++) {
+                double x = rand.nextDouble() * 20 - 10;
+                assertEquals(e.setVariable("x", x).evaluate(), c.applyAsDouble(x), 0.0, s + " at " + x);
+            }
+        }
+    }
+
+    @Test
+    public void getCanonicalForm_equivalentSpellings_Equal() {
+        String canonical = CompiledExpression.compile("2*x + pi", "x").getCanonicalForm();
+
+        assertEquals(canonical, CompiledExpression.compile(" 2x+(π) ", "x").getCanonicalForm());
+        assertNotEquals(canonical, CompiledExpression.compile("2*x - pi", "x").getCanonicalForm());
+    }
+
+    @Test
+    public void compile_invalidExpressions_ExceptionThrown() {
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("", "x"));
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("y + 1", "x"));
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("sin(x", "x"));
+        assertThrows(IllegalArgumentException.class, () -> CompiledExpression.compile("pow(x)", "x"));
+        assertThrows(ArithmeticException.class, () -> CompiledExpression.compile("1 / x", "x").applyAsDouble(0));
+    }
+
+    @Test
+    public void sample_manyPoints_DeterministicAndMatchesInterpreter() {
+        String s = "x^2 - 3*x";
+        int n = 100_000; // several chunks, so they run in parallel
+        CompiledExpression c = CompiledExpression.compile(s, "x");
+        Expression e = new ExpressionBuilder(s).variable("x").build();
+
+        FunctionSampler a = new FunctionSampler(c, -5, 5, n, new Random(2));
+        FunctionSampler b = new FunctionSampler(e, -5, 5, n, new Random(2));
+
+        assertArrayEquals(a.x(), b.x());
+        assertArrayEquals(a.y(), b.y());
+        for (int i = 0; i < n; i++) {
+            assertTrue(a.x()[i] >= -5 && a.x()[i] < 5);
+            assertEquals(a.x()[i] * a.x()[i] - 3 * a.x()[i], a.y()[i], 1e-12);
+        }
+    }
+
+    @Test
+    public void grid_evenlySpaced_IncludesBothEnds() {
+        FunctionSampler fs = new FunctionSampler(CompiledExpression.compile("2*x", "x"));
+        fs.grid(-1, 1, 5);
+
+        assertArrayEquals(new double[] { -1, -0.5, 0, 0.5, 1 }, fs.x());
+        assertArrayEquals(new double[] { -2, -1, 0, 1, 2 }, fs.y());
+
+        fs.grid(0, 3, 40_000);
+        assertEquals(40_000, fs.x().length);
+        assertEquals(0.0, fs.x()[0]);
+        assertEquals(3.0, fs.x()[39_999]);
+        assertEquals(3.0 * 20_000 / 39_999, fs.x()[20_000], 1e-12);
+    }
+}
@@ -0,0 +1,68 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+import fa.nn.learn.Dataset;
+import fa.nn.learn.Hogwild;
+import fa.nn.loss.MSE;
+
+public class HogwildTest {
+    NeuralNetwork nn;
+    Dataset d;
+
+    @BeforeEach
+    public void setup() {
+        Random rand = new Random(9);
+        this.nn = new NeuralNetwork(new Layer[] {
+                new Layer(1, 16, new ReLU(), new XavierInitializer(rand)),
+                new Layer(16, 1, new Linear(), new XavierInitializer(rand))
+        });
+
+        double[][] x = new double[1000][1];
+        double[][] y = new double[1000][1];
+        for (int i = 0; i < x.length; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+        this.d = new Dataset(x, y, 0.2, rand);
+    }
+
+    @Test
+    public void constructor_invalidParameters_ExceptionThrown() {
+        assertThrows(NullPointerException.class, () -> new Hogwild(null, 0.1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Hogwild(this.nn, 0.1, 0));
+    }
+
+    @Test
+    public void train_lossNotSet_ExceptionThrown() {
+        Hogwild h = new Hogwild(this.nn, 0.1, 2);
+        assertThrows(IllegalStateException.class, () -> h.train(this.d, 1, 8));
+    }
+
+    @Test
+    public void train_validParameters_LossDecreases() {
+        Hogwild h = new Hogwild(this.nn, 0.1, 4);
+        this.nn.setup(h, new MSE());
+
+        double before = this.nn.calculateLoss(this.d.trainX(), this.d.trainY());
+        Hogwild.Report report = h.train(this.d, 20, 8);
+
+        assertEquals(4, report.getThreads());
+        assertEquals(20L * this.d.trainX().length, report.getSamples());
+        assertEquals(20, report.getLosses().length);
+        assertTrue(report.getSamplesPerSecond() > 0);
+        assertTrue(report.getFinalLoss() < before, report.getFinalLoss() + " >= " + before);
+    }
+}
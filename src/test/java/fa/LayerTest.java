@@ -3,16 +3,27 @@ package fa;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import fa.nn.Layer;
+import fa.nn.ParameterUpdate;
+import fa.nn.Precision;
+import fa.nn.activation.ActivationFunction;
 import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
 import fa.nn.loss.MSE;
 
 public class LayerTest {
     Layer l;
+    double[] z = new double[2];
+    double[] a = new double[2];
+    double[] dadz = new double[2];
 
     @BeforeEach
     void setup() {
@@ -48,7 +59,7 @@ public class LayerTest {
         double[] b = l.getBiases();
         assertEquals(3, b.length);
 
-        double[] a = l.getState();
+        double[] a = l.forward(new double[2]);
         assertEquals(3, a.length);
     }
 
@@ -80,15 +91,43 @@ public class LayerTest {
         assertArrayEquals(expected, yhat);
     }
 
+    @Test
+    public void forwardBatch_invalidLength_ExceptionThrown() {
+        double[] out = new double[4];
+        assertThrows(IllegalArgumentException.class, () -> this.l.forwardBatch(new double[3], out, 2));
+        assertThrows(IllegalArgumentException.class, () -> this.l.forwardBatch(new double[4], new double[3], 2));
+    }
+
+    @Test
+    public void forwardBatch_validParameters_MatchesForward() {
+        // Sizes chosen to cross the kernel's block and unroll boundaries
+        int in = 70, out = 67, n = 9;
+        Layer wide = new Layer(in, out, new ReLU(), new XavierInitializer(new Random(1)));
+
+        Random rand = new Random(2);
+        double[] x = new double[n * in];
+        for (int k = 0; k < x.length; k++) {
+            x[k] = rand.nextGaussian();
+        }
+
+        double[] yhat = new double[n * out];
+        wide.forwardBatch(x, yhat, n);
+
+        for (int r = 0; r < n; r++) {
+            double[] expected = wide.forward(Arrays.copyOfRange(x, r * in, (r + 1) * in));
+            assertArrayEquals(expected, Arrays.copyOfRange(yhat, r * out, (r + 1) * out), 1e-12);
+        }
+    }
+
     @Test
     public void backwardOutput_nullParameters_ExceptionThrown() {
-        assertThrows(NullPointerException.class, () -> this.l.backward(null, new MSE()));
+        assertThrows(NullPointerException.class, () -> this.l.backward(null, new MSE(), this.a, this.dadz));
     }
 
     @Test
     public void backwardOutput_invalidLength_ExceptionThrown() {
         double[] y = new double[1];
-        assertThrows(IllegalArgumentException.class, () -> this.l.backward(y, new MSE()));
+        assertThrows(IllegalArgumentException.class, () -> this.l.backward(y, new MSE(), this.a, this.dadz));
     }
 
     @Test
@@ -96,8 +135,8 @@ public class LayerTest {
         double[] x = new double[2];
         double[] y = new double[2];
 
-        this.l.forward(x);
-        double[] delta = this.l.backward(y, new MSE());
+        this.l.forward(x, this.z, this.a, this.dadz);
+        double[] delta = this.l.backward(y, new MSE(), this.a, this.dadz);
 
         assertEquals(2, delta.length);
     }
@@ -109,33 +148,33 @@ public class LayerTest {
 
         // z[1] = a[1] = 1.0
         // z[2] = a[2] = 3.5
-        this.l.forward(x);
+        this.l.forward(x, this.z, this.a, this.dadz);
 
         // δ[j] = dC/da[j] * da[j]/dz[j] = (ŷ - y) * (z[j] > 0 ? 1 : 0)
         // δ[1] = (1.0 - 1.0) * 1 = 0.0
         // δ[2] = (3.5 - 0.5) * 1 = 3.0
-        double[] delta = this.l.backward(y, new MSE());
+        double[] delta = this.l.backward(y, new MSE(), this.a, this.dadz);
         assertArrayEquals(delta, new double[] { 0.0, 3.0 });
     }
 
     @Test
     public void backwardHidden_nullParameters_ExceptionThrown() {
         Layer nextLayer = new Layer(2, 1, new ReLU());
-        assertThrows(NullPointerException.class, () -> this.l.backward(null, nextLayer));
+        assertThrows(NullPointerException.class, () -> this.l.backward(null, nextLayer, this.dadz));
     }
 
     @Test
     public void backwardHidden_invalidLength_ExceptionThrown() {
         Layer nextLayer = new Layer(2, 3, new ReLU());
         double[] nextDelta = new double[2];
-        assertThrows(IllegalArgumentException.class, () -> this.l.backward(nextDelta, nextLayer));
+        assertThrows(IllegalArgumentException.class, () -> this.l.backward(nextDelta, nextLayer, this.dadz));
     }
 
     @Test
     public void backwardHidden_layerMismatch_ExceptionThrown() {
         Layer nextLayer = new Layer(5, 3, new ReLU());
         double[] nextDelta = new double[3];
-        assertThrows(IllegalArgumentException.class, () -> this.l.backward(nextDelta, nextLayer));
+        assertThrows(IllegalArgumentException.class, () -> this.l.backward(nextDelta, nextLayer, this.dadz));
     }
 
     @Test
@@ -150,22 +189,57 @@ public class LayerTest {
         double[] b = { 0 };
         l2.set(w, b);
 
+        double[] z2 = new double[1];
+        double[] a2 = new double[1];
+        double[] dadz2 = new double[1];
+
         // z[1] = 2.0 * 1.0 + 1.0 * 3.5 = 5.5 => a(z[1]) = 5.5
-        double[] yhat = l2.forward(l1.forward(x));
-        assertArrayEquals(new double[] { 5.5 }, yhat);
+        l1.forward(x, this.z, this.a, this.dadz);
+        l2.forward(this.a, z2, a2, dadz2);
+        assertArrayEquals(new double[] { 5.5 }, a2);
 
         // δ[2][1] = (5.5 - 5.0) * 1 = 0.5
-        double[] deltaL2 = l2.backward(y, new MSE());
+        double[] deltaL2 = l2.backward(y, new MSE(), a2, dadz2);
         assertArrayEquals(new double[] { 0.5 }, deltaL2);
 
         // δ[L][j] = (Σ_k δ[L+1][k] * W[L+1][k][j]) * da[L][j]/dz[L][j]
         // = (Σ_k δ[L+1][k] * W[L+1][k][j]) * (z[j] > 0 ? 1 : 0)
         // δ[1][1] = (0.5 * 2.0) * 1 = 1.0
         // δ[1][2] = (0.5 * 1.0) * 1 = 0.5
-        double[] deltaL1 = l1.backward(deltaL2, l2);
+        double[] deltaL1 = l1.backward(deltaL2, l2, this.dadz);
         assertArrayEquals(new double[] { 1.0, 0.5 }, deltaL1);
     }
 
+    @Test
+    public void backward_recordedDerivatives_ActivationNotEvaluatedAgain() {
+        int[] derivatives = new int[1];
+        ActivationFunction counting = new ActivationFunction() {
+            @Override
+            public double activate(double z) {
+                return z;
+            }
+
+            @Override
+            public double derivative(double z) {
+                derivatives[0]++;
+                return 1.0;
+            }
+        };
+        Layer hidden = new Layer(2, 2, counting);
+        Layer output = new Layer(2, 2, counting);
+
+        double[] z2 = new double[2];
+        double[] a2 = new double[2];
+        double[] dadz2 = new double[2];
+        hidden.forward(new double[] { 0.5, 1.0 }, this.z, this.a, this.dadz);
+        output.forward(this.a, z2, a2, dadz2);
+        assertEquals(4, derivatives[0]);
+
+        double[] delta = output.backward(new double[] { 1.0, 0.5 }, new MSE(), a2, dadz2);
+        hidden.backward(delta, output, this.dadz);
+        assertEquals(4, derivatives[0]);
+    }
+
     @Test
     public void updateDelta_nullParameters_ExceptionThrown() {
         assertThrows(NullPointerException.class, () -> this.l.update(0, new double[] {}, null));
@@ -187,11 +261,11 @@ public class LayerTest {
 
         // z[1] = a[1] = 1.0
         // z[2] = a[2] = 3.5
-        this.l.forward(x);
+        this.l.forward(x, this.z, this.a, this.dadz);
 
         // δ[1] = (1.0 - 1.0) * 1 = 0.0
         // δ[2] = (3.5 - 0.5) * 1 = 3.0
-        double[] delta = this.l.backward(y, new MSE());
+        double[] delta = this.l.backward(y, new MSE(), this.a, this.dadz);
 
         this.l.update(1.0, delta, x);
 
@@ -229,11 +303,11 @@ public class LayerTest {
 
         // z[1] = a[1] = 1.0
         // z[2] = a[2] = 3.5
-        this.l.forward(x);
+        this.l.forward(x, this.z, this.a, this.dadz);
 
         // δ[1] = (1.0 - 1.0) * 1 = 0.0
         // δ[2] = (3.5 - 0.5) * 1 = 3.0
-        double[] delta = this.l.backward(y, new MSE());
+        double[] delta = this.l.backward(y, new MSE(), this.a, this.dadz);
 
         // dC/dw[l][k][j] = delta[l][j] * a[l-1][k]
         // {0.0, 0.0}
@@ -264,6 +338,55 @@ public class LayerTest {
         assertArrayEquals(new double[] { 1.0, 0.0 }, yhat);
     }
 
+    @Test
+    public void getWeightData_validParameters_RowMajorLayout() {
+        // w[j][i] is stored at j * stride + i
+        double[] w = this.l.getWeightData();
+        int stride = this.l.getStride();
+
+        assertEquals(2, stride);
+        assertArrayEquals(new double[] { 1.0, 0.5, 2.0, 2.5 }, w);
+    }
+
+    @Test
+    public void getWeights_validParameters_ReturnsCopy() {
+        double[][] w = this.l.getWeights();
+        w[0][0] = 42.0;
+
+        assertEquals(1.0, this.l.getWeightData()[0]);
+    }
+
+    @Test
+    public void setRowMajor_validParameters_ComputesExpected() {
+        double[] w = { 1.0, 0.5, 2.0, 2.5 };
+        double[] b = { 0, 0 };
+
+        Layer flat = new Layer(2, 2, new ReLU());
+        flat.setRowMajor(w, b);
+
+        double[] x = { 0.5, 1.0 };
+        assertArrayEquals(this.l.forward(x), flat.forward(x));
+        assertArrayEquals(new double[][] { { 1.0, 0.5 }, { 2.0, 2.5 } }, flat.getWeights());
+    }
+
+    @Test
+    public void setRowMajor_invalidLength_ExceptionThrown() {
+        double[] b = new double[2];
+        assertThrows(IllegalArgumentException.class, () -> this.l.setRowMajor(new double[3], b));
+    }
+
+    @Test
+    public void updateGradients_validParameters_ComputesExpected() {
+        // Same gradients as updateGradient_validParameters_ComputesExpected, row-major
+        double[] gW = { 0.0, 0.0, 1.5, 3.0 };
+        double[] gB = { 0.0, 3.0 };
+
+        this.l.updateGradients(1.0, gW, gB);
+
+        assertArrayEquals(new double[][] { { 1.0, 0.5 }, { 0.5, -0.5 } }, this.l.getWeights());
+        assertArrayEquals(new double[] { 0, -3 }, this.l.getBiases());
+    }
+
     @Test
     public void set_nullParameters_ExceptionThrown() {
         double[][] w = new double[2][2];
@@ -286,4 +409,65 @@ public class LayerTest {
         assertThrows(IllegalArgumentException.class, () -> this.l.set(weightsInputInvalid, b));
         assertThrows(IllegalArgumentException.class, () -> this.l.set(w, biasesInvalid));
     }
+
+    @Test
+    public void setPrecision_fp32_ConvertsStorage() {
+        this.l.setPrecision(Precision.FP32);
+
+        assertEquals(Precision.FP32, this.l.getPrecision());
+        assertArrayEquals(new float[] { 1.0f, 0.5f, 2.0f, 2.5f }, this.l.getWeightData32());
+        assertArrayEquals(new double[][] { { 1.0, 0.5 }, { 2.0, 2.5 } }, this.l.getWeights());
+        assertThrows(IllegalStateException.class, () -> this.l.getWeightData());
+        assertThrows(IllegalStateException.class, () -> this.l.forward(new double[2]));
+
+        float[] out = new float[2];
+        this.l.forwardBatch(new float[] { 1.0f, 2.0f }, out, 1);
+        assertArrayEquals(new float[] { 2.0f, 7.0f }, out);
+
+        this.l.setPrecision(Precision.FP64);
+        assertArrayEquals(new double[] { 2.0, 7.0 }, this.l.forward(new double[] { 1.0, 2.0 }));
+        assertThrows(IllegalStateException.class, () -> this.l.getWeightData32());
+    }
+
+    @Test
+    public void updateParameters_validParameters_VisitsRowsThenBiases() {
+        double[] gradient = { 1.0, 2.0, 3.0, 4.0 };
+
+        this.l.updateParameters(new ParameterUpdate() {
+            @Override
+            public void weights(double[] weights, int offset, int index, int n) {
+                for (int k = 0; k < n; k++) {
+                    weights[offset + k] -= gradient[index + k];
+                }
+            }
+
+            @Override
+            public void biases(double[] biases, int n) {
+                Arrays.fill(biases, 0, n, -1.0);
+            }
+        });
+
+        assertArrayEquals(new double[][] { { 0.0, -1.5 }, { -1.0, -1.5 } }, this.l.getWeights());
+        assertArrayEquals(new double[] { -1.0, -1.0 }, this.l.getBiases());
+
+        this.l.setPrecision(Precision.FP32);
+        assertThrows(UnsupportedOperationException.class, () -> this.l.updateParameters(new ParameterUpdate() {
+        }));
+    }
+
+    @Test
+    public void moveOffHeap_validParameters_ForwardUnchanged() {
+        double[] x = { 1.0, 2.0 };
+        double[] before = this.l.forward(x);
+
+        this.l.moveOffHeap();
+
+        assertTrue(this.l.isOffHeap());
+        assertArrayEquals(before, this.l.forward(x));
+        assertArrayEquals(new double[][] { { 1.0, 0.5 }, { 2.0, 2.5 } }, this.l.getWeights());
+        assertThrows(IllegalStateException.class, () -> this.l.getWeightData());
+        assertThrows(IllegalStateException.class, () -> this.l.updateGradients(0.1, new double[4], new double[2]));
+        assertThrows(IllegalStateException.class, () -> this.l.setRowMajor(new double[4], new double[2]));
+        assertThrows(IllegalStateException.class, () -> this.l.setPrecision(Precision.FP32));
+    }
 }
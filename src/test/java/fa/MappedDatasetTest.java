@@ -0,0 +1,217 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fa.nn.Layer;
+import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.Workspace;
+import fa.nn.activation.Linear;
+import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
+import fa.nn.learn.Adam;
+import fa.nn.learn.Hogwild;
+import fa.nn.learn.MappedDataset;
+import fa.nn.loss.MSE;
+
+public class MappedDatasetTest {
+    double[][] x;
+    double[][] y;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    public void setup() {
+        Random rand = new Random(40);
+        this.x = new double[500][2];
+        this.y = new double[500][1];
+        for (int i = 0; i < this.x.length; i++) {
+            this.x[i][0] = rand.nextDouble() * 2 - 1;
+            this.x[i][1] = i; // identifies the row
+            this.y[i][0] = this.x[i][0] * this.x[i][0];
+        }
+    }
+
+    @Test
+    public void constructor_writtenFile_RowsReadBack() {
+        for (Precision precision : Precision.values()) {
+            MappedDataset d = new MappedDataset(this.write(precision), 0.2, new Random(41));
+
+            assertEquals(precision, d.getPrecision());
+            assertEquals(400, d.trainSize());
+            assertEquals(2, d.getInputSize());
+            assertEquals(1, d.getOutputSize());
+            assertEquals(100, d.valX().length);
+
+            double tolerance = precision.isSingle() ? 1e-6 : 0;
+            assertArrayEquals(this.x[0], d.trainX()[0], tolerance);
+            assertArrayEquals(this.y[399], d.trainY()[399], tolerance);
+            assertArrayEquals(this.x[400], d.valX()[0], tolerance);
+            assertArrayEquals(this.y[499], d.valY()[99], tolerance);
+        }
+    }
+
+    @Test
+    public void constructor_invalidFile_ExceptionThrown() throws IOException {
+        Path bad = this.dir.resolve("bad.fads");
+        Files.write(bad, new byte[64]);
+
+        assertThrows(IllegalArgumentException.class, () -> new MappedDataset(bad.toString(), 0.2, new Random(42)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new MappedDataset(this.write(Precision.FP64), 1.5, new Random(42)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new MappedDataset(this.write(Precision.FP64), 0.2, new Random(42), 0));
+    }
+
+    @Test
+    public void shuffle_stageEpoch_EveryTrainingRowOnce() {
+        MappedDataset d = new MappedDataset(this.write(Precision.FP64), 0.2, new Random(43), 64);
+        Workspace ws = workspace(32, Precision.FP64);
+        boolean[] seen = new boolean[400];
+        int[] order = new int[400];
+
+        d.shuffle();
+        for (int start = 0; start < 400; start += 32) {
+            int n = d.stage(ws, start, Math.min(start + 32, 400));
+            for (int r = 0; r < n; r++) {
+                int row = (int) ws.getInput()[r * 2 + 1];
+                assertEquals(this.x[row][0], ws.getInput()[r * 2]);
+                assertEquals(this.y[row][0], ws.getTarget()[r]);
+                seen[row] = true;
+                order[start + r] = row;
+            }
+        }
+
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+
+        int[] identity = new int[400];
+        Arrays.setAll(identity, i -> i);
+        assertNotEquals(Arrays.toString(identity), Arrays.toString(order));
+    }
+
+    @Test
+    public void shuffle_smallerThanOneBlock_ReorderedEveryEpoch() {
+        MappedDataset d = new MappedDataset(this.write(Precision.FP64), 0.2, new Random(48)); // 400 < 1024 rows
+        Workspace ws = workspace(400, Precision.FP64);
+        String[] orders = new String[2];
+
+        for (int epoch = 0; epoch < orders.length; epoch++) {
+            d.shuffle();
+            d.stage(ws, 0, 400);
+
+            int[] order = new int[400];
+            boolean[] seen = new boolean[400];
+            for (int r = 0; r < 400; r++) {
+                order[r] = (int) ws.getInput()[r * 2 + 1];
+                seen[order[r]] = true;
+            }
+            for (boolean s : seen) {
+                assertTrue(s);
+            }
+            orders[epoch] = Arrays.toString(order);
+        }
+
+        int[] identity = new int[400];
+        Arrays.setAll(identity, i -> i);
+        assertNotEquals(Arrays.toString(identity), orders[0]);
+        assertNotEquals(orders[0], orders[1]);
+    }
+
+    @Test
+    public void fitNext_parallelOrHogwild_ExceptionThrown() {
+        MappedDataset d = new MappedDataset(this.write(Precision.FP64), 0.2, new Random(49));
+        NeuralNetwork nn = new NeuralNetwork(new Layer[] { new Layer(2, 1, new Linear()) });
+        Hogwild hogwild = new Hogwild(nn, 0.01, 2);
+        nn.setup(hogwild, new MSE());
+
+        assertThrows(IllegalArgumentException.class, () -> hogwild.train(d, 1, 32));
+
+        nn.setup(new Adam(nn), new MSE());
+        nn.setParallelism(2);
+        assertThrows(IllegalArgumentException.class, () -> nn.fitNext(d, 32));
+    }
+
+    @Test
+    public void loadState_savedShuffle_SameOrder() {
+        String file = this.write(Precision.FP32);
+        MappedDataset a = new MappedDataset(file, 0.2, new Random(44), 50);
+        MappedDataset b = new MappedDataset(file, 0.2, new Random(45), 50);
+
+        a.shuffle();
+        ByteBuffer state = ByteBuffer.allocate(a.stateSize());
+        a.saveState(state);
+        b.loadState(state.flip());
+
+        a.shuffle();
+        b.shuffle();
+        Workspace wa = workspace(400, Precision.FP32);
+        Workspace wb = workspace(400, Precision.FP32);
+        a.stage(wa, 0, 400);
+        b.stage(wb, 0, 400);
+
+        assertArrayEquals(wa.getInput32(), wb.getInput32());
+    }
+
+    @Test
+    public void loadState_duplicateBlock_ExceptionThrown() {
+        MappedDataset d = new MappedDataset(this.write(Precision.FP64), 0.2, new Random(50), 50);
+        d.shuffle();
+        ByteBuffer state = ByteBuffer.allocate(d.stateSize());
+        d.saveState(state);
+        state.putInt(3 * Integer.BYTES, state.getInt(2 * Integer.BYTES)); // the first block twice
+
+        assertThrows(IllegalArgumentException.class, () -> d.loadState(state.flip()));
+    }
+
+    @Test
+    public void fitNext_mappedDataset_LossDecreases() {
+        for (Precision precision : Precision.values()) {
+            MappedDataset d = new MappedDataset(this.write(precision), 0.2, new Random(46), 64);
+            Random rand = new Random(47);
+            NeuralNetwork nn = new NeuralNetwork(new Layer[] {
+                    new Layer(2, 16, new ReLU(), new XavierInitializer(rand)),
+                    new Layer(16, 1, new Linear(), new XavierInitializer(rand))
+            }, precision);
+            nn.setup(new Adam(nn), new MSE());
+
+            double before = nn.calculateLoss(d.valX(), d.valY());
+            for (int epoch = 0; epoch < 20; epoch++) {
+                nn.fitNext(d, 32);
+            }
+
+            assertTrue(nn.calculateLoss(d.valX(), d.valY()) < before, precision.toString());
+        }
+    }
+
+    private static Workspace workspace(int capacity, Precision precision) {
+        Layer layer = new Layer(2, 1, new Linear());
+        layer.setPrecision(precision);
+        return new Workspace(new Layer[] { layer }, capacity);
+    }
+
+    private String write(Precision precision) {
+        String file = this.dir.resolve(precision + ".fads").toString();
+        try (MappedDataset.Writer w = new MappedDataset.Writer(file, 2, 1, precision)) {
+            w.addAll(this.x, this.y);
+        }
+        return file;
+    }
+}
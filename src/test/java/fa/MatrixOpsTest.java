@@ -0,0 +1,190 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fa.nn.util.Kernels;
+import fa.nn.util.MatrixOps;
+
+public class MatrixOpsTest {
+    private static final double TOLERANCE = 1e-10;
+
+    Kernels scalar;
+    Kernels vector;
+    Random rand;
+
+    @BeforeEach
+    void setup() {
+        this.scalar = MatrixOps.scalar();
+        this.vector = MatrixOps.vector();
+        this.rand = new Random(11);
+
+        // The build runs tests with --add-modules jdk.incubator.vector
+        assumeTrue(this.vector != null, "Vector API unavailable");
+    }
+
+    @Test
+    public void kernels_selected_NotNull() {
+        assertNotNull(MatrixOps.kernels());
+    }
+
+    @Test
+    public void multiplyTransposed_vector_MatchesScalar() {
+        // Odd sizes cover the vector tail, the 4-row tile remainder and several blocks
+        int m = 70, n = 67, k = 37;
+        double[] a = random(m * k), b = random(n * k);
+        double[] cs = random(m * n), cv = cs.clone();
+
+        this.scalar.multiplyTransposed(a, k, b, k, cs, n, m, n, k);
+        this.vector.multiplyTransposed(a, k, b, k, cv, n, m, n, k);
+
+        assertArrayEquals(cs, cv, TOLERANCE);
+    }
+
+    @Test
+    public void multiply_vector_MatchesScalar() {
+        int m = 9, n = 35, k = 13;
+        double[] a = random(m * k), b = random(k * n);
+        double[] cs = new double[m * n], cv = new double[m * n];
+
+        this.scalar.multiply(a, k, b, n, cs, n, m, n, k);
+        this.vector.multiply(a, k, b, n, cv, n, m, n, k);
+
+        assertArrayEquals(cs, cv, TOLERANCE);
+    }
+
+    @Test
+    public void multiplyTransposedA_vector_MatchesScalar() {
+        int m = 66, n = 19, k = 11;
+        double[] a = random(k * m), b = random(k * n);
+        double[] cs = new double[m * n], cv = new double[m * n];
+
+        this.scalar.multiplyTransposedA(a, m, b, n, cs, n, m, n, k);
+        this.vector.multiplyTransposedA(a, m, b, n, cv, n, m, n, k);
+
+        assertArrayEquals(cs, cv, TOLERANCE);
+    }
+
+    @Test
+    public void addColumnSums_vector_MatchesScalar() {
+        int m = 7, n = 29;
+        double[] a = random(m * n);
+        double[] vs = new double[n], vv = new double[n];
+
+        this.scalar.addColumnSums(a, n, vs, m, n);
+        this.vector.addColumnSums(a, n, vv, m, n);
+
+        assertArrayEquals(vs, vv, TOLERANCE);
+    }
+
+    @Test
+    public void axpy_vector_MatchesScalar() {
+        double[] x = random(41);
+        double[] ys = random(45), yv = ys.clone();
+
+        this.scalar.axpy(-0.75, x, 2, ys, 4, 39);
+        this.vector.axpy(-0.75, x, 2, yv, 4, 39);
+
+        assertArrayEquals(ys, yv, TOLERANCE);
+    }
+
+    @Test
+    public void adam_vector_MatchesScalar() {
+        // Parameters and optimizer state start at different offsets
+        int n = 53, wOff = 3, off = 5;
+        double[] g = random(off + n);
+        double[] ms = random(off + n), mv = ms.clone();
+        double[] vs = abs(random(off + n)), vv = vs.clone();
+        double[] ws = random(wOff + n), wv = ws.clone();
+        double[] expected = ws.clone();
+
+        for (int k = 0; k < n; k++) {
+            double gk = g[off + k] * 0.25;
+            double m = 0.9 * ms[off + k] + 0.1 * gk;
+            double v = 0.999 * vs[off + k] + 0.001 * gk * gk;
+            expected[wOff + k] -= 1e-3 * (m / 0.19) / (Math.sqrt(v / 0.002) + 1e-7);
+        }
+
+        this.scalar.adam(ws, wOff, g, ms, vs, off, n, 0.25, 0.9, 0.999, 1e-3, 0.19, 0.002, 1e-7);
+        this.vector.adam(wv, wOff, g, mv, vv, off, n, 0.25, 0.9, 0.999, 1e-3, 0.19, 0.002, 1e-7);
+
+        assertArrayEquals(expected, ws, TOLERANCE);
+        assertArrayEquals(ms, mv, TOLERANCE);
+        assertArrayEquals(vs, vv, TOLERANCE);
+        assertArrayEquals(ws, wv, TOLERANCE);
+    }
+
+    @Test
+    public void multiplyTransposed_vectorFloat_MatchesScalar() {
+        int m = 70, n = 67, k = 37;
+        float[] a = randomFloat(m * k), b = randomFloat(n * k);
+        float[] cs = randomFloat(m * n), cv = cs.clone();
+
+        this.scalar.multiplyTransposed(a, k, b, k, cs, n, m, n, k);
+        this.vector.multiplyTransposed(a, k, b, k, cv, n, m, n, k);
+
+        assertArrayEquals(cs, cv, 1e-4f);
+    }
+
+    @Test
+    public void multiplyTransposedA_vectorFloat_MatchesScalar() {
+        int m = 66, n = 19, k = 11;
+        float[] a = randomFloat(k * m), b = randomFloat(k * n);
+        float[] cs = new float[m * n], cv = new float[m * n];
+
+        this.scalar.multiplyTransposedA(a, m, b, n, cs, n, m, n, k);
+        this.vector.multiplyTransposedA(a, m, b, n, cv, n, m, n, k);
+
+        assertArrayEquals(cs, cv, 1e-5f);
+    }
+
+    @Test
+    public void adam_vectorFloat_MatchesScalar() {
+        int n = 53, wOff = 3, off = 5;
+        float[] g = randomFloat(off + n);
+        float[] ms = randomFloat(off + n), mv = ms.clone();
+        float[] vs = randomFloat(off + n), vv;
+        for (int i = 0; i < vs.length; i++) {
+            vs[i] = Math.abs(vs[i]) + 0.1f;
+        }
+        vv = vs.clone();
+        float[] ws = randomFloat(wOff + n), wv = ws.clone();
+
+        this.scalar.adam(ws, wOff, g, ms, vs, off, n, 0.25, 0.9, 0.999, 1e-3, 0.19, 0.002, 1e-7);
+        this.vector.adam(wv, wOff, g, mv, vv, off, n, 0.25, 0.9, 0.999, 1e-3, 0.19, 0.002, 1e-7);
+
+        assertArrayEquals(ms, mv, 1e-5f);
+        assertArrayEquals(vs, vv, 1e-5f);
+        assertArrayEquals(ws, wv, 1e-5f);
+    }
+
+    private float[] randomFloat(int n) {
+        float[] v = new float[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = this.rand.nextInt(8) == 0 ? 0f : (float) this.rand.nextGaussian();
+        }
+        return v;
+    }
+
+    private double[] random(int n) {
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Include exact zeros, which the kernels may skip
+            v[i] = this.rand.nextInt(8) == 0 ? 0.0 : this.rand.nextGaussian();
+        }
+        return v;
+    }
+
+    private static double[] abs(double[] v) {
+        for (int i = 0; i < v.length; i++) {
+            v[i] = Math.abs(v[i]);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,108 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fa.core.Trainer;
+
+public class ModelCacheTest {
+    ModelCache cache;
+    double[] x;
+
+    @BeforeEach
+    public void setup() {
+        this.cache = new ModelCache(1 << 20);
+        this.x = new double[200];
+        for (int i = 0; i < this.x.length; i++) {
+            this.x[i] = i / 100.0 - 1;
+        }
+    }
+
+    @Test
+    public void prepare_emptyCache_KeepsFreshNetwork() {
+        Trainer t = this.trainer(0.0);
+        double[] before = t.predict(this.x);
+
+        assertEquals(0, this.cache.prepare(this.key("a", t), t));
+        assertArrayEquals(before, t.predict(this.x));
+    }
+
+    @Test
+    public void prepare_sameTask_ResumesCachedModel() {
+        Trainer trained = this.trainer(0.0);
+        for (int epoch = 0; epoch < 20; epoch++) {
+            trained.next();
+        }
+        this.cache.put(this.key("a", trained), trained, 20);
+
+        Trainer t = this.trainer(0.0);
+        assertEquals(20, this.cache.prepare(this.key("a", t), t));
+        assertArrayEquals(trained.predict(this.x), t.predict(this.x));
+
+        // The optimizer state came along, so both continue identically
+        trained.next();
+        t.next();
+        assertArrayEquals(trained.predict(this.x), t.predict(this.x), 1e-12);
+    }
+
+    @Test
+    public void prepare_editedTask_WarmStartsFromClosest() {
+        Trainer trained = this.trainer(0.0);
+        for (int epoch = 0; epoch < 200; epoch++) {
+            trained.next();
+        }
+        this.cache.put(this.key("x^2", trained), trained, 200);
+
+        Trainer t = this.trainer(0.05); // a small edit of the same function
+        double fresh = t.trainLoss();
+
+        assertEquals(0, this.cache.prepare(this.key("x^2+0.05", t), t));
+        assertTrue(t.trainLoss() < fresh / 10, t.trainLoss() + " vs fresh " + fresh);
+        assertEquals(1, this.cache.size());
+    }
+
+    @Test
+    public void prepare_manyCandidates_CostsLessThanOneEpoch() {
+        this.x = new double[20000];
+        for (int i = 0; i < this.x.length; i++) {
+            this.x[i] = i / 10000.0 - 1;
+        }
+        for (int c = 0; c < 8; c++) {
+            Trainer candidate = this.trainer(c / 10.0);
+            this.cache.put(this.key("x^2+" + c, candidate), candidate, 1);
+        }
+
+        Trainer t = this.trainer(0.05);
+        long prepare = Long.MAX_VALUE;
+        long epoch = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            assertEquals(0, this.cache.prepare(this.key("x^2+0.05", t), t));
+            prepare = Math.min(prepare, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            t.next();
+            epoch = Math.min(epoch, System.nanoTime() - start);
+        }
+
+        assertTrue(prepare <= epoch, "prepare " + prepare + " ns vs epoch " + epoch + " ns");
+    }
+
+    private Trainer trainer(double shift) {
+        double[] y = new double[this.x.length];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = this.x[i] * this.x[i] + shift;
+        }
+        return new Trainer(this.x, y, new Random(3));
+    }
+
+    private ModelCache.Key key(String expression, Trainer t) {
+        return new ModelCache.Key(expression, -1, 1, t.architecture());
+    }
+}
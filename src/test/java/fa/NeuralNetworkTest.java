@@ -3,14 +3,34 @@ package fa;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import fa.nn.EpochStats;
+import fa.nn.Evaluation;
 import fa.nn.Layer;
 import fa.nn.NeuralNetwork;
+import fa.nn.Precision;
+import fa.nn.activation.Linear;
 import fa.nn.activation.ReLU;
+import fa.nn.initialize.XavierInitializer;
 import fa.nn.learn.Adam;
+import fa.nn.learn.Dataset;
 import fa.nn.learn.SGD;
 import fa.nn.loss.MSE;
 
@@ -82,6 +102,64 @@ public class NeuralNetworkTest {
         assertArrayEquals(expected, yhat);
     }
 
+    @Test
+    public void predictBatch_invalidLength_ExceptionThrown() {
+        assertThrows(IllegalArgumentException.class, () -> this.nn.predictBatch(new double[3], 2));
+        assertThrows(IllegalArgumentException.class, () -> this.nn.predictBatch(new double[][] { { 1.0, 2.0 } }));
+    }
+
+    @Test
+    public void predictBatch_validParameters_MatchesPredict() {
+        double[][] x = { { 1.0 }, { -1.0 }, { 0.5 }, { 3.0 }, { 2.0 } };
+        double[][] yhat = this.nn.predictBatch(x);
+
+        assertEquals(x.length, yhat.length);
+        for (int r = 0; r < x.length; r++) {
+            assertArrayEquals(this.nn.predict(x[r]), yhat[r]);
+        }
+
+        // z[2][1] = 0.5 * 3.0 + 1.0 * 6.0 = 7.5
+        double[] flat = this.nn.predictBatch(new double[] { 1.0, 3.0 }, 2);
+        assertArrayEquals(new double[] { 2.5, 7.5 }, flat);
+    }
+
+    @Test
+    public void predict_concurrentThreads_MatchesSerial() throws Exception {
+        Random rand = new Random(5);
+        NeuralNetwork net = new NeuralNetwork(new Layer[] {
+                new Layer(1, 64, new ReLU(), new XavierInitializer(rand)),
+                new Layer(64, 64, new ReLU(), new XavierInitializer(rand)),
+                new Layer(64, 1, new Linear(), new XavierInitializer(rand))
+        });
+
+        int n = 500;
+        double[] expected = new double[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = net.predict(new double[] { i * 0.01 })[0];
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        if (net.predict(new double[] { i * 0.01 })[0] != expected[i]) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     @Test
     public void setup_nullParameters_ExceptionThrown() {
         assertThrows(NullPointerException.class, () -> this.nn.setup(new Adam(nn), null));
@@ -146,4 +224,396 @@ public class NeuralNetworkTest {
 
         assertArrayEquals(new double[] { 1.0, 0.0 }, predicted);
     }
+
+    @Test
+    public void fitNext_steadyState_AllocatesNoBytesPerSample() {
+        Random rand = new Random(4);
+        Layer[] layers = {
+                new Layer(1, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 1, new Linear(), new XavierInitializer(rand))
+        };
+        NeuralNetwork net = new NeuralNetwork(layers);
+        net.setup(new Adam(net), new MSE());
+
+        int n = 2000;
+        double[][] x = new double[n][1];
+        double[][] y = new double[n][1];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+        Dataset d = new Dataset(x, y, 0.2, rand);
+
+        // Warm up: allocates the workspace and lets C2 compile the kernels; the
+        // Vector API only stops boxing vectors once its intrinsics are compiled
+        for (int epoch = 0; epoch < 200; epoch++) {
+            net.fitNext(d, 256);
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        int epochs = 10;
+
+        long before = bean.getCurrentThreadAllocatedBytes();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            net.fitNext(d, 256);
+        }
+        long perEpoch = (bean.getCurrentThreadAllocatedBytes() - before) / epochs;
+
+        // Far below one byte per sample (1600 training samples per epoch)
+        assertTrue(perEpoch < 256, "allocated " + perEpoch + " bytes per epoch");
+    }
+
+    @Test
+    public void predict_steadyState_AllocatesOnlyOutput() {
+        Random rand = new Random(4);
+        NeuralNetwork net = new NeuralNetwork(new Layer[] {
+                new Layer(1, 64, new ReLU(), new XavierInitializer(rand)),
+                new Layer(64, 64, new ReLU(), new XavierInitializer(rand)),
+                new Layer(64, 1, new Linear(), new XavierInitializer(rand))
+        });
+        double[] x = { 0.5 };
+
+        for (int i = 0; i < 20_000; i++) { // Warm up, see fitNext_steadyState_AllocatesNoBytesPerSample
+            net.predict(x);
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        int calls = 1000;
+
+        long before = bean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            net.predict(x);
+        }
+        long perCall = (bean.getCurrentThreadAllocatedBytes() - before) / calls;
+
+        // The returned array of one double; a fresh context would take well over 1 KB
+        assertTrue(perCall < 64, "allocated " + perCall + " bytes per call");
+    }
+
+    @Test
+    public void setParallelism_invalidParameters_ExceptionThrown() {
+        assertThrows(IllegalArgumentException.class, () -> this.nn.setParallelism(0));
+    }
+
+    @Test
+    public void fitNext_parallel_MatchesSerial() {
+        NeuralNetwork serial = xSquaredNetwork(6);
+        NeuralNetwork parallel = xSquaredNetwork(6);
+        parallel.setParallelism(4);
+
+        double[][] x = new double[2000][1];
+        double[][] y = new double[2000][1];
+        Random rand = new Random(7);
+        for (int i = 0; i < x.length; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+
+        Dataset ds = new Dataset(x, y, 0.2, new Random(8));
+        Dataset dp = new Dataset(x, y, 0.2, new Random(8));
+
+        for (int epoch = 0; epoch < 3; epoch++) {
+            EpochStats a = serial.fitNext(ds, 256);
+            EpochStats b = parallel.fitNext(dp, 256);
+
+            assertEquals(a.getMeanLoss(), b.getMeanLoss(), 1e-9);
+            assertEquals(a.getMaxLoss(), b.getMaxLoss(), 1e-9);
+        }
+
+        for (int l = 0; l < serial.getNumLayers(); l++) {
+            assertArrayEquals(serial.getLayers()[l].getWeightData(), parallel.getLayers()[l].getWeightData(), 1e-9);
+            assertArrayEquals(serial.getLayers()[l].getBiases(), parallel.getLayers()[l].getBiases(), 1e-9);
+        }
+    }
+
+    @Test
+    public void predictBatch_fp32_MatchesFp64() {
+        NeuralNetwork fp64 = xSquaredNetwork(10);
+        NeuralNetwork fp32 = xSquaredNetwork(10, Precision.FP32);
+
+        double[] x = new double[300];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 150.0 - 1;
+        }
+
+        assertArrayEquals(fp64.predictBatch(x, x.length), fp32.predictBatch(x, x.length), 1e-5);
+        assertArrayEquals(fp64.predict(new double[] { 0.5 }), fp32.predict(new double[] { 0.5 }), 1e-5);
+    }
+
+    @Test
+    public void fitNext_singlePrecision_LossDecreases() {
+        double[][] x = new double[1000][1];
+        double[][] y = new double[1000][1];
+        Random rand = new Random(11);
+        for (int i = 0; i < x.length; i++) {
+            x[i][0] = rand.nextDouble() * 2 - 1;
+            y[i][0] = x[i][0] * x[i][0];
+        }
+
+        for (Precision precision : new Precision[] { Precision.FP32, Precision.MIXED }) {
+            for (boolean adam : new boolean[] { true, false }) {
+                NeuralNetwork net = xSquaredNetwork(12, precision);
+                if (!adam) {
+                    net.setup(new SGD(net, 0.1), new MSE());
+                }
+
+                Dataset d = new Dataset(x, y, 0.2, new Random(13), precision);
+                double before = net.calculateLoss(d.trainX(), d.trainY());
+                for (int epoch = 0; epoch < 20; epoch++) {
+                    net.fitNext(d, 32);
+                }
+                double after = net.calculateLoss(d.trainX(), d.trainY());
+
+                assertEquals(precision, net.getLayers()[0].getPrecision());
+                assertTrue(after < before, precision + (adam ? " Adam" : " SGD") + ": " + after + " >= " + before);
+            }
+        }
+    }
+
+    @Test
+    public void fitNext_singleBatch_ReportsLossBeforeUpdate() {
+        double[] x = new double[500];
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 250.0 - 1;
+            y[i] = x[i] * x[i];
+        }
+
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork net = xSquaredNetwork(19, precision);
+            Dataset d = new Dataset(x, y, 1, 1, 0.2, new Random(20), precision);
+            double before = net.calculateLoss(d.trainX(), d.trainY());
+
+            // One batch holds the whole epoch, so its forward pass sees the weights calculateLoss saw
+            EpochStats stats = net.fitNext(d, d.trainSize());
+
+            assertEquals(before, stats.getMeanLoss(), 1e-9, precision.toString());
+            assertTrue(stats.getMaxLoss() >= stats.getMeanLoss());
+            assertEquals(d.trainSize(), stats.getSamples());
+            assertTrue(stats.getNanos() > 0);
+        }
+    }
+
+    @Test
+    public void fitNext_interrupted_StopsAtBatchBoundary() {
+        NeuralNetwork net = xSquaredNetwork(15);
+        double[][] before = net.getLayers()[0].getWeights();
+        Dataset d = new Dataset(new double[100], new double[100], 1, 1, 0.2, new Random(16), Precision.FP64);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> net.fitNext(d, 10));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertArrayEquals(before, net.getLayers()[0].getWeights());
+    }
+
+    @Test
+    public void evaluate_dataset_MatchesSeparatePasses() {
+        double[] x = new double[1000];
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 500.0 - 1;
+            y[i] = x[i] * x[i];
+        }
+
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork net = xSquaredNetwork(17, precision);
+            Dataset d = new Dataset(x, y, 1, 1, 0.2, new Random(18), precision);
+            net.fitNext(d, 32);
+
+            Evaluation e = net.evaluate(d);
+            assertArrayEquals(net.predictBatch(x, x.length), e.getPredictions(), precision.toString());
+            assertEquals(net.calculateLoss(d.trainX(), d.trainY()), e.getTrainLoss(), 1e-12);
+            assertEquals(net.calculateLoss(d.valX(), d.valY()), e.getValLoss(), 1e-12);
+
+            Evaluation parallel = net.evaluate(d, 3);
+            assertArrayEquals(e.getPredictions(), parallel.getPredictions());
+            assertEquals(e.getTrainLoss(), parallel.getTrainLoss());
+            assertEquals(e.getValLoss(), parallel.getValLoss());
+        }
+    }
+
+    @Test
+    public void calculateLoss_datasetRows_MatchesCopies() {
+        double[] x = new double[1000];
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 500.0 - 1;
+            y[i] = x[i] * x[i];
+        }
+
+        NeuralNetwork net = xSquaredNetwork(19);
+        Dataset d = new Dataset(x, y, 1, 1, 0.2, new Random(20), Precision.FP64);
+        net.fitNext(d, 32);
+
+        assertEquals(net.calculateLoss(d.trainX(), d.trainY()), net.calculateLoss(d, 0, d.trainSize()), 1e-12);
+        assertEquals(net.calculateLoss(d.valX(), d.valY()), net.calculateLoss(d, d.trainSize(), d.size()), 1e-12);
+        assertThrows(IndexOutOfBoundsException.class, () -> net.calculateLoss(d, 0, d.size() + 1));
+    }
+
+    @Test
+    public void setParallelism_singlePrecision_ExceptionThrown() {
+        NeuralNetwork net = xSquaredNetwork(14, Precision.FP32);
+        assertThrows(IllegalStateException.class, () -> net.setParallelism(2));
+    }
+
+    @Test
+    public void save_fromFile_RestoresNetwork(@TempDir Path dir) {
+        for (Precision precision : Precision.values()) {
+            NeuralNetwork net = xSquaredNetwork(15, precision);
+            String file = dir.resolve(precision + ".fann").toString();
+            net.save(file);
+
+            NeuralNetwork copy = NeuralNetwork.fromFile(file);
+            double[] x = { -0.75, -0.1, 0.3, 0.9 };
+
+            assertEquals(precision, copy.getPrecision());
+            assertEquals(net.getNumLayers(), copy.getNumLayers());
+            assertArrayEquals(net.predictBatch(x, x.length), copy.predictBatch(x, x.length), 0.0);
+        }
+    }
+
+    @Test
+    public void load_otherPrecision_ConvertsParameters(@TempDir Path dir) {
+        NeuralNetwork fp64 = xSquaredNetwork(16);
+        NeuralNetwork fp32 = xSquaredNetwork(17, Precision.FP32);
+        String file = dir.resolve("fp64.fann").toString();
+
+        fp64.save(file);
+        fp32.load(file);
+
+        double[] x = { -0.5, 0.25, 0.8 };
+        assertArrayEquals(fp64.predictBatch(x, x.length), fp32.predictBatch(x, x.length), 1e-5);
+    }
+
+    @Test
+    public void load_trainerState_ResumesExactly(@TempDir Path dir) {
+        double[][][] batches = new double[10][16][1];
+        double[][][] targets = new double[10][16][1];
+        Random rand = new Random(18);
+        for (int b = 0; b < batches.length; b++) {
+            for (int i = 0; i < batches[b].length; i++) {
+                batches[b][i][0] = rand.nextDouble() * 2 - 1;
+                targets[b][i][0] = batches[b][i][0] * batches[b][i][0];
+            }
+        }
+
+        for (Precision precision : Precision.values()) {
+            for (boolean adam : new boolean[] { true, false }) {
+                NeuralNetwork trained = xSquaredNetwork(19, precision);
+                NeuralNetwork resumed = xSquaredNetwork(20, precision);
+                if (!adam) {
+                    trained.setup(new SGD(trained, 0.1), new MSE());
+                    resumed.setup(new SGD(resumed, 0.1), new MSE());
+                }
+
+                String file = dir.resolve(precision + "-" + adam + ".fann").toString();
+                for (int b = 0; b < batches.length; b++) {
+                    if (b == batches.length / 2) {
+                        trained.save(file, true);
+                        resumed.load(file);
+                    }
+                    if (b >= batches.length / 2) {
+                        resumed.getTrainer().learnBatch(batches[b], targets[b]);
+                        resumed.getTrainer().step();
+                    }
+                    trained.getTrainer().learnBatch(batches[b], targets[b]);
+                    trained.getTrainer().step();
+                }
+
+                for (int l = 0; l < trained.getNumLayers(); l++) {
+                    String name = precision + (adam ? " Adam" : " SGD") + " layer " + l;
+                    assertArrayEquals(flatten(trained.getLayers()[l].getWeights()),
+                            flatten(resumed.getLayers()[l].getWeights()), 0.0, name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void load_invalidFile_ExceptionThrown(@TempDir Path dir) throws IOException {
+        String file = dir.resolve("model.fann").toString();
+        this.nn.save(file);
+
+        assertThrows(IllegalArgumentException.class, () -> xSquaredNetwork(21).load(file));
+
+        Path garbage = dir.resolve("garbage.fann");
+        Files.write(garbage, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 });
+        assertThrows(IllegalArgumentException.class, () -> this.nn.load(garbage.toString()));
+    }
+
+    @Test
+    public void map_savedNetwork_PredictsIdentically(@TempDir Path dir) {
+        double[] x = new double[300];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 150.0 - 1;
+        }
+
+        for (Precision precision : Precision.values()) {
+            Random rand = new Random(22);
+            NeuralNetwork heap = new NeuralNetwork(new Layer[] {
+                    new Layer(1, 100, new ReLU(), new XavierInitializer(rand)),
+                    new Layer(100, 70, new ReLU(), new XavierInitializer(rand)),
+                    new Layer(70, 1, new Linear(), new XavierInitializer(rand))
+            }, precision);
+            String file = dir.resolve(precision + ".fann").toString();
+            heap.save(file);
+
+            NeuralNetwork mapped = NeuralNetwork.map(file);
+            NeuralNetwork moved = NeuralNetwork.fromFile(file);
+            moved.moveOffHeap();
+
+            double[] expected = heap.predictBatch(x, x.length);
+            assertTrue(mapped.getLayers()[0].isOffHeap());
+            assertArrayEquals(expected, mapped.predictBatch(x, x.length), 0.0, precision.toString());
+            assertArrayEquals(expected, moved.predictBatch(x, x.length), 0.0, precision.toString());
+            assertArrayEquals(heap.predict(new double[] { 0.3 }), mapped.predict(new double[] { 0.3 }), 0.0);
+
+            String copy = dir.resolve(precision + "-copy.fann").toString();
+            mapped.save(copy);
+            assertArrayEquals(expected, NeuralNetwork.fromFile(copy).predictBatch(x, x.length), 0.0);
+        }
+    }
+
+    @Test
+    public void map_train_ExceptionThrown(@TempDir Path dir) {
+        String file = dir.resolve("model.fann").toString();
+        this.nn.save(file);
+
+        NeuralNetwork mapped = NeuralNetwork.map(file);
+        mapped.setup(new SGD(mapped, 0.1), new MSE());
+
+        assertThrows(IllegalStateException.class, () -> mapped.fit(new double[][] { { 1.0 } },
+                new double[][] { { 2.0 } }, 0.0, 1, 1, false, new Random(23)));
+    }
+
+    private static double[] flatten(double[][] m) {
+        double[] flat = new double[m.length * m[0].length];
+        for (int r = 0; r < m.length; r++) {
+            System.arraycopy(m[r], 0, flat, r * m[0].length, m[r].length);
+        }
+        return flat;
+    }
+
+    private static NeuralNetwork xSquaredNetwork(long seed) {
+        return xSquaredNetwork(seed, Precision.FP64);
+    }
+
+    private static NeuralNetwork xSquaredNetwork(long seed, Precision precision) {
+        Random rand = new Random(seed);
+        NeuralNetwork net = new NeuralNetwork(new Layer[] {
+                new Layer(1, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 32, new ReLU(), new XavierInitializer(rand)),
+                new Layer(32, 1, new Linear(), new XavierInitializer(rand))
+        }, precision);
+        net.setup(new Adam(net), new MSE());
+        return net;
+    }
 }
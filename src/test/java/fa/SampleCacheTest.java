@@ -0,0 +1,116 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SampleCacheTest {
+    SampleCache cache;
+    CountDownLatch release;
+
+    @BeforeEach
+    public void setup() {
+        // Room for three entries of 100 points
+        this.cache = new SampleCache(3 * points(100).bytes(), 1);
+        this.release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void teardown() {
+        this.release.countDown();
+        this.cache.destroy();
+    }
+
+    @Test
+    public void request_sameKey_SampledOnce() throws Exception {
+        AtomicInteger sampled = new AtomicInteger();
+        SampleCache.Key key = key("$ 2.0 ^/2", 100);
+
+        SampleCache.Points a = this.cache.request("a", key, () -> {
+            sampled.incrementAndGet();
+            return points(100);
+        }, p -> {}).get();
+        SampleCache.Points b = this.cache.request("b", key, () -> {
+            sampled.incrementAndGet();
+            return points(100);
+        }, p -> {}).get();
+
+        assertSame(a, b);
+        assertEquals(1, sampled.get());
+    }
+
+    @Test
+    public void put_overBudget_EvictsLeastRecentlyUsed() {
+        for (int i = 0; i < 3; i++) {
+            this.cache.put(key("e" + i, 100), points(100));
+        }
+        this.cache.get(key("e0", 100)); // e1 is now the eldest
+        this.cache.put(key("e3", 100), points(100));
+
+        assertEquals(3, this.cache.size());
+        assertNotNull(this.cache.get(key("e0", 100)));
+        assertNull(this.cache.get(key("e1", 100)));
+        assertTrue(this.cache.getBytes() <= 3 * points(100).bytes());
+
+        this.cache.put(key("huge", 1000), points(1000)); // larger than the whole budget
+        assertNull(this.cache.get(key("huge", 1000)));
+        assertEquals(3, this.cache.size());
+    }
+
+    @Test
+    public void request_newerFromSameClient_SupersedesOlder() throws Exception {
+        List<String> stored = new ArrayList<>();
+        CountDownLatch running = new CountDownLatch(1);
+
+        // The first request occupies the only thread, the second waits behind it
+        CompletableFuture<SampleCache.Points> first = this.cache.request("a", key("first", 100), () -> {
+            running.countDown();
+            await(this.release);
+            return points(100);
+        }, p -> stored.add("first"));
+        running.await();
+        AtomicInteger queuedRan = new AtomicInteger();
+        CompletableFuture<SampleCache.Points> second = this.cache.request("a", key("second", 100), () -> {
+            queuedRan.incrementAndGet();
+            return points(100);
+        }, p -> stored.add("second"));
+        CompletableFuture<SampleCache.Points> third = this.cache.request("a", key("third", 100), () -> points(100),
+                () -> stored.add("cleared"), p -> stored.add("third"));
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        this.release.countDown();
+        third.get();
+
+        assertEquals(List.of("cleared", "third"), stored);
+        assertEquals(0, queuedRan.get());
+    }
+
+    private static SampleCache.Key key(String expression, int n) {
+        return new SampleCache.Key(expression, -1, 1, n, 0, false);
+    }
+
+    private static SampleCache.Points points(int n) {
+        return new SampleCache.Points(new double[n], new double[n]);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fa.dto.CompactPredictionResponse;
+import fa.dto.CompactStreamStart;
+import fa.dto.PredictionResponse;
+
+public class SnapshotMailboxTest {
+    /* Records the sent objects; the first send waits until released. */
+    static class SlowEmitter extends SseEmitter {
+        final List<Object> sent = new CopyOnWriteArrayList<>();
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final boolean fail;
+
+        SlowEmitter(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            this.sending.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (this.fail) {
+                throw new IOException("Broken pipe");
+            }
+
+            builder.build().stream()
+                    .map(d -> d.getData())
+                    .filter(d -> d instanceof PredictionResponse || d instanceof CompactPredictionResponse
+                            || d instanceof CompactStreamStart || "ok".equals(d))
+                    .forEach(this.sent::add);
+        }
+
+        @Override
+        public void complete() {
+            this.completed.countDown();
+        }
+    }
+
+    @Test
+    public void publish_slowClient_CoalescesToLatest() throws Exception {
+        SlowEmitter emitter = new SlowEmitter(false);
+        SnapshotMailbox mailbox = new SnapshotMailbox(emitter, false, null);
+        mailbox.start(() -> {});
+
+        mailbox.publish(snapshot(1));
+        assertTrue(emitter.sending.await(5, TimeUnit.SECONDS)); // the sender took epoch 1 and blocks on the client
+        for (int epoch = 2; epoch <= 10; epoch++) {
+            mailbox.publish(snapshot(epoch)); // never blocks
+        }
+        mailbox.close();
+        emitter.release.countDown();
+
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, emitter.sent.size());
+        assertEquals(1, ((PredictionResponse) emitter.sent.get(0)).getEpoch());
+        PredictionResponse last = (PredictionResponse) emitter.sent.get(1);
+        assertEquals(10, last.getEpoch());
+        assertEquals(8, last.getCoalesced());
+        assertEquals(8, mailbox.getDropped());
+        assertEquals("ok", emitter.sent.get(2));
+    }
+
+    @Test
+    public void publish_failedSend_RunsFailureCallback() throws Exception {
+        SlowEmitter emitter = new SlowEmitter(true);
+        SnapshotMailbox mailbox = new SnapshotMailbox(emitter, false, null);
+        AtomicBoolean failed = new AtomicBoolean();
+        mailbox.start(() -> failed.set(true));
+
+        emitter.release.countDown();
+        mailbox.publish(snapshot(1));
+
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(failed.get());
+    }
+
+    @Test
+    public void publish_compactFormat_SendsXOnceAndFloat32() throws Exception {
+        double[] x = new double[20000];
+        double[] y = new double[x.length];
+        Random rand = new Random(60);
+        for (int i = 0; i < x.length; i++) {
+            x[i] = i / 100.0 - 100;
+            y[i] = rand.nextGaussian() * 1000;
+        }
+
+        SlowEmitter emitter = new SlowEmitter(false);
+        emitter.release.countDown();
+        SnapshotMailbox mailbox = new SnapshotMailbox(emitter, true, x);
+        mailbox.start(() -> {});
+        mailbox.publish(new PredictionResponse(x, y, 5, 1.0, 2.0));
+        mailbox.close();
+
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, emitter.sent.size());
+        assertEquals(x.length, ((CompactStreamStart) emitter.sent.get(0)).getN());
+
+        CompactPredictionResponse compact = (CompactPredictionResponse) emitter.sent.get(1);
+        assertEquals(5, compact.getEpoch());
+        FloatBuffer decoded = ByteBuffer.wrap(Base64.getDecoder().decode(compact.getY()))
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (int i = 0; i < y.length; i++) {
+            assertEquals((float) y[i], decoded.get(i));
+        }
+
+        ObjectMapper json = new ObjectMapper();
+        int full = json.writeValueAsBytes(new PredictionResponse(x, y, 5, 1.0, 2.0)).length;
+        int small = json.writeValueAsBytes(compact).length;
+        assertTrue(full > 5 * small, full + " vs " + small);
+    }
+
+    private static PredictionResponse snapshot(int epoch) {
+        return new PredictionResponse(new double[] { 0 }, new double[] { epoch }, epoch, 1.0, 2.0);
+    }
+}
@@ -0,0 +1,93 @@
+package fa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TrainingSessionsTest {
+    TrainingSessions sessions;
+    CountDownLatch release;
+
+    @BeforeEach
+    public void setup() {
+        this.sessions = new TrainingSessions(1, 1);
+        this.release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void teardown() {
+        this.release.countDown();
+        this.sessions.destroy();
+    }
+
+    @Test
+    public void put_twoClients_SamplesKeptApart() {
+        this.sessions.put("a", new double[] { 1 }, new double[] { 2 }, 10, 5);
+        this.sessions.put("b", new double[] { 3 }, new double[] { 4 }, 20, 5);
+        this.sessions.clear("b");
+
+        assertEquals(1, this.sessions.get("a").x[0]);
+        assertEquals(10, this.sessions.get("a").epochs);
+        assertNull(this.sessions.get("b"));
+    }
+
+    @Test
+    public void submit_sameClient_CancelsPrevious() throws Exception {
+        AtomicInteger cancelled = new AtomicInteger();
+        Future<?> first = this.sessions.submit("a", this::block, cancelled::incrementAndGet);
+        Future<?> second = this.sessions.submit("a", () -> {}, cancelled::incrementAndGet);
+
+        second.get();
+        assertTrue(first.isCancelled());
+        assertEquals(1, cancelled.get());
+
+        // Cancelling a job that was already replaced is a no-op
+        this.sessions.cancel("a", first);
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    public void submit_poolFull_Rejected() {
+        this.sessions.submit("a", this::block, () -> {});
+        this.sessions.submit("b", this::block, () -> {});
+
+        assertThrows(RejectedExecutionException.class, () -> this.sessions.submit("c", this::block, () -> {}));
+    }
+
+    @Test
+    public void submit_queuedJobsCancelled_QueueFreed() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        this.sessions.submit("a", () -> {
+            running.countDown();
+            this.block();
+        }, () -> {});
+        running.await();
+
+        for (int i = 0; i < 3; i++) {
+            Future<?> queued = this.sessions.submit("b", this::block, () -> {});
+            this.sessions.cancel("b", queued);
+        }
+
+        assertEquals(1, this.sessions.getActive());
+        this.sessions.submit("c", this::block, () -> {});
+        assertEquals(2, this.sessions.getActive());
+    }
+
+    private void block() {
+        try {
+            this.release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}